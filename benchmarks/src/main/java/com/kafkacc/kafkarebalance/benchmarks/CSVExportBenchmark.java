@@ -0,0 +1,113 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dassault_systemes.kafkarebalance.AsyncCSVWriter;
+
+/**
+ * Throughput of the rebalancing impact CSV export (KafkaRebalanceMain.exportDataToCSV) in rows per
+ * second: <br/>
+ * - through the background writer it delegates to, closing the writer so that
+ * the rows are on disk when an invocation ends, <br/>
+ * - with the previous export, which opened, appended to and closed the file for
+ * each row.
+ *
+ * @author SKI44
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CSVExportBenchmark {
+
+	private static final int ROWS = 1000;
+	private static final String[] HEADERS = new String[] { "TimeStamp", "unbalancing-difference" };
+
+	private Path directory;
+	private String[][] rows;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("csv-export-benchmark");
+		rows = new String[ROWS][];
+		for (int i = 0; i < ROWS; i++) {
+			rows[i] = new String[] { String.format("2020/09/13-12:%02d:%02d", (i / 60) % 60, i % 60),
+					Double.toString(i * 0.01) };
+		}
+	}
+
+	/**
+	 * Keeps the files small, appending to a file is measured, not its size
+	 */
+	@TearDown(Level.Iteration)
+	public void deleteFiles() throws IOException {
+		for (File file : directory.toFile().listFiles()) {
+			Files.delete(file.toPath());
+		}
+	}
+
+	@TearDown
+	public void deleteDirectory() throws IOException {
+		deleteFiles();
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public long asyncWriter() throws InterruptedException {
+		String filePath = directory.resolve("async.csv").toString();
+		AsyncCSVWriter writer = new AsyncCSVWriter(ROWS, AsyncCSVWriter.DEFAULT_BATCH_SIZE,
+				AsyncCSVWriter.DEFAULT_FLUSH_INTERVAL_MS);
+		for (String[] row : rows) {
+			writer.submit(filePath, row, HEADERS);
+		}
+		writer.close();
+		return writer.getWrittenRows();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void openAppendClosePerRow() throws IOException {
+		File file = directory.resolve("per-row.csv").toFile();
+		for (String[] row : rows) {
+			if (!file.exists()) {
+				FileWriter writer = new FileWriter(file, true);
+				for (int i = 0; i < HEADERS.length; i++) {
+					writer.append(HEADERS[i]);
+					writer.append(",");
+				}
+				writer.append("\n");
+				writer.close();
+			}
+			FileWriter writer = new FileWriter(file, true);
+			for (int i = 0; i < row.length; i++) {
+				writer.append(row[i]);
+				writer.append(",");
+			}
+			writer.append("\n");
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dassault_systemes.kafkarebalance.CruiseControlStubServer;
+import com.dassault_systemes.kafkarebalance.KafkaRebalanceMain;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Load test of the end-to-end workflow ({@link KafkaRebalanceMain#call()})
+ * against an embedded {@link CruiseControlStubServer}, reporting the
+ * throughput and the latency percentiles of the runs. <br/>
+ * The workflow still needs a ZK ensemble for its queue. The proposal snapshot
+ * cache is disabled so that every run reaches the stub. <br/>
+ * Usage: java -cp benchmarks.jar
+ * com.dassault_systemes.kafkarebalance.benchmarks.CruiseControlLoadTest
+ * --zk-connect localhost:2181 [--mode execution] [--iterations 500] [--threads
+ * 4] [--latency-ms 50] [--error-rate 0.01]
+ *
+ * @author SKI44
+ *
+ */
+@Command(name = "CruiseControlLoadTest", mixinStandardHelpOptions = true, description = "Measures the throughput and latency of the rebalancer workflow against an embedded cruise control stub")
+public class CruiseControlLoadTest implements Callable<Integer> {
+
+	@Option(names = {
+			"--zk-connect" }, required = true, description = "commas separated ZK servers used by the workflow queue")
+	String zkConnect;
+
+	@Option(names = { "-m",
+			"--mode" }, required = false, defaultValue = "simulation", description = "mode of the workflow, 'simulation' or 'execution'")
+	String mode;
+
+	@Option(names = { "-t",
+			"--unbalance-threshold" }, required = false, defaultValue = "10", description = "unbalance threshold of the workflow, low values make it reach the rebalance path")
+	Double unbalanceThreshold;
+
+	@Option(names = {
+			"--iterations" }, required = false, defaultValue = "200", description = "number of measured runs")
+	Integer iterations;
+
+	@Option(names = {
+			"--warmup" }, required = false, defaultValue = "20", description = "number of runs before measuring")
+	Integer warmup;
+
+	@Option(names = {
+			"--threads" }, required = false, defaultValue = "1", description = "number of concurrent runs")
+	Integer threads;
+
+	@Option(names = {
+			"--proposals" }, required = false, defaultValue = "small", description = "proposals fixture served: 'small', 'medium' or 'large'")
+	String proposals;
+
+	@Option(names = {
+			"--latency-ms" }, required = false, defaultValue = "0", description = "minimum latency in ms injected on every endpoint")
+	Long latencyMs;
+
+	@Option(names = {
+			"--latency-max-ms" }, required = false, defaultValue = "0", description = "maximum latency in ms injected on every endpoint")
+	Long latencyMaxMs;
+
+	@Option(names = {
+			"--error-rate" }, required = false, defaultValue = "0", description = "share of the requests failing with a 500")
+	Double errorRate;
+
+	@Option(names = {
+			"--stub-threads" }, required = false, defaultValue = "8", description = "number of threads of the stub")
+	Integer stubThreads;
+
+	public static void main(String[] args) {
+		int exitCode = new CommandLine(new CruiseControlLoadTest()).execute(args);
+		// the workflow keeps its ZK sessions and writers open for the next runs
+		System.exit(exitCode);
+	}
+
+	public Integer call() throws Exception {
+		CruiseControlStubServer stub = new CruiseControlStubServer(0, stubThreads);
+		try {
+			stub.setRecordedResponse("proposals", Fixtures.load("proposals-" + proposals + ".json"));
+			if (latencyMs > 0 || latencyMaxMs > 0) {
+				stub.setLatency("*", latencyMs, latencyMaxMs);
+			}
+			if (errorRate > 0) {
+				stub.setErrorRate("*", errorRate, 500);
+			}
+			Path workDir = Files.createTempDirectory("kafkarebalance-loadtest");
+			Path configFile = writeConfig(stub.getUrl(), workDir);
+			final String[] workflowArgs = new String[] { "-m", mode, "-c", configFile.toString(), "-t",
+					unbalanceThreshold.toString() };
+
+			run(workflowArgs, warmup);
+			Map<String, Long> warmupCounts = stub.getRequestCounts();
+			long start = System.nanoTime();
+			Result result = run(workflowArgs, iterations);
+			long elapsedNanos = System.nanoTime() - start;
+			report(result, elapsedNanos, stub, warmupCounts);
+			return 0;
+		} finally {
+			stub.close();
+		}
+	}
+
+	/**
+	 * Writes the embedded configuration of the rebalancer, pointed at the stub
+	 */
+	private Path writeConfig(String ccUrl, Path workDir) throws IOException {
+		Properties props = new Properties();
+		InputStream is = KafkaRebalanceMain.class.getClassLoader().getResourceAsStream("cruise-control.properties");
+		if (is != null) {
+			try {
+				props.load(is);
+			} finally {
+				is.close();
+			}
+		}
+		props.setProperty("cc.url", ccUrl);
+		props.setProperty("zk.connect", zkConnect);
+		props.setProperty("cc.proposals.snapshot.ttl.ms", "0");
+		props.setProperty("path.log.rebalancing.csv", workDir.toString());
+		props.setProperty("path.score.history", workDir.resolve("score-history").toString());
+		Path configFile = workDir.resolve("cruise-control.properties");
+		OutputStream os = Files.newOutputStream(configFile);
+		try {
+			props.store(os, "load test against the cruise control stub");
+		} finally {
+			os.close();
+		}
+		return configFile;
+	}
+
+	/**
+	 * Runs the workflow a number of times on the configured number of threads
+	 */
+	private Result run(final String[] workflowArgs, int runs) throws Exception {
+		final long[] latencies = new long[runs];
+		final AtomicInteger nextRun = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> workers = new ArrayList<Future<Void>>();
+			for (int i = 0; i < threads; i++) {
+				workers.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						int run;
+						while ((run = nextRun.getAndIncrement()) < latencies.length) {
+							KafkaRebalanceMain workflow = new KafkaRebalanceMain();
+							new CommandLine(workflow).parseArgs(workflowArgs);
+							long start = System.nanoTime();
+							try {
+								if (workflow.call() != 0) {
+									failures.incrementAndGet();
+								}
+							} catch (Exception e) {
+								failures.incrementAndGet();
+							}
+							latencies[run] = System.nanoTime() - start;
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> worker : workers) {
+				worker.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return new Result(latencies, failures.get());
+	}
+
+	private void report(Result result, long elapsedNanos, CruiseControlStubServer stub,
+			Map<String, Long> warmupCounts) {
+		long[] sorted = result.latencies.clone();
+		Arrays.sort(sorted);
+		System.out.println("mode=" + mode + " threads=" + threads + " proposals=" + proposals + " latency="
+				+ latencyMs + "-" + latencyMaxMs + "ms error-rate=" + errorRate);
+		System.out.println(String.format("runs=%d failures=%d throughput=%.2f runs/s", sorted.length,
+				result.failures, sorted.length / (elapsedNanos / 1e9)));
+		System.out.println(String.format("latency ms: p50=%.2f p90=%.2f p99=%.2f max=%.2f", percentileMs(sorted, 0.5),
+				percentileMs(sorted, 0.9), percentileMs(sorted, 0.99), percentileMs(sorted, 1)));
+		System.out.println("cruise control requests per run:");
+		for (Map.Entry<String, Long> count : stub.getRequestCounts().entrySet()) {
+			Long before = warmupCounts.get(count.getKey());
+			long measured = count.getValue() - (before == null ? 0 : before);
+			System.out.println(String.format("  %-40s %.2f", count.getKey(), (double) measured / sorted.length));
+		}
+		System.out.println("tasks launched on the stub: " + stub.getLaunchedTaskCount());
+	}
+
+	private static double percentileMs(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return Double.NaN;
+		}
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+	}
+
+	private static class Result {
+		final long[] latencies;
+		final int failures;
+
+		Result(long[] latencies, int failures) {
+			this.latencies = latencies;
+			this.failures = failures;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Access to the recorded cruise control responses checked in under
+ * 'src/main/resources/fixtures'
+ *
+ * @author SKI44
+ *
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Loads a fixture in memory, so that benchmarks don't measure disk reads
+	 *
+	 * @param name file name of the fixture
+	 * @return content of the fixture
+	 * @throws IOException if the fixture doesn't exist
+	 */
+	static byte[] load(String name) throws IOException {
+		InputStream is = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if (is == null) {
+			throw new IOException("no fixture " + name);
+		}
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				content.write(buffer, 0, read);
+			}
+			return content.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dassault_systemes.kafkarebalance.CruiseControlResponseParser;
+import com.dassault_systemes.kafkarebalance.ProposalSummary;
+
+/**
+ * Parsing of recorded /proposals responses of 6, 60 and 300 brokers
+ * (proposals-&lt;size&gt;.json). In the fixtures the 'summary' block comes
+ * after the goal summaries and the load, as it may in the responses of cruise
+ * control whose fields aren't ordered, so the whole body is read. <br/>
+ * The previous path of the rebalancer (body read line by line in a String,
+ * then parsed into a json-simple tree) is kept as reference. Run with '-prof
+ * gc' for the allocations per parsing, see {@link ProposalsParsingFootprint}
+ * for the peak heap.
+ *
+ * @author SKI44
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProposalsParsingBenchmark {
+
+	@Param({ "small", "medium", "large" })
+	public String size;
+
+	private byte[] body;
+
+	@Setup
+	public void setup() throws IOException {
+		body = Fixtures.load("proposals-" + size + ".json");
+	}
+
+	@Benchmark
+	public ProposalSummary streamingSummary() throws IOException {
+		return CruiseControlResponseParser.parseProposalSummary(new ByteArrayInputStream(body));
+	}
+
+	@Benchmark
+	public Object jsonSimpleTreeSummary() throws IOException, ParseException {
+		return jsonSimpleTreeSummary(new ByteArrayInputStream(body));
+	}
+
+	/**
+	 * Previous parsing path: the body is read line by line in a String (as
+	 * HttpRestAPIClient still does for the bodies it returns), then parsed into a
+	 * json-simple tree
+	 */
+	static Object jsonSimpleTreeSummary(InputStream body) throws IOException, ParseException {
+		JSONObject proposals = (JSONObject) new JSONParser().parse(readBody(body));
+		return ((JSONObject) proposals.get("summary")).get("onDemandBalancednessScoreAfter");
+	}
+
+	static String readBody(InputStream body) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+		StringBuilder response = new StringBuilder();
+		String inputLine;
+		while ((inputLine = in.readLine()) != null) {
+			response.append(inputLine);
+		}
+		return response.toString();
+	}
+}
@@ -0,0 +1,145 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.dassault_systemes.kafkarebalance.CruiseControlResponseParser;
+import com.dassault_systemes.kafkarebalance.ProposalSummary;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Peak heap of the parsing of the recorded /proposals responses, for the
+ * previous json-simple tree path and the streaming path of
+ * {@link CruiseControlResponseParser}. The parsing times are measured by
+ * {@link ProposalsParsingBenchmark}. <br/>
+ * The live heap is sampled after a full GC every time the parsing has read a
+ * chunk of the body, and once parsed while its results (body String and tree,
+ * or summary) are still reachable. The peak is the highest sample minus the
+ * heap used before the parsing (the fixture itself is loaded beforehand, as
+ * the body of a response isn't in memory). <br/>
+ * Usage: java -XX:+UseSerialGC -cp benchmarks.jar
+ * com.dassault_systemes.kafkarebalance.benchmarks.ProposalsParsingFootprint
+ * [--proposals small,medium,large] [--sample-bytes 65536]
+ *
+ * @author SKI44
+ *
+ */
+@Command(name = "ProposalsParsingFootprint", mixinStandardHelpOptions = true, description = "Measures the peak heap of the parsing of the proposals fixtures")
+public class ProposalsParsingFootprint implements Callable<Integer> {
+
+	@Option(names = {
+			"--proposals" }, required = false, split = ",", defaultValue = "small,medium,large", description = "proposals fixtures parsed: 'small', 'medium' and/or 'large'")
+	List<String> proposals;
+
+	@Option(names = {
+			"--sample-bytes" }, required = false, defaultValue = "65536", description = "bytes of body read between two heap samples")
+	Integer sampleBytes;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private long baseline;
+	private long peak;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new ProposalsParsingFootprint()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws Exception {
+		System.out.println(String.format("%-8s %12s %18s %18s", "fixture", "body (KB)", "json-simple (KB)",
+				"streaming (KB)"));
+		for (String size : proposals) {
+			byte[] body = Fixtures.load("proposals-" + size + ".json");
+			// first runs load the classes of both paths
+			jsonSimplePeak(body);
+			streamingPeak(body);
+			System.out.println(String.format("%-8s %12d %18d %18d", size, body.length / 1024,
+					jsonSimplePeak(body) / 1024, streamingPeak(body) / 1024));
+		}
+		return 0;
+	}
+
+	private long jsonSimplePeak(byte[] body) throws Exception {
+		start();
+		String content = ProposalsParsingBenchmark.readBody(new SampledInputStream(new ByteArrayInputStream(body)));
+		JSONObject proposals = (JSONObject) new JSONParser().parse(content);
+		sample();
+		if (content.isEmpty() || proposals.get("summary") == null) {
+			throw new IllegalStateException("no proposal summary");
+		}
+		return peak;
+	}
+
+	private long streamingPeak(byte[] body) throws Exception {
+		start();
+		ProposalSummary summary = CruiseControlResponseParser
+				.parseProposalSummary(new SampledInputStream(new ByteArrayInputStream(body)));
+		sample();
+		if (summary == null) {
+			throw new IllegalStateException("no proposal summary");
+		}
+		return peak;
+	}
+
+	private void start() {
+		baseline = usedAfterGC();
+		peak = 0;
+	}
+
+	private void sample() {
+		peak = Math.max(peak, usedAfterGC() - baseline);
+	}
+
+	private long usedAfterGC() {
+		System.gc();
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Samples the live heap every time a chunk of the body has been read
+	 */
+	private class SampledInputStream extends FilterInputStream {
+		private long unsampled;
+
+		SampledInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			count(b < 0 ? 0 : 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			count(read);
+			return read;
+		}
+
+		private void count(int read) {
+			if (read > 0) {
+				unsampled += read;
+				if (unsampled >= sampleBytes) {
+					unsampled = 0;
+					sample();
+				}
+			}
+		}
+	}
+}
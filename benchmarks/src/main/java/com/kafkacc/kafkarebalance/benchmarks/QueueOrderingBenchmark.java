@@ -0,0 +1,127 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dassault_systemes.kafkarebalance.ScalingOperation;
+import com.dassault_systemes.kafkarebalance.ZKScheduler;
+
+/**
+ * Lookup of the head of a scaling operations queue of thousands of Znodes, as
+ * done by ZKScheduler.getZNodeEarliestChild: <br/>
+ * - legacy timestamp named Znodes, each name parsed as a date then sorted,
+ * <br/>
+ * - sequential Znodes ordered by name, when the queue cache is (re)loaded from
+ * an unordered getChildren() list and when it is already loaded, <br/>
+ * - collection of the scaling batch at the head of a loaded queue. <br/>
+ * Queues are generated with a fixed seed so that runs are comparable.
+ *
+ * @author SKI44
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueueOrderingBenchmark {
+
+	private static final int SCALING_BATCH_MAX_SIZE = 10;
+
+	@Param({ "1000", "10000" })
+	public int entries;
+
+	private List<String> legacyNames;
+	private List<String> sequentialNames;
+	private Map<String, String> sequentialPayloads;
+	private TreeMap<String, String> loadedQueue;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		SimpleDateFormat legacyFormat = new SimpleDateFormat(ZKScheduler.LEGACY_ZNODE_NAME_FORMAT);
+		long enqueueTime = 1600000000000L;
+		legacyNames = new ArrayList<String>(entries);
+		sequentialNames = new ArrayList<String>(entries);
+		sequentialPayloads = new TreeMap<String, String>();
+		for (int i = 0; i < entries; i++) {
+			enqueueTime += 1 + random.nextInt(60000);
+			legacyNames.add(legacyFormat.format(new Date(enqueueTime)));
+			// most operations are of the default priority, a few are urgent
+			int priority = random.nextInt(20) == 0 ? ScalingOperation.MAX_PRIORITY : ScalingOperation.MIN_PRIORITY;
+			String name = String.format("%s%d-%010d", ZKScheduler.SEQUENTIAL_ZNODE_PREFIX,
+					ScalingOperation.MAX_PRIORITY - priority, i);
+			ScalingOperation operation = new ScalingOperation(random.nextInt(100),
+					random.nextInt(4) == 0 ? ScalingOperation.REMOVE : ScalingOperation.ADD, enqueueTime, priority);
+			sequentialNames.add(name);
+			sequentialPayloads.put(name, operation.toJSON());
+		}
+		// ZK doesn't order the children it returns
+		Collections.shuffle(legacyNames, random);
+		Collections.shuffle(sequentialNames, random);
+		loadedQueue = new TreeMap<String, String>(sequentialPayloads);
+	}
+
+	@Benchmark
+	public String legacyEarliestByDateParsing() throws ParseException {
+		List<Date> dates = new ArrayList<Date>(legacyNames.size());
+		for (String name : legacyNames) {
+			dates.add(new SimpleDateFormat(ZKScheduler.LEGACY_ZNODE_NAME_FORMAT).parse(name));
+		}
+		Collections.sort(dates);
+		return new SimpleDateFormat(ZKScheduler.LEGACY_ZNODE_NAME_FORMAT).format(dates.get(0));
+	}
+
+	@Benchmark
+	public String sequentialEarliestOnCacheLoad() {
+		TreeMap<String, String> queue = new TreeMap<String, String>();
+		for (String name : sequentialNames) {
+			queue.put(name, sequentialPayloads.get(name));
+		}
+		return queue.firstKey();
+	}
+
+	@Benchmark
+	public String sequentialEarliestFromCache() {
+		return loadedQueue.firstKey();
+	}
+
+	@Benchmark
+	public int scalingBatchFromHead() {
+		String operationType = null;
+		int batchSize = 0;
+		for (String payload : loadedQueue.values()) {
+			ScalingOperation operation = ScalingOperation.parse(payload);
+			if (operationType == null) {
+				operationType = operation.getOperation();
+			} else if (!operationType.equals(operation.getOperation())) {
+				break;
+			}
+			if (++batchSize == SCALING_BATCH_MAX_SIZE) {
+				break;
+			}
+		}
+		return batchSize;
+	}
+}
@@ -0,0 +1,92 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dassault_systemes.kafkarebalance.CruiseControlResponseParser;
+
+/**
+ * Parsing of recorded /user_tasks responses of 5 and 1000 tasks
+ * (user_tasks-&lt;size&gt;.json) where the only active scaling task is the
+ * last one, and of a single task status response (user_task-status.json),
+ * as checked by task id when the in-flight tasks are recorded.
+ * <br/>
+ * The json-simple tree parsing previously used by the rebalancer is kept as
+ * reference.
+ *
+ * @author SKI44
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserTasksParsingBenchmark {
+
+	@Param({ "small", "large" })
+	public String size;
+
+	private byte[] tasks;
+	private byte[] taskStatus;
+
+	@Setup
+	public void setup() throws IOException {
+		tasks = Fixtures.load("user_tasks-" + size + ".json");
+		taskStatus = Fixtures.load("user_task-status.json");
+	}
+
+	@Benchmark
+	public boolean streamingActiveScalingTask() throws IOException {
+		return CruiseControlResponseParser.hasActiveScalingTask(new ByteArrayInputStream(tasks));
+	}
+
+	@Benchmark
+	public boolean jsonSimpleTreeActiveScalingTask() throws ParseException {
+		JSONObject response = (JSONObject) new JSONParser().parse(new String(tasks, StandardCharsets.UTF_8));
+		for (Object task : (JSONArray) response.get("userTasks")) {
+			String requestURL = (String) ((JSONObject) task).get("RequestURL");
+			String status = (String) ((JSONObject) task).get("Status");
+			if (CruiseControlResponseParser.isScalingRequestURL(requestURL) && !status.contains("Completed")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Benchmark
+	public String streamingTaskStatus() throws IOException {
+		return CruiseControlResponseParser.parseUserTaskStatus(new ByteArrayInputStream(taskStatus));
+	}
+
+	@Benchmark
+	public Map<String, String> streamingTaskStatusesById() throws IOException {
+		return CruiseControlResponseParser.parseUserTaskStatuses(new ByteArrayInputStream(taskStatus));
+	}
+
+	@Benchmark
+	public List<String> streamingActiveScalingTaskIds() throws IOException {
+		return CruiseControlResponseParser.parseActiveScalingTaskIds(new ByteArrayInputStream(tasks));
+	}
+}
@@ -0,0 +1,212 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import com.dassault_systemes.kafkarebalance.ScalingOperation;
+import com.dassault_systemes.kafkarebalance.ZKScheduler;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+/**
+ * Scale benchmark of the ZK scaling operations queue of {@link ZKScheduler}
+ * on an in-process ZooKeeper server. <br/>
+ * For each depth, a fresh queue is filled with that many pending operations
+ * (distinct brokers, random priorities), then the latencies of the queue
+ * operations are sampled at that depth: <br/>
+ * - enqueue of a new operation (enqueueScalingOperation), <br/>
+ * - dedup of a scheduled and of an unscheduled operation
+ * (checkForSimilarZnode), <br/>
+ * - head lookup (getZNodeEarliestChild), the first one loads the queue cache,
+ * <br/>
+ * - delete of an operation (dequeueScalingOperation). <br/>
+ * Sampled operations are removed again so that the depth stays the same. The
+ * sessions and connections seen by the server are reported with the results,
+ * in a JSON report. <br/>
+ * Usage: java -cp benchmarks.jar
+ * com.dassault_systemes.kafkarebalance.benchmarks.ZKQueueScaleBenchmark
+ * [--depths 100,1000,10000] [--samples 500] [--output zk-queue-scale.json]
+ *
+ * @author SKI44
+ *
+ */
+@Command(name = "ZKQueueScaleBenchmark", mixinStandardHelpOptions = true, description = "Measures the latency of the ZK queue operations at increasing queue depths on an embedded ZooKeeper")
+public class ZKQueueScaleBenchmark implements Callable<Integer> {
+	static final String QUEUE_ROOT = "/scalingBrokersOperations";
+	static final int TICK_TIME_MS = 2000;
+
+	@Option(names = {
+			"--depths" }, required = false, split = ",", defaultValue = "100,1000,5000", description = "commas separated queue depths to measure at")
+	List<Integer> depths;
+
+	@Option(names = {
+			"--samples" }, required = false, defaultValue = "200", description = "number of samples of each operation per depth")
+	Integer samples;
+
+	@Option(names = {
+			"--output" }, required = false, defaultValue = "zk-queue-scale.json", description = "JSON report file")
+	String output;
+
+	@Option(names = {
+			"--seed" }, required = false, defaultValue = "42", description = "seed of the random priorities")
+	Long seed;
+
+	private ServerCnxnFactory serverFactory;
+	private ZooKeeperServer server;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new ZKQueueScaleBenchmark()).execute(args));
+	}
+
+	public Integer call() throws Exception {
+		Path dataDir = Files.createTempDirectory("kafkarebalance-zk");
+		server = new ZooKeeperServer(dataDir.resolve("snapshots").toFile(), dataDir.resolve("log").toFile(),
+				TICK_TIME_MS);
+		serverFactory = ServerCnxnFactory.createFactory();
+		serverFactory.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+		serverFactory.startup(server);
+		String host = "127.0.0.1:" + serverFactory.getLocalPort();
+		ZKScheduler zkScheduler = new ZKScheduler();
+		JsonGenerator report = new JsonFactory().createGenerator(new File(output), JsonEncoding.UTF8);
+		try {
+			report.useDefaultPrettyPrinter();
+			report.writeStartObject();
+			report.writeNumberField("samples", samples);
+			report.writeNumberField("seed", seed);
+			report.writeArrayFieldStart("results");
+			Random random = new Random(seed);
+			for (int depth : depths) {
+				measureDepth(zkScheduler, host, depth, random, report);
+			}
+			report.writeEndArray();
+			report.writeEndObject();
+		} finally {
+			report.close();
+			zkScheduler.close();
+			serverFactory.shutdown();
+			deleteRecursively(dataDir.toFile());
+		}
+		System.out.println("report written to " + new File(output).getAbsolutePath());
+		return 0;
+	}
+
+	private void measureDepth(ZKScheduler zkScheduler, String host, int depth, Random random, JsonGenerator report)
+			throws Exception {
+		// a fresh queue per depth, the previous ones stay in the tree like real sibling Znodes would
+		String queue = QUEUE_ROOT + "-" + depth;
+		zkScheduler.writeZNodeData(queue, new byte[0], host);
+
+		long fillStart = System.nanoTime();
+		for (int brokerId = 0; brokerId < depth; brokerId++) {
+			enqueue(zkScheduler, queue, brokerId, random, host);
+		}
+		long fillNanos = System.nanoTime() - fillStart;
+
+		long headColdStart = System.nanoTime();
+		zkScheduler.getZNodeEarliestChild(queue, host);
+		long headColdNanos = System.nanoTime() - headColdStart;
+
+		long[] enqueueNanos = new long[samples];
+		long[] deleteNanos = new long[samples];
+		long[] dedupHitNanos = new long[samples];
+		long[] dedupMissNanos = new long[samples];
+		long[] headNanos = new long[samples];
+		List<String> sampledZNodes = new ArrayList<String>(samples);
+		for (int i = 0; i < samples; i++) {
+			long start = System.nanoTime();
+			sampledZNodes.add(enqueue(zkScheduler, queue, depth + i, random, host));
+			enqueueNanos[i] = System.nanoTime() - start;
+		}
+		for (int i = 0; i < samples; i++) {
+			long start = System.nanoTime();
+			zkScheduler.checkForSimilarZnode(queue, host, random.nextInt(depth) + "-" + ScalingOperation.ADD);
+			dedupHitNanos[i] = System.nanoTime() - start;
+			start = System.nanoTime();
+			zkScheduler.checkForSimilarZnode(queue, host, random.nextInt(depth) + "-" + ScalingOperation.REMOVE);
+			dedupMissNanos[i] = System.nanoTime() - start;
+			start = System.nanoTime();
+			zkScheduler.getZNodeEarliestChild(queue, host);
+			headNanos[i] = System.nanoTime() - start;
+		}
+		for (int i = 0; i < samples; i++) {
+			long start = System.nanoTime();
+			zkScheduler.dequeueScalingOperation(queue, sampledZNodes.get(i), host);
+			deleteNanos[i] = System.nanoTime() - start;
+		}
+
+		report.writeStartObject();
+		report.writeNumberField("depth", depth);
+		report.writeNumberField("fillMs", fillNanos / 1e6);
+		report.writeNumberField("fillThroughputOpsPerSec", depth / (fillNanos / 1e9));
+		report.writeNumberField("serverSessions", server.getZKDatabase().getSessions().size());
+		report.writeNumberField("serverConnections", serverFactory.getNumAliveConnections());
+		report.writeNumberField("serverZNodes", server.getZKDatabase().getNodeCount());
+		report.writeObjectFieldStart("latencyUs");
+		writeLatencies(report, "enqueue", enqueueNanos);
+		writeLatencies(report, "dedupHit", dedupHitNanos);
+		writeLatencies(report, "dedupMiss", dedupMissNanos);
+		writeLatencies(report, "headLookupCold", new long[] { headColdNanos });
+		writeLatencies(report, "headLookup", headNanos);
+		writeLatencies(report, "delete", deleteNanos);
+		report.writeEndObject();
+		report.writeEndObject();
+		report.flush();
+		System.out.println("depth " + depth + " measured, filled in " + fillNanos / 1000000 + "ms");
+	}
+
+	private static String enqueue(ZKScheduler zkScheduler, String queue, int brokerId, Random random, String host)
+			throws Exception {
+		return zkScheduler.enqueueScalingOperation(queue,
+				new ScalingOperation(brokerId, ScalingOperation.ADD, System.currentTimeMillis(),
+						random.nextInt(ScalingOperation.MAX_PRIORITY + 1)),
+				host);
+	}
+
+	private static void writeLatencies(JsonGenerator report, String operation, long[] nanos) throws IOException {
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		double sum = 0;
+		for (long value : sorted) {
+			sum += value;
+		}
+		report.writeObjectFieldStart(operation);
+		report.writeNumberField("count", sorted.length);
+		report.writeNumberField("mean", sum / sorted.length / 1e3);
+		report.writeNumberField("p50", percentileUs(sorted, 0.5));
+		report.writeNumberField("p90", percentileUs(sorted, 0.9));
+		report.writeNumberField("p99", percentileUs(sorted, 0.99));
+		report.writeNumberField("max", percentileUs(sorted, 1));
+		report.writeEndObject();
+	}
+
+	private static double percentileUs(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e3;
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,74 @@
+package com.dassault_systemes.kafkarebalance.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dassault_systemes.kafkarebalance.ScalingOperation;
+import com.dassault_systemes.kafkarebalance.ZKScheduler;
+
+/**
+ * Parsing of scaling operation Znode payloads, in JSON and in legacy
+ * "brokerId-operation" format, through ZKScheduler.parseZNodeData and
+ * ScalingOperation.parse. Payloads are taken in turn from a generated set so
+ * that the parsing can't be hoisted out of the loop.
+ *
+ * @author SKI44
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ZNodeDataParsingBenchmark {
+
+	private static final int PAYLOADS = 1024;
+
+	@Param({ "json", "legacy" })
+	public String format;
+
+	private final ZKScheduler zkScheduler = new ZKScheduler();
+	private final String[] payloads = new String[PAYLOADS];
+	private int next;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		for (int i = 0; i < PAYLOADS; i++) {
+			ScalingOperation operation = new ScalingOperation(random.nextInt(100),
+					random.nextBoolean() ? ScalingOperation.ADD : ScalingOperation.REMOVE,
+					1600000000000L + i * 1000L, random.nextInt(ScalingOperation.MAX_PRIORITY + 1));
+			payloads[i] = "json".equals(format) ? operation.toJSON()
+					: operation.getBrokerId() + "-" + operation.getOperation();
+		}
+	}
+
+	private String nextPayload() {
+		next = (next + 1) & (PAYLOADS - 1);
+		return payloads[next];
+	}
+
+	@Benchmark
+	public Map<String, String> parseZNodeData() {
+		return zkScheduler.parseZNodeData(nextPayload());
+	}
+
+	@Benchmark
+	public ScalingOperation parseScalingOperation() {
+		return ScalingOperation.parse(nextPayload());
+	}
+}
@@ -0,0 +1,294 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes CSV rows in the background so that a slow disk doesn't add latency to
+ * the rebalancing decisions. <br/>
+ * Rows are taken through a bounded queue (a row submitted while the queue is
+ * full is dropped), written in batches to writers kept open per file and
+ * flushed periodically. Rows queued before {@link #close()} are written
+ * unless the writer doesn't stop in time. A row is counted as written once
+ * flushed: rows lost in the buffer of a file which couldn't be flushed or
+ * closed are counted as failed, as the rows left in the queue on a close
+ * timeout. Dropped rows and rows that couldn't be written are published with
+ * the rows waiting to be written in {@link RebalancerMetrics}.
+ *
+ * @author SKI44
+ *
+ */
+public class AsyncCSVWriter implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(AsyncCSVWriter.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+	static final long CLOSE_TIMEOUT_MS = 30000;
+
+	private final BlockingQueue<Row> queue;
+	private final int batchSize;
+	private final long flushIntervalMs;
+	private final Map<String, Writer> writers = new HashMap<String, Writer>();
+	/**
+	 * rows appended to the writers but not flushed yet, by file
+	 */
+	private final Map<String, Long> unflushedRows = new HashMap<String, Long>();
+	private final Thread writerThread;
+	private final AtomicLong writtenRows = new AtomicLong();
+	private final AtomicLong droppedRows = new AtomicLong();
+	private final AtomicLong failedRows = new AtomicLong();
+	private final RebalancerMetrics metrics = RebalancerMetrics.getDefault();
+	private volatile boolean closed;
+
+	/**
+	 * @param queueCapacity   maximum number of rows waiting to be written
+	 * @param batchSize       maximum number of rows written between two queue
+	 *                        reads
+	 * @param flushIntervalMs maximum time in ms a written row stays in the file
+	 *                        buffers
+	 */
+	public AsyncCSVWriter(int queueCapacity, int batchSize, long flushIntervalMs) {
+		this.queue = new ArrayBlockingQueue<Row>(queueCapacity);
+		this.batchSize = batchSize;
+		this.flushIntervalMs = flushIntervalMs;
+		this.writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "csv-writer");
+		// rows are drained by close(), the thread mustn't keep the JVM alive
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	public AsyncCSVWriter() {
+		this(DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+	}
+
+	/**
+	 * Queues a row without blocking
+	 *
+	 * @param filePath CSV file to append the row to
+	 * @param data     row values
+	 * @param headers  header row written if the file is new
+	 * @return false if the row has been dropped (queue full or writer closed)
+	 */
+	public boolean submit(String filePath, String[] data, String[] headers) {
+		if (closed || !queue.offer(new Row(filePath, data, headers))) {
+			long dropped = droppedRows.incrementAndGet();
+			metrics.increment(RebalancerMetrics.CSV_ROWS_DROPPED);
+			if (dropped == 1 || dropped % 1000 == 0) {
+				logger.warn("CSV row dropped for " + filePath + (closed ? " (writer closed)" : " (queue full)")
+						+ ", " + dropped + " rows dropped so far");
+			}
+			return false;
+		}
+		metrics.set(RebalancerMetrics.CSV_ROWS_PENDING, queue.size());
+		return true;
+	}
+
+	/**
+	 * @return number of rows flushed to their file
+	 */
+	public long getWrittenRows() {
+		return writtenRows.get();
+	}
+
+	/**
+	 * @return number of rows dropped because the queue was full or the writer
+	 *         closed
+	 */
+	public long getDroppedRows() {
+		return droppedRows.get();
+	}
+
+	/**
+	 * @return number of rows that couldn't be written to their file
+	 */
+	public long getFailedRows() {
+		return failedRows.get();
+	}
+
+	/**
+	 * @return number of rows waiting to be written
+	 */
+	public int getPendingRows() {
+		return queue.size();
+	}
+
+	private void writeLoop() {
+		List<Row> batch = new ArrayList<Row>(batchSize);
+		long lastFlush = System.currentTimeMillis();
+		while (!closed || !queue.isEmpty()) {
+			try {
+				Row first = queue.poll(closed ? 0 : flushIntervalMs, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					metrics.set(RebalancerMetrics.CSV_ROWS_PENDING, queue.size());
+					write(batch);
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				// close() drains what is left
+				break;
+			}
+			if (System.currentTimeMillis() - lastFlush >= flushIntervalMs) {
+				flushAll();
+				lastFlush = System.currentTimeMillis();
+			}
+		}
+	}
+
+	private void write(List<Row> batch) {
+		for (Row row : batch) {
+			try {
+				Writer writer = getWriter(row);
+				for (int i = 0; i < row.data.length; i++) {
+					writer.append(row.data[i]);
+					writer.append(",");
+				}
+				writer.append("\n");
+				Long unflushed = unflushedRows.get(row.filePath);
+				unflushedRows.put(row.filePath, unflushed == null ? 1 : unflushed + 1);
+			} catch (IOException e) {
+				countFailedRows(1);
+				logger.error("CSV row couldn't be written to " + row.filePath + ": " + e.getMessage());
+				// reopened for the next row
+				closeWriter(row.filePath);
+			}
+		}
+	}
+
+	private Writer getWriter(Row row) throws IOException {
+		Writer writer = writers.get(row.filePath);
+		if (writer == null) {
+			File file = new File(row.filePath);
+			boolean newFile = !file.exists() || file.length() == 0;
+			writer = new FileWriter(file, true);
+			writers.put(row.filePath, writer);
+			if (newFile) {
+				for (int i = 0; i < row.headers.length; i++) {
+					writer.append(row.headers[i]);
+					writer.append(",");
+				}
+				writer.append("\n");
+			}
+		}
+		return writer;
+	}
+
+	private void flushAll() {
+		for (String filePath : new ArrayList<String>(writers.keySet())) {
+			try {
+				writers.get(filePath).flush();
+				countWrittenRows(filePath);
+			} catch (IOException e) {
+				// the buffer state is unknown after a failed flush, its rows are considered lost
+				logger.error("CSV file " + filePath + " couldn't be flushed, " + countLostRows(filePath)
+						+ " buffered rows lost: " + e.getMessage());
+				closeWriter(filePath);
+			}
+		}
+	}
+
+	private void closeWriter(String filePath) {
+		Writer writer = writers.remove(filePath);
+		if (writer != null) {
+			try {
+				writer.close();
+				countWrittenRows(filePath);
+			} catch (IOException e) {
+				// rows of the buffer are lost, the file is reopened for the next row
+				logger.error("CSV file " + filePath + " couldn't be closed, " + countLostRows(filePath)
+						+ " buffered rows lost: " + e.getMessage());
+			}
+		}
+	}
+
+	private void countWrittenRows(String filePath) {
+		Long flushed = unflushedRows.remove(filePath);
+		if (flushed != null) {
+			writtenRows.addAndGet(flushed);
+		}
+	}
+
+	/**
+	 * Counts the unflushed rows of a file as failed
+	 *
+	 * @return number of rows lost
+	 */
+	private long countLostRows(String filePath) {
+		Long lost = unflushedRows.remove(filePath);
+		if (lost == null) {
+			return 0;
+		}
+		countFailedRows(lost);
+		return lost;
+	}
+
+	private void countFailedRows(long rows) {
+		failedRows.addAndGet(rows);
+		metrics.increment(RebalancerMetrics.CSV_ROWS_FAILED, rows);
+	}
+
+	/**
+	 * Stops accepting rows, writes the queued rows, flushes and closes the files
+	 *
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		writerThread.join(CLOSE_TIMEOUT_MS);
+		if (writerThread.isAlive()) {
+			// the rows still queued won't be written, those of the writer thread are its own
+			List<Row> unwritten = new ArrayList<Row>();
+			queue.drainTo(unwritten);
+			metrics.set(RebalancerMetrics.CSV_ROWS_PENDING, 0);
+			countFailedRows(unwritten.size());
+			logger.warn("CSV writer didn't stop within " + CLOSE_TIMEOUT_MS + "ms, " + unwritten.size()
+					+ " queued rows left unwritten");
+			writerThread.interrupt();
+			return;
+		}
+		// rows queued between the last poll and the end of the loop
+		List<Row> remaining = new ArrayList<Row>();
+		queue.drainTo(remaining);
+		metrics.set(RebalancerMetrics.CSV_ROWS_PENDING, 0);
+		write(remaining);
+		for (String filePath : new ArrayList<String>(writers.keySet())) {
+			closeWriter(filePath);
+		}
+		logger.info("CSV writer closed: " + writtenRows.get() + " rows written, " + droppedRows.get()
+				+ " dropped, " + failedRows.get() + " failed");
+	}
+
+	private static class Row {
+		final String filePath;
+		final String[] data;
+		final String[] headers;
+
+		Row(String filePath, String[] data, String[] headers) {
+			this.filePath = filePath;
+			this.data = data;
+			this.headers = headers;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.dassault_systemes.kafkarebalance;
+
+/**
+ * Load of a broker, as reported in the 'brokers' array of a cruise control
+ * /load response (network rates and capacities in KB/s)
+ *
+ * @author SKI44
+ *
+ */
+public class BrokerLoad {
+	private final int brokerId;
+	private final String state;
+	private final double cpuPct;
+	private final double leaderNwInRate;
+	private final double followerNwInRate;
+	private final double nwOutRate;
+	private final double networkInCapacity;
+	private final double networkOutCapacity;
+
+	public BrokerLoad(int brokerId, String state, double cpuPct, double leaderNwInRate, double followerNwInRate,
+			double nwOutRate, double networkInCapacity, double networkOutCapacity) {
+		this.brokerId = brokerId;
+		this.state = state;
+		this.cpuPct = cpuPct;
+		this.leaderNwInRate = leaderNwInRate;
+		this.followerNwInRate = followerNwInRate;
+		this.nwOutRate = nwOutRate;
+		this.networkInCapacity = networkInCapacity;
+		this.networkOutCapacity = networkOutCapacity;
+	}
+
+	public int getBrokerId() {
+		return brokerId;
+	}
+
+	/**
+	 * @return broker state (e.g. 'ALIVE', 'DEAD', 'NEW'), null if not reported
+	 */
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * @return true if the broker serves traffic (dead brokers have no meaningful
+	 *         load)
+	 */
+	public boolean isAlive() {
+		return state == null || !"DEAD".equals(state);
+	}
+
+	public double getCpuPct() {
+		return cpuPct;
+	}
+
+	/**
+	 * @return inbound network rate in KB/s (produce and replication)
+	 */
+	public double getNwInRate() {
+		return leaderNwInRate + followerNwInRate;
+	}
+
+	/**
+	 * @return outbound network rate in KB/s
+	 */
+	public double getNwOutRate() {
+		return nwOutRate;
+	}
+
+	public double getNetworkInCapacity() {
+		return networkInCapacity;
+	}
+
+	public double getNetworkOutCapacity() {
+		return networkOutCapacity;
+	}
+
+	/**
+	 * @return highest utilization ratio among CPU, inbound and outbound network
+	 *         (network dimensions without capacity are ignored)
+	 */
+	public double getUtilization() {
+		double utilization = cpuPct / 100;
+		if (networkInCapacity > 0) {
+			utilization = Math.max(utilization, getNwInRate() / networkInCapacity);
+		}
+		if (networkOutCapacity > 0) {
+			utilization = Math.max(utilization, nwOutRate / networkOutCapacity);
+		}
+		return utilization;
+	}
+
+	@Override
+	public String toString() {
+		return "broker " + brokerId + " (" + state + ", cpu=" + cpuPct + "%, in=" + getNwInRate() + "KB/s, out="
+				+ nwOutRate + "KB/s)";
+	}
+}
@@ -0,0 +1,164 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Components managing one Kafka cluster: its configuration, its cruise
+ * control client and its ZK scheduler. Contexts of different clusters share
+ * nothing, so a slow or unreachable cluster can't hold the connections or the
+ * sessions of another one.
+ *
+ * @author SKI44
+ *
+ */
+public class ClusterContext implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(ClusterContext.class);
+
+	private final String name;
+	private final RebalancerConfigProvider configProvider;
+	private final Rebalancer rebalancer;
+	private final ZKScheduler zkScheduler;
+	private final ImbalancePreCheck imbalancePreCheck;
+	private final Map<String, ScoreHistoryStore> scoreHistories = new HashMap<String, ScoreHistoryStore>();
+	private final Map<String, TrendDetector> trendDetectors = new HashMap<String, TrendDetector>();
+
+	/**
+	 * @param name           cluster name, null when a single cluster is managed
+	 * @param configProvider provider of the configuration of the cluster
+	 */
+	public ClusterContext(String name, RebalancerConfigProvider configProvider) {
+		this.name = name;
+		this.configProvider = configProvider;
+		this.rebalancer = new Rebalancer(configProvider);
+		this.zkScheduler = new ZKScheduler(configProvider.get().getZkSessionTimeoutMs());
+		this.imbalancePreCheck = new ImbalancePreCheck(configProvider);
+	}
+
+	/**
+	 * Creates the context of a cluster defined by an external properties file,
+	 * the cluster is named by its 'cluster.name' property, or by the file name
+	 *
+	 * @param file      properties file of the cluster
+	 * @param hotReload whether to reload the file when it changes
+	 * @return context of the cluster
+	 * @throws IOException if the file can't be read
+	 */
+	public static ClusterContext fromFile(Path file, boolean hotReload) throws IOException {
+		RebalancerConfigProvider configProvider = RebalancerConfigProvider.fromFile(file, hotReload);
+		String fileName = file.getFileName().toString();
+		int extension = fileName.lastIndexOf('.');
+		String defaultName = extension > 0 ? fileName.substring(0, extension) : fileName;
+		return new ClusterContext(configProvider.get().getString("cluster.name", defaultName), configProvider);
+	}
+
+	/**
+	 * @return cluster name, null when a single cluster is managed
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public RebalancerConfigProvider getConfigProvider() {
+		return configProvider;
+	}
+
+	public Rebalancer getRebalancer() {
+		return rebalancer;
+	}
+
+	public ZKScheduler getZkScheduler() {
+		return zkScheduler;
+	}
+
+	public ImbalancePreCheck getImbalancePreCheck() {
+		return imbalancePreCheck;
+	}
+
+	/**
+	 * Gets the balancedness score history of the cluster for a mode, the
+	 * simulation and execution histories are stored apart like the rebalancing
+	 * impact CSV files
+	 *
+	 * @param mode 'SIMULATION' or 'EXECUTION'
+	 * @return score history store
+	 */
+	public synchronized ScoreHistoryStore getScoreHistory(String mode) {
+		ScoreHistoryStore store = scoreHistories.get(mode);
+		if (store == null) {
+			RebalancerConfig config = configProvider.get();
+			store = new ScoreHistoryStore(Paths.get(config.getScoreHistoryPath()),
+					"[" + mode + "]" + (name == null ? "" : name + "_") + "score_history",
+					config.getScoreHistorySegmentMaxBytes());
+			scoreHistories.put(mode, store);
+		}
+		return store;
+	}
+
+	/**
+	 * Gets the score variation trend detector of the cluster for a mode. It is
+	 * created on first use with the samples of the score history that aren't
+	 * stale yet, so that a one-shot run evaluates the trend as a daemon does
+	 *
+	 * @param mode 'SIMULATION' or 'EXECUTION'
+	 * @return trend detector
+	 * @throws IllegalArgumentException if a 'trend.*' property is out of range
+	 */
+	public synchronized TrendDetector getTrendDetector(String mode) {
+		TrendDetector detector = trendDetectors.get(mode);
+		if (detector == null) {
+			RebalancerConfig config = configProvider.get();
+			detector = TrendDetector.fromConfig(config);
+			long now = System.currentTimeMillis();
+			try {
+				for (ScoreSample sample : getScoreHistory(mode).scan(now - config.getTrendMaxSampleGapMs(), now)) {
+					detector.add(sample.getTimestampMs(), sample.getScoreVariation());
+				}
+			} catch (IOException e) {
+				logger.warn("score history of " + this + " couldn't be read, the trend starts empty", e);
+			}
+			trendDetectors.put(mode, detector);
+		}
+		return detector;
+	}
+
+	/**
+	 * Stops task tracking, closes the score histories, the ZK sessions, the
+	 * Kafka admin client and the configuration watcher of the cluster
+	 */
+	public void close() {
+		rebalancer.close();
+		imbalancePreCheck.close();
+		synchronized (this) {
+			for (ScoreHistoryStore store : scoreHistories.values()) {
+				try {
+					store.close();
+				} catch (IOException e) {
+					logger.warn("score history " + store.getName() + " couldn't be closed", e);
+				}
+			}
+			scoreHistories.clear();
+		}
+		try {
+			zkScheduler.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			configProvider.close();
+		} catch (IOException e) {
+			logger.warn("configuration watcher of cluster " + name + " couldn't be closed", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? configProvider.get().getCcUrl() : name;
+	}
+}
@@ -0,0 +1,372 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming parsers of cruise control JSON responses. <br/>
+ * Responses are read token by token and only the fields the rebalancer needs
+ * are kept, everything else (e.g. the per-partition movements of /proposals)
+ * is skipped without building a tree.
+ *
+ * @author SKI44
+ *
+ */
+public class CruiseControlResponseParser {
+	private static final JsonFactory jsonFactory = new JsonFactory()
+			// the Http client drains and closes the stream itself to keep the connection alive
+			.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+	private CruiseControlResponseParser() {
+	}
+
+	/**
+	 * Parses the 'summary' block of a /proposals response
+	 *
+	 * @param body response body
+	 * @return scalar fields of the summary block
+	 * @throws IOException if the body isn't valid JSON or has no summary block
+	 */
+	public static ProposalSummary parseProposalSummary(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "summary") || parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "no 'summary' object in proposals response");
+			}
+			Map<String, Object> fields = new LinkedHashMap<String, Object>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if (value.isNumeric()) {
+					fields.put(name, parser.getNumberValue());
+				} else if (value.isScalarValue()) {
+					fields.put(name, value == JsonToken.VALUE_NULL ? null : parser.getText());
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return new ProposalSummary(fields);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Checks in a /user_tasks response if a rebalancing or scaling task isn't
+	 * completed
+	 *
+	 * @param body response body
+	 * @return true if a rebalance, add_broker or remove_broker task isn't
+	 *         completed
+	 * @throws IOException if the body isn't valid JSON or has no userTasks array
+	 */
+	public static boolean hasActiveScalingTask(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "userTasks") || parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "no 'userTasks' array in user_tasks response");
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				String requestURL = null;
+				String status = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					if ("RequestURL".equals(name)) {
+						requestURL = parser.getValueAsString();
+					} else if ("Status".equals(name)) {
+						status = parser.getValueAsString();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				if (requestURL != null && status != null && isScalingRequestURL(requestURL)
+						&& !status.contains("Completed")) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Gets the ids of the rebalancing and scaling tasks of a /user_tasks response
+	 * that aren't completed
+	 *
+	 * @param body response body
+	 * @return ids of the rebalance, add_broker and remove_broker tasks that aren't
+	 *         completed
+	 * @throws IOException if the body isn't valid JSON or has no userTasks array
+	 */
+	public static List<String> parseActiveScalingTaskIds(InputStream body) throws IOException {
+		List<String> taskIds = new ArrayList<String>();
+		for (Map.Entry<String, String[]> task : parseUserTasks(body).entrySet()) {
+			String requestURL = task.getValue()[0];
+			String status = task.getValue()[1];
+			if (requestURL != null && status != null && isScalingRequestURL(requestURL)
+					&& !status.contains("Completed")) {
+				taskIds.add(task.getKey());
+			}
+		}
+		return taskIds;
+	}
+
+	/**
+	 * Gets the status of each task of a /user_tasks?user_task_ids=... response
+	 *
+	 * @param body response body
+	 * @return task statuses by task id, tasks unknown to cruise control are
+	 *         missing
+	 * @throws IOException if the body isn't valid JSON or has no userTasks array
+	 */
+	public static Map<String, String> parseUserTaskStatuses(InputStream body) throws IOException {
+		Map<String, String> statuses = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String[]> task : parseUserTasks(body).entrySet()) {
+			statuses.put(task.getKey(), task.getValue()[1]);
+		}
+		return statuses;
+	}
+
+	/**
+	 * @return RequestURL and Status of the tasks by task id, tasks without id are
+	 *         skipped
+	 */
+	private static Map<String, String[]> parseUserTasks(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "userTasks") || parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "no 'userTasks' array in user_tasks response");
+			}
+			Map<String, String[]> tasks = new LinkedHashMap<String, String[]>();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				String taskId = null;
+				String[] task = new String[2];
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					if ("UserTaskId".equals(name)) {
+						taskId = parser.getValueAsString();
+					} else if ("RequestURL".equals(name)) {
+						task[0] = parser.getValueAsString();
+					} else if ("Status".equals(name)) {
+						task[1] = parser.getValueAsString();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				if (taskId != null) {
+					tasks.put(taskId, task);
+				}
+			}
+			return tasks;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Gets the status of the first task of a
+	 * /user_tasks?user_task_ids=... response
+	 *
+	 * @param body response body
+	 * @return task status (e.g. 'Active', 'InExecution', 'Completed',
+	 *         'CompletedWithError') or null if the task is unknown to cruise
+	 *         control
+	 * @throws IOException if the body isn't valid JSON or has no userTasks array
+	 */
+	public static String parseUserTaskStatus(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "userTasks") || parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "no 'userTasks' array in user_tasks response");
+			}
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if ("Status".equals(name)) {
+					return parser.getValueAsString();
+				}
+				parser.skipChildren();
+			}
+			return null;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * @param requestURL RequestURL of a cruise control user task
+	 * @return true if the task is a rebalance, add_broker or remove_broker task
+	 */
+	public static boolean isScalingRequestURL(String requestURL) {
+		return requestURL.contains("REBALANCE") || requestURL.contains("rebalance")
+				|| requestURL.contains("ADD_BROKER") || requestURL.contains("add_broker")
+				|| requestURL.contains("remove_broker") || requestURL.contains("REMOVE_BROKER");
+	}
+
+	/**
+	 * Gets the id of the first request in the 'RequestInfo' array of a response to
+	 * a request requiring review (2 steps verification)
+	 *
+	 * @param body response body
+	 * @return request id to approve
+	 * @throws IOException if the body isn't valid JSON or has no request id
+	 */
+	public static String parseRequestInfoId(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "RequestInfo") || parser.nextToken() != JsonToken.START_ARRAY
+					|| parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "no 'RequestInfo' in response");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if ("Id".equals(name)) {
+					return parser.getValueAsString();
+				}
+				parser.skipChildren();
+			}
+			throw new JsonParseException(parser, "no 'Id' in RequestInfo of response");
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Gets the ids of the brokers known by cruise control from a
+	 * /kafka_cluster_state response (keys of KafkaBrokerState.IsController)
+	 *
+	 * @param body response body
+	 * @return broker ids
+	 * @throws IOException if the body isn't valid JSON or has no broker state
+	 */
+	public static Set<String> parseBrokerIds(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "KafkaBrokerState") || parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "no 'KafkaBrokerState' in kafka_cluster_state response");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("IsController".equals(name) && value == JsonToken.START_OBJECT) {
+					Set<String> brokerIds = new HashSet<String>();
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						brokerIds.add(parser.getCurrentName());
+						parser.nextToken();
+						parser.skipChildren();
+					}
+					return brokerIds;
+				}
+				parser.skipChildren();
+			}
+			throw new JsonParseException(parser, "no 'IsController' in KafkaBrokerState");
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Parses the 'brokers' array of a /load response
+	 *
+	 * @param body response body
+	 * @return load of each broker
+	 * @throws IOException if the body isn't valid JSON or has no brokers array
+	 */
+	public static List<BrokerLoad> parseBrokerLoads(InputStream body) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (!moveToField(parser, "brokers") || parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "no 'brokers' array in load response");
+			}
+			List<BrokerLoad> loads = new ArrayList<BrokerLoad>();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				int brokerId = -1;
+				String state = null;
+				double cpuPct = 0;
+				double leaderNwInRate = 0;
+				double followerNwInRate = 0;
+				double nwOutRate = 0;
+				double networkInCapacity = 0;
+				double networkOutCapacity = 0;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					switch (name) {
+					case "Broker":
+						brokerId = parser.getValueAsInt(-1);
+						break;
+					case "BrokerState":
+						state = parser.getValueAsString();
+						break;
+					case "CpuPct":
+						cpuPct = parser.getValueAsDouble();
+						break;
+					case "LeaderNwInRate":
+						leaderNwInRate = parser.getValueAsDouble();
+						break;
+					case "FollowerNwInRate":
+						followerNwInRate = parser.getValueAsDouble();
+						break;
+					case "NwOutRate":
+						nwOutRate = parser.getValueAsDouble();
+						break;
+					case "NetworkInCapacity":
+						networkInCapacity = parser.getValueAsDouble();
+						break;
+					case "NetworkOutCapacity":
+						networkOutCapacity = parser.getValueAsDouble();
+						break;
+					default:
+						parser.skipChildren();
+					}
+				}
+				if (brokerId >= 0) {
+					loads.add(new BrokerLoad(brokerId, state, cpuPct, leaderNwInRate, followerNwInRate, nwOutRate,
+							networkInCapacity, networkOutCapacity));
+				}
+			}
+			return loads;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Moves the parser to a field of the root object, skipping the values of the
+	 * fields before it
+	 *
+	 * @return true if the parser is on the field name, false if the root object
+	 *         has no such field
+	 */
+	private static boolean moveToField(JsonParser parser, String field) throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			throw new JsonParseException(parser, "response isn't a JSON object");
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			if (field.equals(parser.getCurrentName())) {
+				return true;
+			}
+			parser.nextToken();
+			parser.skipChildren();
+		}
+		return false;
+	}
+}
@@ -0,0 +1,102 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ledger of the data moved by the launched rebalances, checked against the
+ * data movement budget of {@link MovementCostPolicy}. <br/>
+ * Each rebalance is recorded as a child Znode named '&lt;launch time in
+ * ms&gt;-&lt;task id&gt;' holding the data to move in MB, read through a
+ * watch-backed cache: the ledger survives restarts and one-shot runs and is
+ * shared by the instances of a leader election. Entries older than the budget
+ * window are deleted when the ledger is read.
+ *
+ * @author SKI44
+ *
+ */
+public class DataMovementLedger {
+	private final static Logger logger = LoggerFactory.getLogger(DataMovementLedger.class);
+
+	private final ZKScheduler zkScheduler;
+	private final String host;
+	private final String path;
+	private boolean rootCreated;
+
+	/**
+	 * @param zkScheduler scheduler whose ZK session is used
+	 * @param host        commas separated of ZK servers IPs
+	 * @param path        root Znode of the ledger (created on first use)
+	 */
+	DataMovementLedger(ZKScheduler zkScheduler, String host, String path) {
+		this.zkScheduler = zkScheduler;
+		this.host = host;
+		this.path = path;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Records the data moved by a launched rebalance
+	 *
+	 * @param taskId       cruise control user task id
+	 * @param dataToMoveMB data to move in MB
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public void record(String taskId, double dataToMoveMB) throws KeeperException, InterruptedException, IOException {
+		ensureRoot();
+		zkScheduler.writeZNodeData(path + "/" + System.currentTimeMillis() + "-" + taskId,
+				Double.toString(dataToMoveMB).getBytes(StandardCharsets.UTF_8), host);
+	}
+
+	/**
+	 * Sums the data moved within a window, served from memory. Entries that have
+	 * left the window are deleted
+	 *
+	 * @param windowMs window in ms
+	 * @return data moved in MB since windowMs
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public double getMovedMB(long windowMs) throws KeeperException, InterruptedException, IOException {
+		ensureRoot();
+		long since = System.currentTimeMillis() - windowMs;
+		double movedMB = 0;
+		for (Map.Entry<String, String> entry : zkScheduler.getQueueCache(path, host).getEntries().entrySet()) {
+			String name = entry.getKey();
+			long launchedAtMs;
+			try {
+				launchedAtMs = Long.parseLong(name.substring(0, name.indexOf('-')));
+				if (launchedAtMs >= since) {
+					movedMB += Double.parseDouble(entry.getValue());
+					continue;
+				}
+			} catch (NumberFormatException | StringIndexOutOfBoundsException | NullPointerException e) {
+				logger.warn("unreadable data movement entry " + name + " is deleted");
+			}
+			try {
+				zkScheduler.deleteZNode(path + "/" + name, host);
+			} catch (KeeperException.NoNodeException alreadyDeleted) {
+				// deleted by another instance
+			}
+		}
+		return movedMB;
+	}
+
+	private synchronized void ensureRoot() throws KeeperException, InterruptedException, IOException {
+		if (!rootCreated) {
+			zkScheduler.createIfMissing(path, host);
+			rootCreated = true;
+		}
+	}
+}
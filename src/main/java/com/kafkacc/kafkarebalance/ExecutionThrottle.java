@@ -0,0 +1,108 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Execution parameters of the partition movements of a cruise control task:
+ * concurrency and inter-broker replication throttle
+ *
+ * @author SKI44
+ *
+ */
+public class ExecutionThrottle {
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final int partitionMovementsPerBroker;
+	private final int leaderMovements;
+	private final long replicationThrottle;
+
+	/**
+	 * @param partitionMovementsPerBroker maximum number of concurrent partition
+	 *                                    movements per broker
+	 * @param leaderMovements             maximum number of concurrent leader
+	 *                                    movements
+	 * @param replicationThrottle         replication throttle in bytes/s
+	 */
+	public ExecutionThrottle(int partitionMovementsPerBroker, int leaderMovements, long replicationThrottle) {
+		this.partitionMovementsPerBroker = partitionMovementsPerBroker;
+		this.leaderMovements = leaderMovements;
+		this.replicationThrottle = replicationThrottle;
+	}
+
+	public int getPartitionMovementsPerBroker() {
+		return partitionMovementsPerBroker;
+	}
+
+	public int getLeaderMovements() {
+		return leaderMovements;
+	}
+
+	/**
+	 * @return replication throttle in bytes/s
+	 */
+	public long getReplicationThrottle() {
+		return replicationThrottle;
+	}
+
+	/**
+	 * @return parameters of a rebalance, add_broker or remove_broker request
+	 *         (starting with '&amp;')
+	 */
+	public String toLaunchParameters() {
+		return toConcurrencyParameters() + "&replication_throttle=" + replicationThrottle;
+	}
+
+	/**
+	 * @return parameters of an admin request changing the concurrency of the
+	 *         ongoing execution (starting with '&amp;'), the replication throttle
+	 *         of an execution can't be changed
+	 */
+	public String toConcurrencyParameters() {
+		return "&concurrent_partition_movements_per_broker=" + partitionMovementsPerBroker
+				+ "&concurrent_leader_movements=" + leaderMovements;
+	}
+
+	/**
+	 * @param other another throttle, may be null
+	 * @return true if the concurrency of both throttles is the same
+	 */
+	public boolean hasSameConcurrency(ExecutionThrottle other) {
+		return other != null && other.partitionMovementsPerBroker == partitionMovementsPerBroker
+				&& other.leaderMovements == leaderMovements;
+	}
+
+	public String toJSON() {
+		ObjectNode node = mapper.createObjectNode();
+		node.put("partitionMovementsPerBroker", partitionMovementsPerBroker);
+		node.put("leaderMovements", leaderMovements);
+		node.put("replicationThrottle", replicationThrottle);
+		return node.toString();
+	}
+
+	/**
+	 * Parses a throttle written by {@link #toJSON()}
+	 *
+	 * @param payload payload to parse
+	 * @return the throttle
+	 * @throws IllegalArgumentException if the payload can't be parsed
+	 */
+	public static ExecutionThrottle parse(String payload) {
+		try {
+			JsonNode node = mapper.readTree(payload);
+			return new ExecutionThrottle(node.get("partitionMovementsPerBroker").asInt(),
+					node.get("leaderMovements").asInt(), node.get("replicationThrottle").asLong());
+		} catch (IOException | NullPointerException e) {
+			throw new IllegalArgumentException("invalid execution throttle payload: " + payload, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "partition movements/broker=" + partitionMovementsPerBroker + ", leader movements=" + leaderMovements
+				+ ", replication throttle=" + replicationThrottle + "B/s";
+	}
+}
@@ -0,0 +1,379 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reusable Http client used to send requests to cruise control. <br/>
+ * Connections are kept alive and reused between requests (the JDK keep-alive
+ * cache is used as connection pool, each response body is fully consumed so
+ * that its connection goes back to the pool), the number of connections in
+ * use at the same time is bounded and connect/read timeouts are configurable.
+ * Each request returns its own {@link HttpRestAPIResponse}, so the client can
+ * be shared between threads.
+ *
+ * @author SKI44
+ *
+ */
+public class HttpRestAPIClient {
+	private final static Logger logger = LoggerFactory.getLogger(HttpRestAPIClient.class);
+
+	public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+	public static final int DEFAULT_READ_TIMEOUT_MS = 120000;
+	public static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+	private static HttpRestAPIClient defaultClient;
+
+	private final int connectTimeoutMs;
+	private final int readTimeoutMs;
+	private final int maxConnections;
+	/**
+	 * bounds the number of connections in use at the same time
+	 */
+	private final Semaphore connectionPermits;
+	private final RebalancerMetrics metrics = RebalancerMetrics.getDefault();
+
+	/**
+	 * Creates a client
+	 *
+	 * @param connectTimeoutMs timeout in ms to establish a connection
+	 * @param readTimeoutMs    timeout in ms when waiting for the server response
+	 * @param maxConnections   maximum number of connections in use (and kept
+	 *                         alive) at the same time
+	 */
+	public HttpRestAPIClient(int connectTimeoutMs, int readTimeoutMs, int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be at least 1, got " + maxConnections);
+		}
+		this.connectTimeoutMs = connectTimeoutMs;
+		this.readTimeoutMs = readTimeoutMs;
+		this.maxConnections = maxConnections;
+		this.connectionPermits = new Semaphore(maxConnections, true);
+		enableKeepAlive(maxConnections);
+	}
+
+	/**
+	 * Creates a client from properties 'cc.http.connect.timeout.ms',
+	 * 'cc.http.read.timeout.ms' and 'cc.http.max.connections' (defaults are used
+	 * for missing properties)
+	 *
+	 * @param props properties to read
+	 * @return the client
+	 */
+	public static HttpRestAPIClient fromProperties(Properties props) {
+		return new HttpRestAPIClient(
+				Integer.parseInt(props.getProperty("cc.http.connect.timeout.ms",
+						String.valueOf(DEFAULT_CONNECT_TIMEOUT_MS)).trim()),
+				Integer.parseInt(props.getProperty("cc.http.read.timeout.ms",
+						String.valueOf(DEFAULT_READ_TIMEOUT_MS)).trim()),
+				Integer.parseInt(props.getProperty("cc.http.max.connections",
+						String.valueOf(DEFAULT_MAX_CONNECTIONS)).trim()));
+	}
+
+	/**
+	 * Creates a client from the Http settings of a configuration snapshot
+	 *
+	 * @param config configuration to read
+	 * @return the client
+	 */
+	public static HttpRestAPIClient fromConfig(RebalancerConfig config) {
+		return new HttpRestAPIClient(config.getHttpConnectTimeoutMs(), config.getHttpReadTimeoutMs(),
+				config.getHttpMaxConnections());
+	}
+
+	/**
+	 * Gets the client shared by the whole process, configured from the shared
+	 * configuration when it is available
+	 *
+	 * @return shared client
+	 */
+	public static synchronized HttpRestAPIClient getDefault() {
+		if (defaultClient == null) {
+			try {
+				defaultClient = fromConfig(RebalancerConfigProvider.getDefault().get());
+			} catch (IOException | IllegalArgumentException e) {
+				logger.warn("configuration couldn't be read, default Http client settings will be used");
+				defaultClient = fromProperties(new Properties());
+			}
+		}
+		return defaultClient;
+	}
+
+	/**
+	 * The JDK keep-alive cache reads its settings once, so they have to be set
+	 * before the first connection is opened. Values set explicitly by the user
+	 * (-Dhttp.maxConnections=...) are kept.
+	 */
+	private static void enableKeepAlive(int maxConnections) {
+		if (System.getProperty("http.keepAlive") == null) {
+			System.setProperty("http.keepAlive", "true");
+		}
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+		}
+	}
+
+	public int getConnectTimeoutMs() {
+		return connectTimeoutMs;
+	}
+
+	public int getReadTimeoutMs() {
+		return readTimeoutMs;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sends a GET request
+	 *
+	 * @param url    http server URL
+	 * @param accept accept header for the response
+	 * @return the response
+	 * @throws IOException if the request fails or the server answers with an
+	 *                     error status
+	 */
+	public HttpRestAPIResponse get(String url, String accept) throws IOException {
+		return send("GET", url, Collections.singletonMap("Accept", accept), null).throwIfError();
+	}
+
+	/**
+	 * Sends a POST request without body
+	 *
+	 * @param url http server URL
+	 * @return the response
+	 * @throws IOException if the request fails or the server answers with an
+	 *                     error status
+	 */
+	public HttpRestAPIResponse post(String url) throws IOException {
+		return send("POST", url, Collections.<String, String>emptyMap(), new byte[0]).throwIfError();
+	}
+
+	/**
+	 * Sends a POST request with a body
+	 *
+	 * @param url     http server URL
+	 * @param headers request headers (Content-Type, Accept...)
+	 * @param data    data to be sent
+	 * @return the response
+	 * @throws IOException if the request fails or the server answers with an
+	 *                     error status
+	 */
+	public HttpRestAPIResponse post(String url, Map<String, String> headers, String data) throws IOException {
+		return send("POST", url, headers, data.getBytes(StandardCharsets.UTF_8)).throwIfError();
+	}
+
+	/**
+	 * Sends a GET request and hands the response body stream to a handler (e.g. a
+	 * streaming JSON parser) instead of reading it in memory
+	 *
+	 * @param url     http server URL
+	 * @param accept  accept header for the response
+	 * @param handler handler of the response body
+	 * @return the value returned by the handler
+	 * @throws IOException if the request fails, the server answers with an error
+	 *                     status or the handler fails
+	 */
+	public <T> T get(String url, String accept, BodyHandler<T> handler) throws IOException {
+		return send("GET", url, Collections.singletonMap("Accept", accept), null, handler);
+	}
+
+	/**
+	 * Sends a POST request without body and hands the response body stream to a
+	 * handler
+	 *
+	 * @param url     http server URL
+	 * @param handler handler of the response body
+	 * @return the value returned by the handler
+	 * @throws IOException if the request fails, the server answers with an error
+	 *                     status or the handler fails
+	 */
+	public <T> T post(String url, BodyHandler<T> handler) throws IOException {
+		return send("POST", url, Collections.<String, String>emptyMap(), new byte[0], handler);
+	}
+
+	/**
+	 * Handler of a successful response body stream
+	 */
+	public interface BodyHandler<T> {
+		/**
+		 * @param body response body, doesn't need to be fully read nor closed
+		 * @return value extracted from the body
+		 * @throws IOException
+		 */
+		T handle(InputStream body) throws IOException;
+	}
+
+	/**
+	 * Sends a request and returns back the response whatever its status code
+	 *
+	 * @param method  Http method
+	 * @param url     http server URL
+	 * @param headers request headers
+	 * @param data    data to be sent (null for no body)
+	 * @return the response
+	 * @throws IOException if the request couldn't be sent or read
+	 */
+	public HttpRestAPIResponse send(String method, String url, Map<String, String> headers, byte[] data)
+			throws IOException {
+		acquireConnection(url);
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			HttpURLConnection connection = open(method, url, headers, data);
+			int statusCode = connection.getResponseCode();
+
+			// Read HTTP answer, the body is always fully read and closed (and never
+			// disconnected) so that the connection can be reused
+			InputStream inputStream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+			String body = readBody(inputStream);
+			failed = statusCode >= 400;
+			return new HttpRestAPIResponse(url, statusCode, connection.getHeaderFields(), body);
+		} finally {
+			connectionPermits.release();
+			recordRequest(method, url, start, failed);
+		}
+	}
+
+	/**
+	 * Sends a request and hands the response body stream to a handler
+	 *
+	 * @param method  Http method
+	 * @param url     http server URL
+	 * @param headers request headers
+	 * @param data    data to be sent (null for no body)
+	 * @param handler handler of the response body
+	 * @return the value returned by the handler
+	 * @throws IOException if the request fails, the server answers with an error
+	 *                     status or the handler fails
+	 */
+	public <T> T send(String method, String url, Map<String, String> headers, byte[] data, BodyHandler<T> handler)
+			throws IOException {
+		acquireConnection(url);
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			HttpURLConnection connection = open(method, url, headers, data);
+			int statusCode = connection.getResponseCode();
+			if (statusCode >= 400) {
+				throw new HttpRestAPIResponse(url, statusCode, connection.getHeaderFields(),
+						readBody(connection.getErrorStream())).toException();
+			}
+			InputStream inputStream = connection.getInputStream();
+			try {
+				long parseStart = System.nanoTime();
+				T result = handler.handle(inputStream);
+				metrics.observeNanos(RebalancerMetrics.RESPONSE_PARSE_DURATION, System.nanoTime() - parseStart,
+						"endpoint", endpoint(url));
+				// what the handler didn't need is drained so that the connection can be reused
+				drain(inputStream);
+				failed = false;
+				return result;
+			} finally {
+				inputStream.close();
+			}
+		} finally {
+			connectionPermits.release();
+			recordRequest(method, url, start, failed);
+		}
+	}
+
+	private void recordRequest(String method, String url, long start, boolean failed) {
+		String endpoint = endpoint(url);
+		metrics.observeNanos(RebalancerMetrics.HTTP_REQUEST_DURATION, System.nanoTime() - start, "method", method,
+				"endpoint", endpoint);
+		if (failed) {
+			metrics.increment(RebalancerMetrics.HTTP_ERRORS, "method", method, "endpoint", endpoint);
+		}
+	}
+
+	/**
+	 * @return last path segment of a cruise control URL (e.g. 'proposals'), used
+	 *         as metrics label
+	 */
+	static String endpoint(String url) {
+		int end = url.indexOf('?');
+		String path = end < 0 ? url : url.substring(0, end);
+		if (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	private HttpURLConnection open(String method, String url, Map<String, String> headers, byte[] data)
+			throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+		// Setup URL connection
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(connectTimeoutMs);
+		connection.setReadTimeout(readTimeoutMs);
+		connection.setUseCaches(false);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+
+		// Send DATA through OutputStream
+		if (data != null) {
+			connection.setDoOutput(true);
+			OutputStream os = connection.getOutputStream();
+			os.write(data);
+			os.flush();
+			os.close();
+		}
+		return connection;
+	}
+
+	private void acquireConnection(String url) throws IOException {
+		try {
+			if (connectTimeoutMs <= 0) { // no timeout
+				connectionPermits.acquire();
+			} else if (!connectionPermits.tryAcquire(connectTimeoutMs, TimeUnit.MILLISECONDS)) {
+				throw new IOException("no Http connection available in pool (max " + maxConnections + ") for URL: "
+						+ url + " after " + connectTimeoutMs + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for an Http connection for URL: " + url, e);
+		}
+	}
+
+	private static void drain(InputStream inputStream) throws IOException {
+		byte[] buffer = new byte[8192];
+		while (inputStream.read(buffer) != -1) {
+			// discard
+		}
+	}
+
+	private static String readBody(InputStream inputStream) throws IOException {
+		if (inputStream == null) {
+			return "";
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		try {
+			String inputLine;
+			StringBuilder response = new StringBuilder();
+			while ((inputLine = in.readLine()) != null) {
+				response.append(inputLine);
+			}
+			return response.toString();
+		} finally {
+			in.close();
+		}
+	}
+}
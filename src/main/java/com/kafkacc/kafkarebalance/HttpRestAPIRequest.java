@@ -1,39 +1,55 @@
 package com.dassault_systemes.kafkarebalance;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Http requests class that implements methods to send GET, POST, DELETE
- * requests useful when using REST Proxy to produce and consume messages
- * 
+ * requests useful when using REST Proxy to produce and consume messages. <br/>
+ * Requests are sent through the shared {@link HttpRestAPIClient} so that
+ * connections are pooled and kept alive, use {@link HttpRestAPIClient}
+ * directly to get the full {@link HttpRestAPIResponse} of a request.
+ *
  * @author SKI44
  *
  */
 public class HttpRestAPIRequest {
 	/**
-	 * response code corresponding to the last Http request sent
+	 * response code corresponding to the last Http request sent by the current
+	 * thread
 	 */
-	private static int responseCode;
+	private static final ThreadLocal<Integer> responseCode = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return 0;
+		}
+	};
 
 	/**
-	 * gets responseCode value
-	 * 
+	 * gets responseCode value of the last request sent by the current thread
+	 *
 	 * @return responceCode
+	 * @deprecated use {@link HttpRestAPIResponse#getStatusCode()}
 	 */
+	@Deprecated
 	public static int getResponseCode() {
-		return responseCode;
+		return responseCode.get();
+	}
+
+	private static HttpRestAPIResponse send(String method, String url, Map<String, String> headers, byte[] data)
+			throws IOException {
+		HttpRestAPIResponse response = HttpRestAPIClient.getDefault().send(method, url, headers, data);
+		responseCode.set(response.getStatusCode());
+		return response.throwIfError();
 	}
 
 	/**
 	 * Sends a POST request to url and returns back the response in String
-	 * 
+	 *
 	 * @param url     http server URL
 	 * @param content content-type header for the request
 	 * @param accept  accept header for the response
@@ -42,32 +58,16 @@ public class HttpRestAPIRequest {
 	 * @throws IOException
 	 */
 	public static String HttpPOSTRequest(String url, String content, String accept, String data) throws IOException {
-		URL restProxyUrl = new URL(url);
-		HttpURLConnection connection = (HttpURLConnection) restProxyUrl.openConnection();
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Content-Type", content);
-		connection.setRequestProperty("Accept", accept);
-		connection.setDoOutput(true);
-		OutputStream os = connection.getOutputStream();
-		os.write(data.getBytes());
-		os.flush();
-		os.close();
-		responseCode = connection.getResponseCode();
-		InputStreamReader inputStream = new InputStreamReader(connection.getInputStream());
-		BufferedReader in = new BufferedReader(inputStream);
-		String inputLine;
-		StringBuffer response = new StringBuffer();
-		while ((inputLine = in.readLine()) != null) {
-			response.append(inputLine);
-		}
-		in.close();
-		return response.toString();
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Content-Type", content);
+		headers.put("Accept", accept);
+		return send("POST", url, headers, data.getBytes()).getBody();
 	}
 
 	/**
 	 * Sends a POST request to url and returns back the response in String without
 	 * Accept specifications
-	 * 
+	 *
 	 * @param url     http server URL
 	 * @param content content-type header for the request
 	 * @param data    data to be sent
@@ -75,94 +75,38 @@ public class HttpRestAPIRequest {
 	 * @throws IOException
 	 */
 	public static String HttpPOSTRequest(String url, String content, String data) throws IOException {
-		URL restProxyUrl = new URL(url);
-		// Open URL connection
-		HttpURLConnection connection = (HttpURLConnection) restProxyUrl.openConnection();
-		
-		// Setup URL connection
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Content-Type", content);
-		connection.setDoOutput(true);
-		
-		// Send DATA through OutputStream
-		OutputStream os = connection.getOutputStream();
-		os.write(data.getBytes());
-		os.flush();
-		os.close();
-		
-		// Set response code for the HTTP connection
-		responseCode = connection.getResponseCode();
-		
-		// Read HTTP answer 
-		InputStreamReader inputStream = new InputStreamReader(connection.getInputStream());
-		BufferedReader in = new BufferedReader(inputStream);
-		String inputLine;
-		StringBuffer response = new StringBuffer();
-		while ((inputLine = in.readLine()) != null) {
-			response.append(inputLine);
-		}
-		in.close();
-		return response.toString();
+		return send("POST", url, Collections.singletonMap("Content-Type", content), data.getBytes()).getBody();
 	}
+
+	/**
+	 * Sends a POST request without body to url and returns back the response in
+	 * String
+	 *
+	 * @param url http server URL
+	 * @return the HTTP server response for the POST request
+	 * @throws IOException
+	 */
 	public static String HttpPOSTRequest(String url) throws IOException {
-		URL restProxyUrl = new URL(url);
-		// Open URL connection
-		HttpURLConnection connection = (HttpURLConnection) restProxyUrl.openConnection();
-		
-		// Setup URL connection
-		connection.setRequestMethod("POST");
-		connection.setDoOutput(true);		
-		// Send DATA through OutputStream
-		OutputStream os = connection.getOutputStream();
-		os.flush();
-		os.close();
-		
-		// Set response code for the HTTP connection
-		responseCode = connection.getResponseCode();
-		
-		// Read HTTP answer 
-		InputStreamReader inputStream = new InputStreamReader(connection.getInputStream());
-		BufferedReader in = new BufferedReader(inputStream);
-		String inputLine;
-		StringBuffer response = new StringBuffer();
-		while ((inputLine = in.readLine()) != null) {
-			response.append(inputLine);
-		}
-		in.close();
-		return response.toString();
+		return send("POST", url, Collections.<String, String>emptyMap(), new byte[0]).getBody();
 	}
+
+	/**
+	 * Sends a POST request without body to url and returns back the response body
+	 * and the cruise control task id header
+	 *
+	 * @param url http server URL
+	 * @return Map with the response under 'body' key and the 'User-Task-ID' header
+	 *         under 'TaskID' key
+	 * @throws IOException
+	 */
 	public static Map<String, String> HttpPOSTRequestWithHeaders(String url) throws IOException {
-		URL restProxyUrl = new URL(url);
-		// Open URL connection
-		HttpURLConnection connection = (HttpURLConnection) restProxyUrl.openConnection();
-		
-		// Setup URL connection
-		connection.setRequestMethod("POST");
-		connection.setDoOutput(true);
-		
-		// Send DATA through OutputStream
-		OutputStream os = connection.getOutputStream();
-		os.flush();
-		os.close();
-		
-		// Set response code for the HTTP connection
-		responseCode = connection.getResponseCode();
-		
-		// Read HTTP answer 
-		InputStreamReader inputStream = new InputStreamReader(connection.getInputStream());
-		String TaskID = connection.getHeaderField("User-Task-ID");
-		BufferedReader in = new BufferedReader(inputStream);
-		String inputLine;
-		StringBuffer response = new StringBuffer();
-		Map <String, String> ResponceMap = new HashMap <String, String>(); 
-		while ((inputLine = in.readLine()) != null) {
-			response.append(inputLine);
-		}
-		in.close();
-		ResponceMap.put("body",response.toString());
-		ResponceMap.put("TaskID",TaskID);
+		HttpRestAPIResponse response = send("POST", url, Collections.<String, String>emptyMap(), new byte[0]);
+		Map<String, String> ResponceMap = new HashMap<String, String>();
+		ResponceMap.put("body", response.getBody());
+		ResponceMap.put("TaskID", response.getHeader("User-Task-ID"));
 		return ResponceMap;
 	}
+
 	/**
 	 * Sends a GET request to url and returns back the response in String
 	 * @param url     http server URL
@@ -171,32 +115,12 @@ public class HttpRestAPIRequest {
 	 * @throws IOException
 	 */
 	public static String HttpGETRequest(String url, String accept) throws IOException {
-		URL restProxyUrl = new URL(url);
-		// Open URL connection
-		HttpURLConnection connection = (HttpURLConnection) restProxyUrl.openConnection();
-		
-		// Setup URL connection
-		connection.setRequestMethod("GET");
-		connection.setRequestProperty("Accept", accept);
-		
-		// Set response code for the HTTP connection
-		responseCode = connection.getResponseCode();
-		String readLine;
-		
-		// Read HTTP answer
-		BufferedReader inputBuffer = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-		StringBuffer response = new StringBuffer();
-		while ((readLine = inputBuffer.readLine()) != null) {
-			response.append(readLine);
-		}
-		inputBuffer.close();
-		return response.toString();
-
+		return send("GET", url, Collections.singletonMap("Accept", accept), null).getBody();
 	}
 
 	/**
 	 * Sends a DELETE request on a URL resource
-	 * @param urlResource to delete 
+	 * @param urlResource to delete
 	 * @param content content-type
 	 * @throws IOException
 	 */
@@ -204,7 +128,7 @@ public class HttpRestAPIRequest {
 		URL urlRessource = new URL(urlResource);
 		// Open URL connection
 		HttpURLConnection httpURLConnection = (HttpURLConnection) urlRessource.openConnection();
-		
+
 		// Setup URL connection
 		httpURLConnection.setRequestProperty("Content-Type", content);
 		httpURLConnection.setRequestMethod("DELETE");
@@ -0,0 +1,95 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response of a single Http request sent through {@link HttpRestAPIClient},
+ * carrying the status code, the response headers and the body
+ *
+ * @author SKI44
+ *
+ */
+public class HttpRestAPIResponse {
+	private final String url;
+	private final int statusCode;
+	private final Map<String, List<String>> headers;
+	private final String body;
+
+	public HttpRestAPIResponse(String url, int statusCode, Map<String, List<String>> headers, String body) {
+		this.url = url;
+		this.statusCode = statusCode;
+		// header names are case insensitive
+		Map<String, List<String>> headersMap = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			// status line is reported by HttpURLConnection under a null key
+			if (header.getKey() != null) {
+				headersMap.put(header.getKey(), header.getValue());
+			}
+		}
+		this.headers = Collections.unmodifiableMap(headersMap);
+		this.body = body;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Gets the first value of a response header
+	 *
+	 * @param name header name (case insensitive)
+	 * @return header value or null if the header is absent
+	 */
+	public String getHeader(String name) {
+		List<String> values = headers.get(name);
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		return values.get(0);
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * @return true if the status code is in the 2xx range
+	 */
+	public boolean isSuccessful() {
+		return statusCode >= 200 && statusCode < 300;
+	}
+
+	/**
+	 * Throws an IOException if the server answered with an error status (same
+	 * behavior as HttpURLConnection#getInputStream on 4xx/5xx responses)
+	 *
+	 * @return this response
+	 * @throws IOException if status code is 400 or above
+	 */
+	public HttpRestAPIResponse throwIfError() throws IOException {
+		if (statusCode >= 400) {
+			throw toException();
+		}
+		return this;
+	}
+
+	/**
+	 * @return exception describing an error response
+	 */
+	IOException toException() {
+		return new IOException("Server returned HTTP response code: " + statusCode + " for URL: " + url
+				+ (body.isEmpty() ? "" : " with body: " + body));
+	}
+}
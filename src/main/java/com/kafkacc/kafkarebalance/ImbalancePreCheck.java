@@ -0,0 +1,279 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.DescribeClusterOptions;
+import org.apache.kafka.clients.admin.DescribeTopicsOptions;
+import org.apache.kafka.clients.admin.ListTopicsOptions;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cheap imbalance signal computed from the Kafka metadata, checked before
+ * asking cruise control for a proposal: GET /proposals runs a full goal
+ * optimization, while the replica and leader counts per broker only need a
+ * metadata request. <br/>
+ * The proposal is computed only when the replica or leader count skew exceeds
+ * its bound, or when no proposal has been computed for 'precheck.max.skip.ms'
+ * (counts don't see the disk, network and CPU imbalances cruise control
+ * balances). The time of the last proposal is the time of the last sample of
+ * the score history of the mode, so one-shot runs are pre-checked like daemon
+ * runs. Any failure of the pre-check falls back to the proposal.
+ *
+ * @author SKI44
+ *
+ */
+public class ImbalancePreCheck implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(ImbalancePreCheck.class);
+
+	public static final double DEFAULT_REPLICA_SKEW_MAX = 0.1;
+	public static final double DEFAULT_LEADER_SKEW_MAX = 0.1;
+	public static final long DEFAULT_MAX_SKIP_MS = 60 * 60 * 1000L;
+	public static final int DEFAULT_TIMEOUT_MS = 30000;
+
+	private final RebalancerConfigProvider configProvider;
+	private AdminClient adminClient;
+	private String adminBootstrapServers;
+	/**
+	 * time of the last proposal asked by this instance by mode, for the runs
+	 * whose score sample couldn't be recorded
+	 */
+	private final Map<String, Long> lastProposalMs = new HashMap<String, Long>();
+
+	/**
+	 * @param configProvider provider of the configuration of the cluster
+	 *                       ('precheck.*' properties)
+	 */
+	public ImbalancePreCheck(RebalancerConfigProvider configProvider) {
+		this.configProvider = configProvider;
+	}
+
+	/**
+	 * Tells whether the proposal of cruise control must be computed on this run
+	 *
+	 * @param mode    'SIMULATION' or 'EXECUTION', for logging
+	 * @param history score history of the mode, holding a sample per computed
+	 *                proposal
+	 * @return false only if the pre-check is enabled, succeeded and the skews are
+	 *         within their bounds
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean isProposalNeeded(String mode, ScoreHistoryStore history)
+			throws InterruptedException {
+		RebalancerConfig config = configProvider.get();
+		if (!config.isPrecheckEnabled()) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		long lastMs;
+		try {
+			lastMs = Math.max(history.getLastTimestampMs(), lastProposalMs.getOrDefault(mode, -1L));
+		} catch (IOException e) {
+			logger.warn("[" + mode + "] pre-check: score history " + history.getName()
+					+ " couldn't be read, the proposal is computed", e);
+			return proposalNeeded(mode, now);
+		}
+		if (now - lastMs >= config.getPrecheckMaxSkipMs()) {
+			logger.info("[" + mode + "] pre-check: no proposal for too long, the proposal is computed");
+			return proposalNeeded(mode, now);
+		}
+		Skew skew;
+		try {
+			skew = describeSkew(config);
+		} catch (ExecutionException | TimeoutException | RuntimeException e) {
+			logger.warn("[" + mode + "] pre-check: cluster metadata couldn't be read, the proposal is computed", e);
+			return proposalNeeded(mode, now);
+		}
+		double replicaSkewMax = config.getPrecheckReplicaSkewMax();
+		double leaderSkewMax = config.getPrecheckLeaderSkewMax();
+		if (skew.getReplicaSkew() > replicaSkewMax || skew.getLeaderSkew() > leaderSkewMax) {
+			logger.info("[" + mode + "] pre-check: " + skew + " exceeds the bounds (replicas " + replicaSkewMax
+					+ ", leaders " + leaderSkewMax + "), the proposal is computed");
+			return proposalNeeded(mode, now);
+		}
+		logger.info("[" + mode + "] pre-check: " + skew + " within the bounds, no proposal is computed");
+		return false;
+	}
+
+	private boolean proposalNeeded(String mode, long now) {
+		lastProposalMs.put(mode, now);
+		return true;
+	}
+
+	/**
+	 * Reads the brokers and the partitions of all topics, internal ones included
+	 * as cruise control balances them too
+	 *
+	 * @param config configuration
+	 * @return replica and leader counts per broker
+	 * @throws ExecutionException   if a metadata request failed
+	 * @throws TimeoutException     if a metadata request timed out
+	 * @throws InterruptedException
+	 */
+	private Skew describeSkew(RebalancerConfig config)
+			throws ExecutionException, TimeoutException, InterruptedException {
+		int timeoutMs = config.getPrecheckTimeoutMs();
+		AdminClient admin = getAdminClient(config, timeoutMs);
+		Collection<Node> nodes = admin.describeCluster(new DescribeClusterOptions().timeoutMs(timeoutMs)).nodes()
+				.get(timeoutMs, TimeUnit.MILLISECONDS);
+		Set<String> topics = admin.listTopics(new ListTopicsOptions().listInternal(true).timeoutMs(timeoutMs))
+				.names().get(timeoutMs, TimeUnit.MILLISECONDS);
+		Map<String, TopicDescription> descriptions = admin
+				.describeTopics(topics, new DescribeTopicsOptions().timeoutMs(timeoutMs)).all()
+				.get(timeoutMs, TimeUnit.MILLISECONDS);
+		int[] brokerIds = new int[nodes.size()];
+		int i = 0;
+		for (Node node : nodes) {
+			brokerIds[i++] = node.id();
+		}
+		return Skew.of(brokerIds, descriptions.values());
+	}
+
+	/**
+	 * @return admin client of the configured bootstrap servers, created again if
+	 *         they have changed
+	 */
+	private AdminClient getAdminClient(RebalancerConfig config, int timeoutMs) {
+		String bootstrapServers = config.getPrecheckBootstrapServers();
+		if (adminClient == null || !bootstrapServers.equals(adminBootstrapServers)) {
+			closeAdminClient();
+			Properties props = new Properties();
+			props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+			props.put(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG, Integer.toString(timeoutMs));
+			props.put(AdminClientConfig.CLIENT_ID_CONFIG, "kafkarebalance-precheck");
+			adminClient = AdminClient.create(props);
+			adminBootstrapServers = bootstrapServers;
+		}
+		return adminClient;
+	}
+
+	private void closeAdminClient() {
+		if (adminClient != null) {
+			adminClient.close(Duration.ofSeconds(5));
+			adminClient = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closeAdminClient();
+	}
+
+	/**
+	 * Replica and leader counts per broker, in arrays indexed like the sorted
+	 * broker ids
+	 */
+	public static class Skew {
+		private final int[] brokerIds;
+		private final int[] replicaCounts;
+		private final int[] leaderCounts;
+		private final int partitionCount;
+
+		Skew(int[] brokerIds, int[] replicaCounts, int[] leaderCounts, int partitionCount) {
+			this.brokerIds = brokerIds;
+			this.replicaCounts = replicaCounts;
+			this.leaderCounts = leaderCounts;
+			this.partitionCount = partitionCount;
+		}
+
+		/**
+		 * Counts the replicas and the leaders of each broker. Replicas on brokers
+		 * that aren't in the cluster (offline) aren't counted
+		 *
+		 * @param brokerIds ids of the brokers of the cluster (sorted in place)
+		 * @param topics    descriptions of the topics
+		 * @return counts per broker
+		 */
+		public static Skew of(int[] brokerIds, Collection<TopicDescription> topics) {
+			Arrays.sort(brokerIds);
+			int[] replicaCounts = new int[brokerIds.length];
+			int[] leaderCounts = new int[brokerIds.length];
+			int partitionCount = 0;
+			for (TopicDescription topic : topics) {
+				for (TopicPartitionInfo partition : topic.partitions()) {
+					partitionCount++;
+					for (Node replica : partition.replicas()) {
+						int index = Arrays.binarySearch(brokerIds, replica.id());
+						if (index >= 0) {
+							replicaCounts[index]++;
+						}
+					}
+					Node leader = partition.leader();
+					if (leader != null) {
+						int index = Arrays.binarySearch(brokerIds, leader.id());
+						if (index >= 0) {
+							leaderCounts[index]++;
+						}
+					}
+				}
+			}
+			return new Skew(brokerIds, replicaCounts, leaderCounts, partitionCount);
+		}
+
+		/**
+		 * @return (max - min) / mean of the replica counts, 0 without replicas
+		 */
+		public double getReplicaSkew() {
+			return skew(replicaCounts);
+		}
+
+		/**
+		 * @return (max - min) / mean of the leader counts, 0 without leaders
+		 */
+		public double getLeaderSkew() {
+			return skew(leaderCounts);
+		}
+
+		public int[] getBrokerIds() {
+			return brokerIds;
+		}
+
+		public int[] getReplicaCounts() {
+			return replicaCounts;
+		}
+
+		public int[] getLeaderCounts() {
+			return leaderCounts;
+		}
+
+		public int getPartitionCount() {
+			return partitionCount;
+		}
+
+		private static double skew(int[] counts) {
+			if (counts.length == 0) {
+				return 0;
+			}
+			long sum = 0;
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			for (int count : counts) {
+				sum += count;
+				min = Math.min(min, count);
+				max = Math.max(max, count);
+			}
+			return sum == 0 ? 0 : (max - min) * (double) counts.length / sum;
+		}
+
+		@Override
+		public String toString() {
+			return "replica skew " + getReplicaSkew() + ", leader skew " + getLeaderSkew() + " (" + brokerIds.length
+					+ " brokers, " + partitionCount + " partitions)";
+		}
+	}
+}
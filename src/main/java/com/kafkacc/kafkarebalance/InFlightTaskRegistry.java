@@ -0,0 +1,178 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the cruise control tasks that may still be in execution, so that
+ * only these tasks are checked (with 'user_task_ids=') instead of the whole
+ * task history of cruise control. <br/>
+ * Each task is recorded as a child Znode named by its task id, read through a
+ * watch-backed cache: the registry survives restarts and is shared by the
+ * instances of a leader election, while checks are served from memory. <br/>
+ * A full scan of the task list is still needed from time to time to catch the
+ * operations started by other clients, the registry only tells when it is due.
+ * <br/>
+ * The execution throttle last applied to the tasks is kept as data of the
+ * root Znode, so that a run doesn't apply again an unchanged throttle.
+ *
+ * @author SKI44
+ *
+ */
+public class InFlightTaskRegistry {
+	private final static Logger logger = LoggerFactory.getLogger(InFlightTaskRegistry.class);
+
+	public static final long DEFAULT_RECONCILIATION_INTERVAL_MS = 10 * 60 * 1000L;
+	/**
+	 * description of the tasks found by a full scan
+	 */
+	public static final String EXTERNAL_TASK = "external";
+
+	private final ZKScheduler zkScheduler;
+	private final String host;
+	private final String path;
+	private volatile long lastReconciliationMs;
+	private boolean rootCreated;
+
+	/**
+	 * @param zkScheduler scheduler whose ZK session is used
+	 * @param host        commas separated of ZK servers IPs
+	 * @param path        root Znode of the registry (created on first use)
+	 */
+	InFlightTaskRegistry(ZKScheduler zkScheduler, String host, String path) {
+		this.zkScheduler = zkScheduler;
+		this.host = host;
+		this.path = path;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Records a task
+	 *
+	 * @param taskId      cruise control user task id
+	 * @param description description of the operation (e.g. 'rebalance',
+	 *                    'add_broker=1,2')
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public void add(String taskId, String description) throws KeeperException, InterruptedException, IOException {
+		ensureRoot();
+		try {
+			zkScheduler.writeZNodeData(path + "/" + taskId, description.getBytes(StandardCharsets.UTF_8), host);
+		} catch (KeeperException.NodeExistsException alreadyRecorded) {
+			// recorded by another instance or by a previous reconciliation
+		}
+	}
+
+	/**
+	 * Forgets a task that has ended
+	 *
+	 * @param taskId cruise control user task id
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public void remove(String taskId) throws KeeperException, InterruptedException, IOException {
+		try {
+			zkScheduler.deleteZNode(path + "/" + taskId, host);
+		} catch (KeeperException.NoNodeException alreadyRemoved) {
+			// removed by another instance
+		}
+	}
+
+	/**
+	 * @return ids of the recorded tasks, served from memory
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public List<String> getTaskIds() throws KeeperException, InterruptedException, IOException {
+		ensureRoot();
+		return zkScheduler.getQueueCache(path, host).getChildren();
+	}
+
+	/**
+	 * @return execution throttle last applied, null if none has been recorded
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public ExecutionThrottle getAppliedThrottle() throws KeeperException, InterruptedException, IOException {
+		ensureRoot();
+		String data = zkScheduler.getZNodeData(path, host);
+		if (data.isEmpty()) {
+			return null;
+		}
+		try {
+			return ExecutionThrottle.parse(data);
+		} catch (IllegalArgumentException e) {
+			logger.warn("recorded execution throttle of " + path + " is ignored: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Records the execution throttle applied to the tasks
+	 *
+	 * @param throttle throttle applied, null if cruise control defaults are used
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public void setAppliedThrottle(ExecutionThrottle throttle)
+			throws KeeperException, InterruptedException, IOException {
+		ensureRoot();
+		zkScheduler.updateZnodeData(path, host, throttle == null ? "" : throttle.toJSON());
+	}
+
+	/**
+	 * @param intervalMs interval in ms between two full scans of the task list
+	 * @return true if no full scan has been done by this instance for the
+	 *         interval (always true for the first check of an instance)
+	 */
+	public boolean isReconciliationDue(long intervalMs) {
+		return System.currentTimeMillis() - lastReconciliationMs >= intervalMs;
+	}
+
+	/**
+	 * Aligns the registry with the active tasks found by a full scan of the task
+	 * list: active tasks missing from the registry (started by other clients) are
+	 * added, recorded tasks that aren't active anymore are removed
+	 *
+	 * @param activeTaskIds ids of the active rebalancing and scaling tasks
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public void reconcile(List<String> activeTaskIds) throws KeeperException, InterruptedException, IOException {
+		List<String> recordedTaskIds = getTaskIds();
+		for (String taskId : activeTaskIds) {
+			if (!recordedTaskIds.contains(taskId)) {
+				logger.info("task " + taskId + " not launched by the rebalancer is in execution, it is tracked");
+				add(taskId, EXTERNAL_TASK);
+			}
+		}
+		for (String taskId : recordedTaskIds) {
+			if (!activeTaskIds.contains(taskId)) {
+				remove(taskId);
+			}
+		}
+		lastReconciliationMs = System.currentTimeMillis();
+	}
+
+	private synchronized void ensureRoot() throws KeeperException, InterruptedException, IOException {
+		if (!rootCreated) {
+			zkScheduler.createIfMissing(path, host);
+			rootCreated = true;
+		}
+	}
+}
@@ -1,20 +1,26 @@
 package com.dassault_systemes.kafkarebalance;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.zookeeper.KeeperException;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,8 +33,19 @@ import picocli.CommandLine.Option;
 
 public class KafkaRebalanceMain implements Callable<Integer> {
 	private final static Logger logger = LoggerFactory.getLogger(KafkaRebalanceMain.class);
-	private static Rebalancer rebalancer = new Rebalancer();
-	private static ZKScheduler zklogger = new ZKScheduler();
+	/**
+	 * root Znode of the scaling operations queue
+	 */
+	static final String ZK_ROOT = "/scalingBrokersOperations";
+	private static final List<ClusterContext> clusters = new ArrayList<ClusterContext>();
+	private static AsyncCSVWriter csvWriter;
+	private static MetricsServer metricsServer;
+	/**
+	 * true once the resources have been handed to the daemon, which closes them on SIGTERM
+	 */
+	private static volatile boolean resourcesClosedByDaemon;
+	// cluster managed by the workflow
+	private ClusterContext cluster;
 
 	@Option(names = { "-m",
 			"--mode" }, required = true, defaultValue = "simulation", description = "Whether to run the rebalancer in 'simulation' or 'execution' mode")
@@ -50,6 +67,81 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 			"--unbalance-threshold" }, required = false, defaultValue = "-1", description = "threshhold above which rebalancing operation is immediatly sent")
 	Double unbalanceTreshold;
 
+	@Option(names = { "-p",
+			"--priority" }, required = false, defaultValue = "0", description = "priority (0 [default] to 9) of the scaling operation if it has to be scheduled in Zookeeper")
+	Integer priority;
+
+	@Option(names = { "-c",
+			"--config" }, required = false, description = "external properties file to use instead of the cruise-control.properties embedded in the jar")
+	String configFile;
+
+	@Option(names = {
+			"--watch-config" }, required = false, description = "Whether to reload the external properties file when it changes (for long-running processes)")
+	boolean watchConfig;
+
+	@Option(names = {
+			"--daemon" }, required = false, description = "Whether to keep the process alive and run the workflow periodically instead of once")
+	boolean daemon;
+
+	@Option(names = {
+			"--interval-seconds" }, required = false, defaultValue = "300", description = "delay in seconds between two runs of the workflow in daemon mode")
+	Long intervalSeconds;
+
+	@Option(names = {
+			"--clusters" }, required = false, split = ",", paramLabel = "FILE", description = "commas separated properties files, one per cluster, to manage several clusters concurrently instead of the one of --config")
+	List<String> clusterConfigFiles;
+
+	@Option(names = {
+			"--max-parallel-clusters" }, required = false, defaultValue = "8", description = "maximum number of clusters managed at the same time with --clusters")
+	Integer maxParallelClusters;
+
+	@Option(names = {
+			"--export-history" }, required = false, paramLabel = "FILE", description = "export the balancedness score history of the mode to a CSV file (rebalancing impact layout) and exit")
+	String historyExportFile;
+
+	@Option(names = {
+			"--metrics-port" }, required = false, defaultValue = "-1", description = "port of the local Prometheus metrics endpoint (/metrics), disabled by default")
+	Integer metricsPort;
+
+	/**
+	 * Loads the configuration once and creates the components sharing it, one set of components per cluster
+	 * @throws IOException if the configuration can't be read
+	 */
+	private void init() throws IOException {
+		if (clusters.isEmpty()) {
+			if (clusterConfigFiles != null && !clusterConfigFiles.isEmpty()) {
+				if (configFile != null) {
+					throw new IllegalArgumentException("--config and --clusters can't be used together");
+				}
+				// every cluster gets its own Http client and ZK sessions
+				for (String clusterConfigFile : clusterConfigFiles) {
+					clusters.add(ClusterContext.fromFile(Paths.get(clusterConfigFile.trim()), watchConfig));
+				}
+			} else {
+				RebalancerConfigProvider configProvider = configFile != null
+						? RebalancerConfigProvider.fromFile(Paths.get(configFile), watchConfig)
+						: RebalancerConfigProvider.fromClasspath();
+				RebalancerConfigProvider.setDefault(configProvider);
+				clusters.add(new ClusterContext(null, configProvider));
+			}
+			RebalancerConfig config = clusters.get(0).getConfigProvider().get();
+			synchronized (KafkaRebalanceMain.class) {
+				if (csvWriter == null) {
+					csvWriter = new AsyncCSVWriter(config.getCsvWriterQueueCapacity(), config.getCsvWriterBatchSize(),
+							config.getCsvWriterFlushIntervalMs());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads properties from the classpath
+	 * @param path resource path
+	 * @return properties
+	 * @throws IOException
+	 * @deprecated the configuration is loaded once, use {@link RebalancerConfigProvider}
+	 */
+	@Deprecated
 	public static Properties getPropsFromFile(String path) throws IOException {
 		Properties props = new Properties();
 		InputStream is = KafkaRebalanceMain.class.getClassLoader().getResourceAsStream(path);
@@ -61,37 +153,293 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 		}
 	}
 
+	/**
+	 * Queues a CSV row to the background writer, the row is written later without blocking the caller
+	 * @param filePath CSV file to append the row to
+	 * @param data row values
+	 * @param headers header row written if the file is new
+	 */
 	public static void exportDataToCSV(String filePath, String[] data, String[] headers) {
-		File file = new File(filePath);
+		getCsvWriter().submit(filePath, data, headers);
+	}
+
+	/**
+	 * @return writer of the rebalancing impact CSV files, created on first use
+	 */
+	private static synchronized AsyncCSVWriter getCsvWriter() {
+		if (csvWriter == null) {
+			csvWriter = new AsyncCSVWriter();
+		}
+		return csvWriter;
+	}
 
+	public Integer call() throws IOException, ParseException, IllegalStateException, KeeperException,
+			InterruptedException, java.text.ParseException {
+		init();
+		if (historyExportFile != null) {
+			return exportScoreHistory();
+		}
+		if (metricsPort >= 0 && metricsServer == null) {
+			metricsServer = new MetricsServer(
+					clusters.get(0).getConfigProvider().get().getString("metrics.bind.address",
+							MetricsServer.DEFAULT_BIND_ADDRESS),
+					metricsPort, RebalancerMetrics.getDefault());
+		}
+		if (daemon) {
+			runDaemon();
+			return 0;
+		}
+		if (clusters.size() == 1) {
+			return forCluster(clusters.get(0)).runWorkflow();
+		}
+		return runConcurrently();
+	}
+
+	/**
+	 * Runs the workflow once for every cluster, clusters are managed concurrently on a bounded pool of threads
+	 * so that a slow or unreachable cluster doesn't delay the others
+	 * @return exit code, 1 if the workflow failed for a cluster
+	 * @throws InterruptedException
+	 */
+	private Integer runConcurrently() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(clusters.size(), maxParallelClusters));
 		try {
-			if (!file.exists()) {
-				FileWriter Fwriter = new FileWriter(file, true);
-				for (int i = 0; i < headers.length; i++) {
-					Fwriter.append(headers[i]);
-					Fwriter.append(",");
+			Map<ClusterContext, Future<Integer>> results = new LinkedHashMap<ClusterContext, Future<Integer>>();
+			for (final ClusterContext clusterContext : clusters) {
+				results.put(clusterContext, executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						Thread.currentThread().setName("cluster-" + clusterContext.getName());
+						return forCluster(clusterContext).runWorkflow();
+					}
+				}));
+			}
+			int exitCode = 0;
+			for (Map.Entry<ClusterContext, Future<Integer>> result : results.entrySet()) {
+				try {
+					exitCode = Math.max(exitCode, result.getValue().get());
+				} catch (ExecutionException e) {
+					logger.error("workflow failed for cluster " + result.getKey(), e.getCause());
+					exitCode = 1;
 				}
-				Fwriter.append("\n");
-				Fwriter.close();
 			}
-			FileWriter Fwriter = new FileWriter(file, true);
+			return exitCode;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-			for (int i = 0; i < data.length; i++) {
-				Fwriter.append(data[i]);
-				Fwriter.append(",");
+	/**
+	 * Runs the workflow of every cluster periodically until SIGTERM
+	 * @throws InterruptedException
+	 */
+	private void runDaemon() throws InterruptedException {
+		// ZK sessions, Http connections and caches stay warm between ticks, resources
+		// are closed by the daemon on SIGTERM
+		RebalancerDaemon rebalancerDaemon = new RebalancerDaemon(intervalSeconds * 1000,
+				RebalancerDaemon.DEFAULT_SHUTDOWN_GRACE_MS, Math.min(clusters.size(), maxParallelClusters),
+				daemonResources());
+		for (final ClusterContext clusterContext : clusters) {
+			final RebalancerDaemon.Tick tick = rebalancerDaemon.addTick(clusterContext.getName(),
+					new Callable<Integer>() {
+						public Integer call() throws Exception {
+							// the workflow redirects actionType/brokerID to the scheduled operations, every
+							// tick starts from the command line options
+							return forCluster(clusterContext).runWorkflow();
+						}
+					});
+			// dispatch the next scheduled operation as soon as a launched task has ended
+			// instead of waiting for the next tick
+			clusterContext.getRebalancer().setTaskCompletionListener(new TaskCompletionTracker.Listener() {
+				public void onTaskCompleted(String taskId, String finalStatus) {
+					tick.triggerNow();
+				}
+			});
+			// a follower taking over runs the workflow right away
+			RebalancerConfig config = clusterContext.getConfigProvider().get();
+			if (config.isLeaderElectionEnabled()) {
+				clusterContext.getZkScheduler().getLeaderElection(ZK_ROOT, config.getZkConnect())
+						.setListener(new LeaderElection.Listener() {
+							public void onElected() {
+								tick.triggerNow();
+							}
+						});
 			}
-			Fwriter.append("\n");
-			Fwriter.close();
+		}
+		resourcesClosedByDaemon = true;
+		rebalancerDaemon.run();
+	}
+
+	/**
+	 * @return resources closed by the daemon on SIGTERM: the CSV writer (queued rows are written) and the
+	 * components of the clusters
+	 */
+	private static AutoCloseable[] daemonResources() {
+		List<AutoCloseable> resources = new ArrayList<AutoCloseable>();
+		resources.add(metricsServer);
+		resources.add(csvWriter);
+		resources.addAll(clusters);
+		return resources.toArray(new AutoCloseable[resources.size()]);
+	}
+
+	/**
+	 * Evaluates the unbalancing state from the trend of the score variation of the cluster, or from the
+	 * variation measured only if trend detection is disabled
+	 * @param mode 'SIMULATION' or 'EXECUTION'
+	 * @param timestampMs time of the measure
+	 * @param scoreVariation score variation measured
+	 * @return 'safe', 'unsafe' or 'alert'
+	 */
+	private String evaluateBalanceness(String mode, long timestampMs, Double scoreVariation) {
+		if (!cluster.getConfigProvider().get().isTrendDetectionEnabled()) {
+			return cluster.getRebalancer().evaluateBalencenessUsingScoreVariation(scoreVariation, unbalanceTreshold);
+		}
+		TrendDetector.Assessment assessment = cluster.getTrendDetector(mode).update(timestampMs, scoreVariation,
+				unbalanceTreshold);
+		logger.info("[" + mode + "] score variation trend : " + assessment);
+		return assessment.getState();
+	}
+
+	/**
+	 * Publishes the scores of a sample in the metrics and appends the sample to the score history of the cluster,
+	 * the decision doesn't depend on the history so a failure is only logged
+	 * @param mode 'SIMULATION' or 'EXECUTION'
+	 * @param sample sample to append
+	 */
+	private void recordScoreSample(String mode, ScoreSample sample) {
+		RebalancerMetrics metrics = RebalancerMetrics.getDefault();
+		String clusterName = cluster.getName() == null ? "" : cluster.getName();
+		metrics.set(RebalancerMetrics.BALANCEDNESS_SCORE, sample.getScoreBefore(), "cluster", clusterName, "stage",
+				"before");
+		metrics.set(RebalancerMetrics.BALANCEDNESS_SCORE, sample.getScoreAfter(), "cluster", clusterName, "stage",
+				"after");
+		metrics.set(RebalancerMetrics.SCORE_VARIATION, sample.getScoreVariation(), "cluster", clusterName);
+		ScoreHistoryStore store = cluster.getScoreHistory(mode);
+		try {
+			store.append(sample);
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.warn("[" + mode + "] score sample couldn't be written to history " + store.getName(), e);
 		}
 	}
 
-	public Integer call() throws IOException, ParseException, IllegalStateException, KeeperException,
+	/**
+	 * Exports the score history of every cluster for the current mode in the rebalancing impact CSV layout
+	 * @return exit code
+	 * @throws IOException if a history couldn't be read or a CSV file written
+	 */
+	private Integer exportScoreHistory() throws IOException {
+		String mode = Mode.toUpperCase();
+		for (ClusterContext clusterContext : clusters) {
+			Path csvFile = Paths.get(clusters.size() == 1 ? historyExportFile
+					: historyExportFile + "." + clusterContext.getName());
+			int exported = clusterContext.getScoreHistory(mode).exportToCSV(csvFile, Long.MIN_VALUE,
+					Long.MAX_VALUE);
+			logger.info("[" + mode + "] " + exported + " score samples exported to " + csvFile);
+		}
+		return 0;
+	}
+
+	/**
+	 * @param clusterContext cluster to manage
+	 * @return a copy of the command line options managing the cluster
+	 */
+	private KafkaRebalanceMain forCluster(ClusterContext clusterContext) {
+		KafkaRebalanceMain copy = new KafkaRebalanceMain();
+		copy.cluster = clusterContext;
+		copy.Mode = Mode;
+		copy.actionType = actionType;
+		copy.brokerID = brokerID;
+		copy.force_rebalance = force_rebalance;
+		copy.unbalanceTreshold = unbalanceTreshold;
+		copy.priority = priority;
+		copy.configFile = configFile;
+		copy.watchConfig = watchConfig;
+		copy.daemon = daemon;
+		copy.intervalSeconds = intervalSeconds;
+		copy.clusterConfigFiles = clusterConfigFiles;
+		copy.maxParallelClusters = maxParallelClusters;
+		copy.historyExportFile = historyExportFile;
+		copy.metricsPort = metricsPort;
+		return copy;
+	}
+
+	/**
+	 * Runs the check/scale workflow once, its duration and failures are recorded in the metrics
+	 *
+	 * @return exit code
+	 */
+	private Integer runWorkflow() throws IOException, ParseException, IllegalStateException, KeeperException,
+			InterruptedException, java.text.ParseException {
+		RebalancerMetrics metrics = RebalancerMetrics.getDefault();
+		String clusterName = cluster.getName() == null ? "" : cluster.getName();
+		long start = System.nanoTime();
+		try {
+			return runWorkflowSteps();
+		} catch (IOException | ParseException | KeeperException | InterruptedException | RuntimeException
+				| java.text.ParseException e) {
+			metrics.increment(RebalancerMetrics.WORKFLOW_ERRORS, "cluster", clusterName, "mode", Mode);
+			throw e;
+		} finally {
+			metrics.observeNanos(RebalancerMetrics.DECISION_DURATION, System.nanoTime() - start, "cluster",
+					clusterName, "mode", Mode);
+		}
+	}
+
+	/**
+	 * Runs the workflow of an instance that isn't the leader: a scaling operation requested in execution mode
+	 * is scheduled in ZK for the leader, nothing else is done
+	 * @return exit code
+	 */
+	private Integer runAsFollower(ZKScheduler zklogger, String zkRoot, String zkHost, LeaderElection election)
+			throws KeeperException, InterruptedException, IOException {
+		String logPrefix = "[" + Mode.toUpperCase() + "] ";
+		String operation = "add-broker".equals(actionType) ? ScalingOperation.ADD
+				: "remove-broker".equals(actionType) ? ScalingOperation.REMOVE : null;
+		if ("execution".equals(Mode) && operation != null && brokerID != -1) {
+			if (zklogger.enqueueScalingOperation(zkRoot,
+					new ScalingOperation(brokerID, operation, System.currentTimeMillis(), priority), zkHost) == null) {
+				logger.info(logPrefix + "this scaling operation has already been scheduled");
+			} else {
+				logger.info(logPrefix + "this instance isn't the leader, scaling operation has been scheduled in "
+						+ "Zookeeper to be executed by the leader " + election.getLeaderId());
+			}
+		} else {
+			logger.info(logPrefix + "this instance isn't the leader, the leader " + election.getLeaderId()
+					+ " checks the cluster");
+		}
+		return 0;
+	}
+
+	private Integer runWorkflowSteps() throws IOException, ParseException, IllegalStateException, KeeperException,
 			InterruptedException, java.text.ParseException {
 		String rebalancingState;
-		String zkRoot = "/scalingBrokersOperations";
-		String zkHost = getPropsFromFile("cruise-control.properties").getProperty("zk.connect");
+		String zkRoot = ZK_ROOT;
+		Rebalancer rebalancer = cluster.getRebalancer();
+		ZKScheduler zklogger = cluster.getZkScheduler();
+		// same configuration snapshot for the whole run
+		RebalancerConfig config = cluster.getConfigProvider().get();
+		// CSV files of the clusters are told apart by cluster name
+		String csvFilePrefix = cluster.getName() == null ? "" : cluster.getName() + "_";
+		String zkHost = config.getZkConnect();
+
+		if (config.isLeaderElectionEnabled()) {
+			// only the leader polls cruise control and launches operations
+			LeaderElection election = zklogger.getLeaderElection(zkRoot, zkHost);
+			rebalancer.setLeaderElection(election);
+			if (!election.isLeader()) {
+				return runAsFollower(zklogger, zkRoot, zkHost, election);
+			}
+		}
+		// launched tasks are recorded and checked by id, simulations leave the registry untouched and scan the
+		// task list
+		rebalancer.setTaskRegistry(
+				"execution".equals(Mode) ? zklogger.getInFlightTaskRegistry(zkRoot, zkHost) : null);
+		rebalancer.setMovementLedger(
+				"execution".equals(Mode) ? zklogger.getDataMovementLedger(zkRoot, zkHost) : null);
+		if ("execution".equals(Mode)) {
+			// concurrency of a running execution follows the broker load between its batches, failures are
+			// only logged
+			rebalancer.adjustExecutionThrottle();
+		}
 
 		switch (Mode) {
 		case ("simulation"):
@@ -109,9 +457,7 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 						} else { // no rebalancing active tasks in execution time, we can run the forced
 									// rebalancing
 							// get summary
-							logger.info("[SIMULATION] Rebalancing summary :\n" + HttpRestAPIRequest
-									.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-											+ "/kafkacruisecontrol/proposals?json=true", "all"));
+							logger.info("[SIMULATION] Rebalancing summary :\n" + rebalancer.getProposalSummary());
 							logger.info(
 									"[SIMULATION] Rebalancing operation has been triggered (with default parameters), sending rebalancing request...");
 							// get scheduled rebalancing task information
@@ -147,43 +493,44 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 								// Start
 								logger.info("[SIMULATION] rebalancing operation has been triggered");
 
-								// Get Proposal
-								String proposalRebalancing = new String();
+								// Replica and leader counts first, cruise control optimizes only if they are skewed
+								if (!cluster.getImbalancePreCheck().isProposalNeeded("SIMULATION", cluster.getScoreHistory("SIMULATION"))) {
+									break;
+								}
+
+								// Get Proposal summary (streamed, proposed movements are skipped), screened by the quick score
+								ProposalSummary proposalSummary;
 								try {
-									proposalRebalancing = HttpRestAPIRequest.HttpGETRequest(
-											getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-													+ "/kafkacruisecontrol/proposals?json=true",
-											"all");
+									proposalSummary = rebalancer.getScreenedProposalSummary(unbalanceTreshold);
 								} catch (IOException e) {
 									logger.info(
 											" [SIMULATION] Internal HTTP Server Error, Rebalancer couldn't retrieve the actual state of the cluster through GET /proposals");
-									e.printStackTrace();
+									throw e;
+								}
+								if (proposalSummary == null) {
+									// quick scores aren't recorded with the full goals ones (CSV, history, trend)
+									logger.info("[SIMULATION] the quick score is safe, no need yet for rebalancing");
+									break;
 								}
-
-								// Parse proposal JSON
-								JSONObject proposalRebalancingJSON = (JSONObject) new JSONParser()
-										.parse(proposalRebalancing);
-								proposalRebalancingJSON = (JSONObject) proposalRebalancingJSON.get("summary");
 
 								// Calculate score variation
-								Double scoreVariation = rebalancer.calculateScoreVariation();
+								Double scoreVariation = proposalSummary.getScoreVariation();
 								logger.info("[SIMULATION] Score balancing impact variation measured / Actual score  : "
-										+ scoreVariation + " / "
-										+ (Double) proposalRebalancingJSON.get("onDemandBalancednessScoreBefore"));
+										+ scoreVariation + " / " + proposalSummary.getBalancednessScoreBefore());
 
 								// CSV measurement logging
 								DateFormat dateformat = new SimpleDateFormat("yyyy/MM/dd-HH:mm:ss");
 								Date date = new Date();
 								exportDataToCSV(
-										getPropsFromFile("cruise-control.properties")
-												.getProperty("path.log.rebalancing.csv")
-												+ "/[SIMULATION]rebalancing_impact_data.csv",
+										config.getCsvLogPath()
+												+ "/[SIMULATION]" + csvFilePrefix + "rebalancing_impact_data.csv",
 										new String[] { dateformat.format(date).toString(), scoreVariation.toString() },
 										new String[] { "TimeStamp", "unbalancing-difference" });
 
 								// Evaluating impact
-								String currentState = rebalancer.evaluateBalencenessUsingScoreVariation(scoreVariation,
-										unbalanceTreshold);
+								String currentState = evaluateBalanceness("SIMULATION", date.getTime(), scoreVariation);
+								recordScoreSample("SIMULATION",
+										new ScoreSample(date.getTime(), proposalSummary, scoreVariation, currentState));
 								if (currentState == "safe") { // Safe
 									logger.info(
 											"[SIMULATION] the current unbalancing state is safe, no need yet for rebalancing");
@@ -199,6 +546,13 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 										logger.info(
 												"[SIMULATION] unbalacing state has reached a critical point, an automatic rebalancing operation will be launched");
 
+										// Proposals moving a lot of data for a small gain, or over the budget, wait
+										String deferralReason = rebalancer.getMovementDeferralReason(proposalSummary);
+										if (deferralReason != null) {
+											logger.info("[SIMULATION] rebalancing is deferred, " + deferralReason);
+											break;
+										}
+
 										// Check if there is any previous rebalancing is still in execution
 										if (rebalancer.checkActiveRebalancingTasks()) {
 											logger.info(
@@ -211,11 +565,7 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 								// launch rebalancing
 								logger.info("[SIMULATION] Rebalancing will be started");
 								logger.info(
-										"[SIMULATION] Rebalancing summary :\n"
-												+ HttpRestAPIRequest.HttpGETRequest(
-														getPropsFromFile("cruise-control.properties").getProperty(
-																"cc.url") + "/kafkacruisecontrol/proposals?json=true",
-														"all"));
+										"[SIMULATION] Rebalancing summary :\n" + rebalancer.getProposalSummary());
 								break;
 							}
 							break;
@@ -247,9 +597,11 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 							 * means that this is an out of schedule operation and it will be privileged on
 							 * scheduled ones
 							 */
-							if ((brokerID.toString() + "-add").equals(zklogger.getZNodeData(
+							if ((brokerID.toString() + "-add").equals(ScalingOperation.parse(zklogger.getZNodeData(
 									// delete currently executed task if it exist in ZK
-									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost))) {
+									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost)).getKey())) {
+								logger.info("[SIMULATION] scheduled operations launched in the same request : "
+										+ zklogger.getScalingBatch(zkRoot, config.getScalingBatchMaxSize(), zkHost));
 							}
 						}
 						logger.info("[SIMULATION] adding broker with brokerID:" + brokerID);
@@ -271,8 +623,10 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 						}
 					} else {
 						if (!zklogger.getZNodeEarliestChild(zkRoot, zkHost).isEmpty()) {
-							if ((brokerID.toString() + "-remove").equals(zklogger.getZNodeData(
-									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost))) {
+							if ((brokerID.toString() + "-remove").equals(ScalingOperation.parse(zklogger.getZNodeData(
+									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost)).getKey())) {
+								logger.info("[SIMULATION] scheduled operations launched in the same request : "
+										+ zklogger.getScalingBatch(zkRoot, config.getScalingBatchMaxSize(), zkHost));
 							}
 						}
 						logger.info("[SIMULATION] removing broker with brokerID:" + brokerID);
@@ -285,6 +639,9 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 			}
 			break;
 		case ("execution"):
+			// move operations scheduled in the legacy timestamp named format to sequential Znodes and
+			// index them for dedup, once
+			zklogger.prepareQueue(zkRoot, zkHost);
 			switch (actionType) {
 			case "rebalance-current-cluster":
 				if (unbalanceTreshold == -1) {
@@ -300,9 +657,7 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 						} else {
 							logger.info("[EXECUTION] Rebalancing will be started");
 							// Get summary
-							logger.info("[EXECUTION] Rebalancing summary :\n" + HttpRestAPIRequest
-									.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-											+ "/kafkacruisecontrol/proposals?json=true", "all"));
+							logger.info("[EXECUTION] Rebalancing summary :\n" + rebalancer.getProposalSummary());
 							rebalancer.launchRebalancingOperation();
 						}
 						break;
@@ -336,42 +691,43 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 								// Start
 								logger.info("[EXECUTION] rebalancing operation has been triggered");
 
-								// Get Proposal
-								String proposalRebalancing = new String();
+								// Replica and leader counts first, cruise control optimizes only if they are skewed
+								if (!cluster.getImbalancePreCheck().isProposalNeeded("EXECUTION", cluster.getScoreHistory("EXECUTION"))) {
+									break;
+								}
+
+								// Get Proposal summary (streamed, proposed movements are skipped), screened by the quick score
+								ProposalSummary proposalSummary;
 								try {
-									proposalRebalancing = HttpRestAPIRequest.HttpGETRequest(
-											getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-													+ "/kafkacruisecontrol/proposals?json=true",
-											"all");
+									proposalSummary = rebalancer.getScreenedProposalSummary(unbalanceTreshold);
 								} catch (IOException e) {
 									logger.info(
 											"[EXECUTION] Internal HTTP Server Error, Rebalancer couldn't retrieve the actual state of the cluster through GET /proposals");
-									e.printStackTrace();
+									throw e;
+								}
+								if (proposalSummary == null) {
+									// quick scores aren't recorded with the full goals ones (CSV, history, trend)
+									logger.info("[EXECUTION] the quick score is safe, no need yet for rebalancing");
+									break;
 								}
-
-								// Parse proposal JSON
-								JSONObject proposalRebalancingJSON = (JSONObject) new JSONParser()
-										.parse(proposalRebalancing);
-								proposalRebalancingJSON = (JSONObject) proposalRebalancingJSON.get("summary");
 
 								// Calculate score variation
-								Double scoreVariation = rebalancer.calculateScoreVariation();
+								Double scoreVariation = proposalSummary.getScoreVariation();
 								logger.info("[EXECUTION] Score balancing impact variation measured / Actual score  : "
-										+ scoreVariation + " / "
-										+ (Double) proposalRebalancingJSON.get("onDemandBalancednessScoreBefore"));
+										+ scoreVariation + " / " + proposalSummary.getBalancednessScoreBefore());
 
 								// CSV measurement logging
 								DateFormat dateformat = new SimpleDateFormat("yyyy/MM/dd-HH:mm:ss");
 								Date date = new Date();
 								exportDataToCSV(
-										getPropsFromFile("cruise-control.properties").getProperty(
-												"path.log.rebalancing.csv") + "/[EXECUTION]rebalancing_impact_data.csv",
+										config.getCsvLogPath() + "/[EXECUTION]" + csvFilePrefix + "rebalancing_impact_data.csv",
 										new String[] { dateformat.format(date).toString(), scoreVariation.toString() },
 										new String[] { "TimeStamp", "unbalancing-difference" });
 
 								// Evaluating impact
-								String currentState = rebalancer.evaluateBalencenessUsingScoreVariation(scoreVariation,
-										unbalanceTreshold);
+								String currentState = evaluateBalanceness("EXECUTION", date.getTime(), scoreVariation);
+								recordScoreSample("EXECUTION",
+										new ScoreSample(date.getTime(), proposalSummary, scoreVariation, currentState));
 								if (currentState == "safe") { // Safe
 									logger.info(
 											"[EXECUTION] the current unbalancing state is safe, no need yet for rebalancing");
@@ -387,6 +743,13 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 										logger.info(
 												"[EXECUTION] unbalacing state has reached a critical point, an automatique rebalancing operation will be launched");
 
+										// Proposals moving a lot of data for a small gain, or over the budget, wait
+										String deferralReason = rebalancer.getMovementDeferralReason(proposalSummary);
+										if (deferralReason != null) {
+											logger.info("[EXECUTION] rebalancing is deferred, " + deferralReason);
+											break;
+										}
+
 										// Check if there is any previous rebalancing is still in execution
 										if (rebalancer.checkActiveRebalancingTasks()) {
 											logger.info(
@@ -398,11 +761,7 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 							case "rebalance":
 								logger.info("[EXECUTION] Rebalancing will be started");
 								logger.info(
-										"[EXECUTION] Rebalancing summary :\n"
-												+ HttpRestAPIRequest.HttpGETRequest(
-														getPropsFromFile("cruise-control.properties").getProperty(
-																"cc.url") + "/kafkacruisecontrol/proposals?json=true",
-														"all"));
+										"[EXECUTION] Rebalancing summary :\n" + rebalancer.getProposalSummary());
 								rebalancer.launchRebalancingOperation();
 								break;
 							}
@@ -424,9 +783,8 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 							logger.info("[EXECUTION] this scaling operation has already been scheduled");
 						} else {
 							// schedule scaling task in ZK
-							zklogger.writeZNodeData(
-									zkRoot + "/" + new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss.SSS").format(new Date()),
-									(brokerID.toString() + "-add").getBytes(), zkHost);
+							zklogger.enqueueScalingOperation(zkRoot, new ScalingOperation(brokerID,
+									ScalingOperation.ADD, System.currentTimeMillis(), priority), zkHost);
 							logger.info(
 									"[EXECUTION] scaling operation has been scheduled in Zookeeper to be executed in the future");
 						}
@@ -434,6 +792,7 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 						// launch scaling out
 						// check if there are any scheduled scaling operations by checking the earliest
 						// scheduled operation
+						List<Integer> brokerIDs = Collections.singletonList(brokerID);
 						if (!zklogger.getZNodeEarliestChild(zkRoot, zkHost).isEmpty()) {
 							/**
 							 * check if the current scaling operation to be launched is the earliest
@@ -441,15 +800,16 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 							 * means that this is an out of schedule operation and it will be privileged on
 							 * scheduled ones
 							 */
-							if ((brokerID.toString() + "-add").equals(zklogger.getZNodeData(
-									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost))) {
-								// delete currently executed task if it exist in zk
-								zklogger.deleteZNode(zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost),
-										zkHost);
+							if ((brokerID.toString() + "-add").equals(ScalingOperation.parse(zklogger.getZNodeData(
+									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost)).getKey())) {
+								// the following scheduled add operations are launched with it in one request and
+								// deleted from zk in one transaction
+								launchScalingBatch(rebalancer, zklogger, zkRoot, zkHost, config.getScalingBatchMaxSize());
+								break;
 							}
 						}
-						logger.info("[EXECUTION] adding broker with brokerID:" + brokerID);
-						rebalancer.launchAddingBrokerOperation(brokerID);
+						logger.info("[EXECUTION] adding broker with brokerID:" + ScalingBatch.toBrokerIdParameter(brokerIDs));
+						rebalancer.launchAddingBrokerOperation(brokerIDs);
 
 						break;
 					}
@@ -464,22 +824,22 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 						if (zklogger.checkForSimilarZnode(zkRoot, zkHost, brokerID.toString() + "-remove")) {
 							logger.info("[EXECUTION] this scaling operation has already been scheduled");
 						} else {
-							zklogger.writeZNodeData(
-									zkRoot + "/" + new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss.SSS").format(new Date()),
-									(brokerID.toString() + "-remove").getBytes(), zkHost);
+							zklogger.enqueueScalingOperation(zkRoot, new ScalingOperation(brokerID,
+									ScalingOperation.REMOVE, System.currentTimeMillis(), priority), zkHost);
 							logger.info(
 									"[EXECUTION] scaling operation has been scheduled in Zookeeper to be executed in the future");
 						}
 					} else {
+						List<Integer> brokerIDs = Collections.singletonList(brokerID);
 						if (!zklogger.getZNodeEarliestChild(zkRoot, zkHost).isEmpty()) {
-							if ((brokerID.toString() + "-remove").equals(zklogger.getZNodeData(
-									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost))) {
-								zklogger.deleteZNode(zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost),
-										zkHost);
+							if ((brokerID.toString() + "-remove").equals(ScalingOperation.parse(zklogger.getZNodeData(
+									zkRoot + "/" + zklogger.getZNodeEarliestChild(zkRoot, zkHost), zkHost)).getKey())) {
+								launchScalingBatch(rebalancer, zklogger, zkRoot, zkHost, config.getScalingBatchMaxSize());
+								break;
 							}
 						}
-						logger.info("[EXECUTION] removing broker with brokerID:" + brokerID);
-						rebalancer.launchRemovingBrokerOperation(brokerID);
+						logger.info("[EXECUTION] removing broker with brokerID:" + ScalingBatch.toBrokerIdParameter(brokerIDs));
+						rebalancer.launchRemovingBrokerOperation(brokerIDs);
 						break;
 					}
 				}
@@ -491,8 +851,56 @@ public class KafkaRebalanceMain implements Callable<Integer> {
 		return 0;
 	}
 
-	public static void main(String[] args) throws IOException, ParseException {
-		new CommandLine(new KafkaRebalanceMain()).execute(args);
+	/**
+	 * Launches the batch of compatible operations at the head of the queue in one request, then dequeues in
+	 * one transaction the operations of the brokers included in the request. Operations of brokers not
+	 * detected by cruise control, or of a failed request, stay queued for the next run
+	 */
+	private void launchScalingBatch(Rebalancer rebalancer, ZKScheduler zklogger, String zkRoot, String zkHost,
+			int batchMaxSize) throws IOException, ParseException, InterruptedException, KeeperException {
+		ScalingBatch batch = zklogger.getScalingBatch(zkRoot, batchMaxSize, zkHost);
+		logger.info("[EXECUTION] launching the scheduled operations " + batch);
+		// operations are only launched and dequeued by the leader
+		rebalancer.ensureLeadership();
+		ScalingBatch launched = rebalancer.launchScalingBatch(batch);
+		if (launched == null) {
+			logger.info("[EXECUTION] none of the brokers of " + batch
+					+ " is detected by cruise control, the operations stay scheduled");
+			return;
+		}
+		zklogger.dequeueScalingBatch(zkRoot, launched, zkHost);
+		if (launched.getZnodeNames().size() < batch.getZnodeNames().size()) {
+			logger.info("[EXECUTION] operations of " + batch + " not launched stay scheduled, launched: " + launched);
+		}
+	}
 
+	public static void main(String[] args) throws IOException, ParseException, InterruptedException {
+		try {
+			new CommandLine(new KafkaRebalanceMain()).execute(args);
+		} finally {
+			// in daemon mode, the resources are closed by the shutdown hook of the daemon only
+			if (!resourcesClosedByDaemon) {
+				closeResources();
+			}
+		}
+	}
+
+	/**
+	 * Closes the ZK sessions shared by all scheduler operations of the run, the metrics server and the CSV
+	 * writer (queued rows are written before exiting), the next run loads the configuration again
+	 */
+	static synchronized void closeResources() throws InterruptedException {
+		for (ClusterContext clusterContext : clusters) {
+			clusterContext.close();
+		}
+		clusters.clear();
+		if (metricsServer != null) {
+			metricsServer.close();
+			metricsServer = null;
+		}
+		if (csvWriter != null) {
+			csvWriter.close();
+			csvWriter = null;
+		}
 	}
 }
@@ -0,0 +1,300 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leader election among the rebalancer instances managing a same cluster, on
+ * the shared ZK session of a {@link ZKScheduler}. <br/>
+ * Each instance registers an ephemeral sequential candidate Znode under the
+ * election path, the candidate with the lowest sequence is the leader. A
+ * follower watches its predecessor only, so the departure of the leader wakes
+ * up a single follower, which takes over once the session of the leader has
+ * expired (within a session timeout) or immediately if the leader has closed
+ * its election. <br/>
+ * The candidate Znode belongs to the session it has been created on: when the
+ * session expires the instance loses the leadership and registers again as
+ * the last candidate on the next check. A disconnected leader considers itself
+ * a follower until the leadership is checked again. <br/>
+ * The leadership is re-evaluated on the deletion of a watched candidate by a
+ * thread of the election, not by the ZK event thread: the check makes
+ * synchronous ZK calls.
+ *
+ * @author SKI44
+ *
+ */
+public class LeaderElection implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(LeaderElection.class);
+
+	public static final String CANDIDATE_PREFIX = "candidate-";
+	/**
+	 * length of the sequence ZK appends to sequential Znode names
+	 */
+	static final int SEQUENCE_LENGTH = 10;
+
+	/**
+	 * Notified when the instance becomes leader following the departure of its
+	 * predecessor
+	 */
+	public interface Listener {
+		void onElected();
+	}
+
+	private final ZKScheduler zkScheduler;
+	private final String host;
+	private final String electionPath;
+	private final String participantId;
+	/**
+	 * unique part of the candidate name, to find back a candidate whose creation
+	 * response has been lost
+	 */
+	private final String candidateToken = UUID.randomUUID().toString();
+
+	private ZooKeeper candidateSession;
+	private String candidateName;
+	private volatile boolean leader;
+	private volatile Listener listener;
+	private boolean closed;
+	/**
+	 * re-evaluates the leadership out of the ZK event thread, its thread is
+	 * started on the first deletion of a watched candidate
+	 */
+	private final ExecutorService reevaluator = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "leader-election");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Watcher watcher = new Watcher() {
+		public void process(WatchedEvent event) {
+			if (event.getType() == EventType.NodeDeleted) {
+				try {
+					reevaluator.execute(LeaderElection.this::onCandidateDeleted);
+				} catch (RejectedExecutionException e) {
+					// election closed
+				}
+			} else if (event.getType() == EventType.None && event.getState() != KeeperState.SyncConnected
+					&& leader) {
+				// another candidate may take over while this instance can't reach ZK
+				leader = false;
+				logger.warn("leadership of " + electionPath + " suspended, ZK session is " + event.getState());
+			}
+		}
+	};
+
+	/**
+	 * @param zkScheduler   scheduler whose ZK session is used
+	 * @param host          commas separated of ZK servers IPs
+	 * @param electionPath  root Znode of the candidates (created if missing)
+	 * @param participantId identifier of the instance, written in its candidate
+	 *                      Znode
+	 */
+	LeaderElection(ZKScheduler zkScheduler, String host, String electionPath, String participantId) {
+		this.zkScheduler = zkScheduler;
+		this.host = host;
+		this.electionPath = electionPath;
+		this.participantId = participantId;
+	}
+
+	public String getElectionPath() {
+		return electionPath;
+	}
+
+	public String getParticipantId() {
+		return participantId;
+	}
+
+	/**
+	 * @param listener notified when the instance becomes leader without having
+	 *                 checked it (null to remove)
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Checks the leadership: registers the candidate of the instance if it has
+	 * none on the current ZK session, then compares it with the other candidates
+	 *
+	 * @return true if the instance is the leader
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException           if the ZK session couldn't be connected
+	 * @throws IllegalStateException if the election has been closed
+	 */
+	public synchronized boolean isLeader() throws KeeperException, InterruptedException, IOException {
+		if (closed) {
+			throw new IllegalStateException("leader election of " + electionPath + " has been closed");
+		}
+		ZooKeeper zk = zkScheduler.getConnector(host).getZooKeeper();
+		if (zk != candidateSession) {
+			register(zk);
+		}
+		return checkLeadership(zk);
+	}
+
+	/**
+	 * Gets the identifier of the current leader, for information
+	 *
+	 * @return participant id of the leader, null if there is no candidate
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public String getLeaderId() throws KeeperException, InterruptedException, IOException {
+		List<String> candidates = getCandidates(zkScheduler.getConnector(host).getZooKeeper());
+		while (!candidates.isEmpty()) {
+			try {
+				byte[] data = zkScheduler.getConnector(host).getZooKeeper()
+						.getData(electionPath + "/" + candidates.get(0), false, null);
+				return data == null ? "" : new String(data, StandardCharsets.UTF_8);
+			} catch (KeeperException.NoNodeException leftMeanwhile) {
+				candidates.remove(0);
+			}
+		}
+		return null;
+	}
+
+	private void register(ZooKeeper zk) throws KeeperException, InterruptedException, IOException {
+		if (leader) {
+			leader = false;
+			logger.warn("leadership of " + electionPath + " lost with the ZK session");
+		}
+		candidateName = null;
+		zkScheduler.createIfMissing(electionPath, host);
+		String candidatePrefix = CANDIDATE_PREFIX + candidateToken + "-";
+		try {
+			String path = zk.create(electionPath + "/" + candidatePrefix,
+					participantId.getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+					CreateMode.EPHEMERAL_SEQUENTIAL);
+			candidateName = path.substring(path.lastIndexOf('/') + 1);
+		} catch (KeeperException.ConnectionLossException e) {
+			// the candidate may have been created, a second one would never be deleted before the session
+			for (String candidate : getCandidates(zk)) {
+				if (candidate.startsWith(candidatePrefix)) {
+					candidateName = candidate;
+				}
+			}
+			if (candidateName == null) {
+				throw e;
+			}
+		}
+		candidateSession = zk;
+		logger.info(participantId + " registered as candidate " + candidateName + " of " + electionPath);
+	}
+
+	private boolean checkLeadership(ZooKeeper zk) throws KeeperException, InterruptedException, IOException {
+		while (true) {
+			List<String> candidates = getCandidates(zk);
+			int index = candidates.indexOf(candidateName);
+			if (index < 0) {
+				// candidate deleted from outside of the instance
+				logger.warn("candidate " + candidateName + " of " + electionPath + " has disappeared");
+				register(zk);
+				continue;
+			}
+			if (index == 0) {
+				if (!leader) {
+					logger.info(participantId + " is the leader of " + electionPath);
+					// notified of the session state changes and of the deletion of the candidate
+					zk.exists(electionPath + "/" + candidateName, watcher);
+				}
+				leader = true;
+				return true;
+			}
+			leader = false;
+			// watch the predecessor only, not the leader, to wake up a single follower
+			if (zk.exists(electionPath + "/" + candidates.get(index - 1), watcher) != null) {
+				logger.debug(participantId + " follows " + candidates.get(index - 1) + " in " + electionPath);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return candidates ordered by sequence (the names start with different
+	 *         tokens)
+	 */
+	private List<String> getCandidates(ZooKeeper zk) throws KeeperException, InterruptedException {
+		List<String> candidates = new ArrayList<String>();
+		for (String child : zk.getChildren(electionPath, false)) {
+			if (child.startsWith(CANDIDATE_PREFIX) && child.length() > SEQUENCE_LENGTH) {
+				candidates.add(child);
+			}
+		}
+		Collections.sort(candidates, (c1, c2) -> sequence(c1).compareTo(sequence(c2)));
+		return candidates;
+	}
+
+	private static String sequence(String candidate) {
+		return candidate.substring(candidate.length() - SEQUENCE_LENGTH);
+	}
+
+	/**
+	 * Called on the deletion of the predecessor of a follower, or of the
+	 * candidate of the leader
+	 */
+	private void onCandidateDeleted() {
+		boolean elected;
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				boolean wasLeader = leader;
+				elected = isLeader() && !wasLeader;
+			}
+		} catch (KeeperException | IOException | RuntimeException e) {
+			logger.warn("leadership of " + electionPath + " couldn't be checked, it will be on next run", e);
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		Listener currentListener = listener;
+		if (elected && currentListener != null) {
+			currentListener.onElected();
+		}
+	}
+
+	/**
+	 * Withdraws the candidate, so that a follower takes over without waiting for
+	 * the session to expire
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		leader = false;
+		reevaluator.shutdown();
+		if (candidateName != null && candidateSession != null && candidateSession.getState().isConnected()) {
+			try {
+				candidateSession.delete(electionPath + "/" + candidateName, -1);
+			} catch (KeeperException e) {
+				// deleted with the session
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
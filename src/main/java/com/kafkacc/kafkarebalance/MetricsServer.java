@@ -0,0 +1,84 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Small Http endpoint exposing {@link RebalancerMetrics} in the Prometheus
+ * text format on '/metrics', served by the JDK built-in Http server on a
+ * single thread.
+ *
+ * @author SKI44
+ *
+ */
+public class MetricsServer implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+	public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Starts serving the metrics
+	 *
+	 * @param bindAddress address to listen on
+	 * @param port        port to listen on (0 for any free port)
+	 * @param metrics     metrics to expose
+	 * @throws IOException if the server couldn't listen on the address
+	 */
+	public MetricsServer(String bindAddress, int port, final RebalancerMetrics metrics) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					if (!"GET".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(405, -1);
+						return;
+					}
+					byte[] body = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream os = exchange.getResponseBody();
+					os.write(body);
+					os.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+		logger.info("metrics exposed on http://" + bindAddress + ":" + getPort() + "/metrics");
+	}
+
+	/**
+	 * @return port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,108 @@
+package com.dassault_systemes.kafkarebalance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Weighs the balancedness gain of a proposal against the data it would move.
+ * A proposal is deferred: <br/>
+ * - when its score gain per GB moved is below the configured minimum, the
+ * cluster would pay a large replication for a small improvement, <br/>
+ * - or when the data it moves would exceed the data movement budget of the
+ * window, given the data moved by the rebalances launched in the window, so
+ * that successive rebalances don't saturate the inter-broker replication.
+ * <br/>
+ * A proposal larger than the whole budget is executed alone, when nothing has
+ * been moved within the window, instead of being deferred forever. <br/>
+ * Proposals moving no data (leader movements only) are never deferred.
+ *
+ * @author SKI44
+ *
+ */
+public class MovementCostPolicy {
+	private final static Logger logger = LoggerFactory.getLogger(MovementCostPolicy.class);
+
+	public static final double DEFAULT_MIN_SCORE_GAIN_PER_GB = 0;
+	public static final long DEFAULT_BUDGET_MAX_MB = 0;
+	public static final long DEFAULT_BUDGET_WINDOW_MS = 24 * 60 * 60 * 1000L;
+
+	private final double minScoreGainPerGB;
+	private final long budgetMaxMB;
+	private final long budgetWindowMs;
+
+	/**
+	 * @param minScoreGainPerGB minimum score variation per GB moved, 0 to accept
+	 *                          any ratio
+	 * @param budgetMaxMB       data in MB the rebalances may move within a
+	 *                          window, 0 for no budget
+	 * @param budgetWindowMs    sliding window in ms of the budget
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public MovementCostPolicy(double minScoreGainPerGB, long budgetMaxMB, long budgetWindowMs) {
+		if (minScoreGainPerGB < 0 || budgetMaxMB < 0) {
+			throw new IllegalArgumentException("minimum score gain and data movement budget can't be negative, got "
+					+ minScoreGainPerGB + "/" + budgetMaxMB);
+		}
+		if (budgetWindowMs <= 0) {
+			throw new IllegalArgumentException("data movement budget window must be positive, got " + budgetWindowMs);
+		}
+		this.minScoreGainPerGB = minScoreGainPerGB;
+		this.budgetMaxMB = budgetMaxMB;
+		this.budgetWindowMs = budgetWindowMs;
+	}
+
+	public long getBudgetWindowMs() {
+		return budgetWindowMs;
+	}
+
+	/**
+	 * @return true if a data movement budget is configured
+	 */
+	public boolean hasBudget() {
+		return budgetMaxMB > 0;
+	}
+
+	/**
+	 * @param summary summary of a proposal
+	 * @return score variation per GB moved, infinite if no data is moved
+	 */
+	public static double getScoreGainPerGB(ProposalSummary summary) {
+		double dataToMoveGB = summary.getDataToMoveMB() / 1024;
+		return dataToMoveGB > 0 ? summary.getScoreVariation() / dataToMoveGB : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Evaluates the cost of a proposal
+	 *
+	 * @param summary        summary of the proposal
+	 * @param movedInWindowMB data in MB moved by the rebalances launched within
+	 *                        the budget window
+	 * @return reason of the deferral, null if the proposal can be executed (a
+	 *         proposal larger than the budget can be executed only with an empty
+	 *         window)
+	 */
+	public String getDeferralReason(ProposalSummary summary, double movedInWindowMB) {
+		double dataToMoveMB = summary.getDataToMoveMB();
+		if (dataToMoveMB <= 0) {
+			return null;
+		}
+		double scoreGainPerGB = getScoreGainPerGB(summary);
+		if (scoreGainPerGB < minScoreGainPerGB) {
+			return "score gain of " + scoreGainPerGB + " per GB moved (" + summary.getScoreVariation() + " for "
+					+ dataToMoveMB + "MB) is below " + minScoreGainPerGB;
+		}
+		if (hasBudget() && movedInWindowMB + dataToMoveMB > budgetMaxMB) {
+			if (movedInWindowMB <= 0) {
+				logger.warn(dataToMoveMB + "MB to move exceed alone the data movement budget of " + budgetMaxMB
+						+ "MB, the proposal is executed as nothing has been moved within " + budgetWindowMs + "ms");
+				return null;
+			}
+			return dataToMoveMB + "MB to move would exceed the data movement budget (" + movedInWindowMB + "MB of "
+					+ budgetMaxMB + "MB already moved within " + budgetWindowMs + "ms)"
+					+ (dataToMoveMB > budgetMaxMB
+							? ", the proposal alone is larger than the budget and waits for an empty window"
+							: "");
+		}
+		return null;
+	}
+}
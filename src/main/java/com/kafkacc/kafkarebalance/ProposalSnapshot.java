@@ -0,0 +1,47 @@
+package com.dassault_systemes.kafkarebalance;
+
+/**
+ * Proposal of cruise control fetched at a given time, shared by all the
+ * consumers of a run (logging, score variation, rebalancing summary) so that
+ * cruise control computes its proposal only once
+ *
+ * @author SKI44
+ *
+ */
+public class ProposalSnapshot {
+	private final ProposalSummary summary;
+	private final long fetchedAtMs;
+	private final long fetchDurationMs;
+
+	/**
+	 * @param summary         summary of the proposal
+	 * @param fetchedAtMs     time in ms the proposal has been received at
+	 * @param fetchDurationMs time in ms cruise control took to answer
+	 */
+	public ProposalSnapshot(ProposalSummary summary, long fetchedAtMs, long fetchDurationMs) {
+		this.summary = summary;
+		this.fetchedAtMs = fetchedAtMs;
+		this.fetchDurationMs = fetchDurationMs;
+	}
+
+	public ProposalSummary getSummary() {
+		return summary;
+	}
+
+	public long getFetchedAtMs() {
+		return fetchedAtMs;
+	}
+
+	public long getFetchDurationMs() {
+		return fetchDurationMs;
+	}
+
+	/**
+	 * @param nowMs current time in ms
+	 * @param ttlMs time to live in ms of a snapshot
+	 * @return true if the snapshot is older than ttlMs
+	 */
+	public boolean isExpired(long nowMs, long ttlMs) {
+		return nowMs - fetchedAtMs >= ttlMs;
+	}
+}
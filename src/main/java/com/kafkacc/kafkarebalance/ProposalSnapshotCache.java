@@ -0,0 +1,86 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the last {@link ProposalSnapshot} for a configurable time to live.
+ * Concurrent callers wait for the same fetch instead of asking cruise control
+ * for several proposals. The snapshot must be invalidated when the cluster is
+ * changed by a launched operation.
+ *
+ * @author SKI44
+ *
+ */
+public class ProposalSnapshotCache {
+	private final static Logger logger = LoggerFactory.getLogger(ProposalSnapshotCache.class);
+
+	public static final long DEFAULT_TTL_MS = 60000;
+
+	/**
+	 * Fetches a new proposal summary from cruise control
+	 */
+	public interface Loader {
+		ProposalSummary load() throws IOException;
+	}
+
+	private final long ttlMs;
+	private final Loader loader;
+	private final String goalSet;
+	private ProposalSnapshot snapshot;
+
+	/**
+	 * @param ttlMs  time to live in ms of a snapshot (0 disables caching)
+	 * @param loader fetches a new proposal summary
+	 */
+	public ProposalSnapshotCache(long ttlMs, Loader loader) {
+		this(ttlMs, loader, "full");
+	}
+
+	/**
+	 * @param ttlMs   time to live in ms of a snapshot (0 disables caching)
+	 * @param loader  fetches a new proposal summary
+	 * @param goalSet goals the proposals are computed with ('full' or 'quick'),
+	 *                label of the fetch durations in the metrics
+	 */
+	public ProposalSnapshotCache(long ttlMs, Loader loader, String goalSet) {
+		this.ttlMs = ttlMs;
+		this.loader = loader;
+		this.goalSet = goalSet;
+	}
+
+	public long getTtlMs() {
+		return ttlMs;
+	}
+
+	/**
+	 * Gets the current snapshot, a new proposal is fetched if there is none or if
+	 * it has expired
+	 *
+	 * @return the snapshot
+	 * @throws IOException if the proposal couldn't be fetched
+	 */
+	public synchronized ProposalSnapshot get() throws IOException {
+		long now = System.currentTimeMillis();
+		if (snapshot == null || snapshot.isExpired(now, ttlMs)) {
+			long start = System.nanoTime();
+			ProposalSummary summary = loader.load();
+			long durationNanos = System.nanoTime() - start;
+			long durationMs = durationNanos / 1000000;
+			snapshot = new ProposalSnapshot(summary, System.currentTimeMillis(), durationMs);
+			RebalancerMetrics.getDefault().observeNanos(RebalancerMetrics.PROPOSAL_DURATION, durationNanos, "goals",
+					goalSet);
+			logger.debug("new " + goalSet + " proposal snapshot fetched in " + durationMs + "ms");
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Drops the current snapshot, the next {@link #get()} fetches a new proposal
+	 */
+	public synchronized void invalidate() {
+		snapshot = null;
+	}
+}
@@ -0,0 +1,83 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 'summary' block of a cruise control /proposals response (scalar fields
+ * only: scores, data to move, number of movements...)
+ *
+ * @author SKI44
+ *
+ */
+public class ProposalSummary {
+	private final Map<String, Object> fields;
+
+	/**
+	 * @param fields scalar fields of the summary block, by name
+	 */
+	public ProposalSummary(Map<String, Object> fields) {
+		this.fields = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(fields));
+	}
+
+	public Map<String, Object> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @param name field name
+	 * @return numeric value of the field
+	 * @throws IllegalStateException if the field is missing or isn't a number
+	 */
+	public double getDouble(String name) {
+		Object value = fields.get(name);
+		if (!(value instanceof Number)) {
+			throw new IllegalStateException("proposal summary field '" + name + "' is missing or isn't a number: "
+					+ value);
+		}
+		return ((Number) value).doubleValue();
+	}
+
+	/**
+	 * @param name         field name
+	 * @param defaultValue value if the field is missing or isn't a number
+	 * @return numeric value of the field
+	 */
+	public double getDouble(String name, double defaultValue) {
+		Object value = fields.get(name);
+		return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+	}
+
+	public double getBalancednessScoreBefore() {
+		return getDouble("onDemandBalancednessScoreBefore");
+	}
+
+	public double getBalancednessScoreAfter() {
+		return getDouble("onDemandBalancednessScoreAfter");
+	}
+
+	/**
+	 * @return variation in balancedness score if the proposal is executed
+	 */
+	public double getScoreVariation() {
+		return getBalancednessScoreAfter() - getBalancednessScoreBefore();
+	}
+
+	public double getDataToMoveMB() {
+		return getDouble("dataToMoveMB", 0);
+	}
+
+	public long getNumReplicaMovements() {
+		return (long) getDouble("numReplicaMovements", 0);
+	}
+
+	public long getNumLeaderMovements() {
+		return (long) getDouble("numLeaderMovements", 0);
+	}
+
+	@Override
+	public String toString() {
+		return fields.toString();
+	}
+}
@@ -3,13 +3,14 @@ package com.dassault_systemes.kafkarebalance;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.apache.zookeeper.KeeperException;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,8 +20,324 @@ import org.slf4j.LoggerFactory;
  * @author SKI44
  *
  */
-public class Rebalancer {
+public class Rebalancer implements AutoCloseable {
 	private final static Logger logger = LoggerFactory.getLogger(Rebalancer.class);
+	private final HttpRestAPIClient httpClient;
+	private final RebalancerConfigProvider configProvider;
+	private final ProposalSnapshotCache proposalSnapshots;
+	/**
+	 * proposals computed with the quick score goals, see {@link #getScreenedProposalSummary(Double)}
+	 */
+	private final ProposalSnapshotCache quickProposalSnapshots;
+	private final TaskCompletionTracker taskTracker;
+	private volatile TaskCompletionTracker.Listener taskCompletionListener;
+	private volatile LeaderElection leaderElection;
+	private volatile InFlightTaskRegistry taskRegistry;
+	private volatile DataMovementLedger movementLedger;
+	/**
+	 * throttle of the last launched or adjusted execution
+	 */
+	private volatile ExecutionThrottle appliedThrottle;
+
+	/**
+	 * @param configProvider provider of the configuration, the Http client is created from its current snapshot
+	 */
+	public Rebalancer(RebalancerConfigProvider configProvider) {
+		this(HttpRestAPIClient.fromConfig(configProvider.get()), configProvider);
+	}
+
+	/**
+	 * @param httpClient client used to send requests to cruise control
+	 * @param configProvider provider of the configuration
+	 */
+	public Rebalancer(HttpRestAPIClient httpClient, RebalancerConfigProvider configProvider) {
+		this.httpClient = httpClient;
+		this.configProvider = configProvider;
+		this.proposalSnapshots = new ProposalSnapshotCache(configProvider.get().getProposalSnapshotTtlMs(),
+				this::fetchProposalSummary);
+		this.quickProposalSnapshots = new ProposalSnapshotCache(configProvider.get().getProposalSnapshotTtlMs(),
+				this::fetchQuickProposalSummary, "quick");
+		RebalancerConfig config = configProvider.get();
+		this.taskTracker = new TaskCompletionTracker(this::getUserTaskStatus, config.getTaskPollInitialDelayMs(),
+				config.getTaskPollMaxDelayMs(), config.getTaskTrackingTimeoutMs());
+	}
+
+	/**
+	 * Sets the listener notified when a task launched by this rebalancer has ended. Launched tasks are tracked
+	 * only if a listener is set
+	 * @param listener completion listener, null to stop tracking new tasks
+	 */
+	public void setTaskCompletionListener(TaskCompletionTracker.Listener listener) {
+		this.taskCompletionListener = listener;
+	}
+
+	/**
+	 * Sets the leader election the launches are subject to: operations are only launched while this instance
+	 * is the leader
+	 * @param leaderElection leader election, null if this instance is the only one
+	 */
+	public void setLeaderElection(LeaderElection leaderElection) {
+		this.leaderElection = leaderElection;
+	}
+
+	/**
+	 * Sets the registry where launched tasks are recorded, active tasks are then checked by task id and the
+	 * whole task list is only scanned periodically (see 'cc.tasks.reconciliation.interval.ms')
+	 * @param taskRegistry registry of the in-flight tasks, null to scan the whole task list on every check
+	 */
+	public void setTaskRegistry(InFlightTaskRegistry taskRegistry) {
+		this.taskRegistry = taskRegistry;
+	}
+
+	/**
+	 * Sets the ledger where the data moved by launched rebalances is recorded, for the data movement budget
+	 * (see 'movement.budget.*')
+	 * @param movementLedger ledger of the moved data, null to check the budget against the proposal only
+	 */
+	public void setMovementLedger(DataMovementLedger movementLedger) {
+		this.movementLedger = movementLedger;
+	}
+
+	/**
+	 * Weighs a proposal against the data it moves ('movement.*' properties), see {@link MovementCostPolicy}
+	 * @param summary summary of the proposal
+	 * @return reason to defer the proposal, null if it can be executed
+	 * @throws KeeperException if the data movement ledger couldn't be read
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public String getMovementDeferralReason(ProposalSummary summary)
+			throws KeeperException, InterruptedException, IOException {
+		MovementCostPolicy policy = configProvider.get().getMovementCostPolicy();
+		DataMovementLedger ledger = movementLedger;
+		double movedInWindowMB = ledger != null && policy.hasBudget() ? ledger.getMovedMB(policy.getBudgetWindowMs())
+				: 0;
+		return policy.getDeferralReason(summary, movedInWindowMB);
+	}
+
+	/**
+	 * Gets the current load of the brokers
+	 * @return load of each broker
+	 * @throws IOException
+	 */
+	public List<BrokerLoad> getBrokerLoads() throws IOException {
+		return httpClient.get(ccUrl() + "/kafkacruisecontrol/load?json=true", "all",
+				CruiseControlResponseParser::parseBrokerLoads);
+	}
+
+	/**
+	 * Computes the throttle of the execution of an operation about to be launched from the current broker load
+	 * ('throttle.*' properties)
+	 * @return execution parameters of the launch request, empty if adaptive throttling is disabled or the load
+	 * couldn't be read (cruise control defaults are then used)
+	 */
+	private String throttleParameters() {
+		RebalancerConfig config = configProvider.get();
+		if (!config.isThrottleAdaptiveEnabled()) {
+			return "";
+		}
+		ExecutionThrottle throttle;
+		try {
+			throttle = config.getThrottleController().compute(getBrokerLoads());
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("[EXECUTION] execution throttle couldn't be computed, cruise control defaults are used", e);
+			throttle = null;
+		}
+		recordAppliedThrottle(throttle);
+		if (throttle == null) {
+			return "";
+		}
+		logger.info("[EXECUTION] execution throttled from the broker load: " + throttle);
+		return throttle.toLaunchParameters();
+	}
+
+	/**
+	 * @return throttle last applied by this instance, or recorded in the task registry by a previous run
+	 */
+	private ExecutionThrottle getAppliedThrottle(InFlightTaskRegistry registry)
+			throws KeeperException, InterruptedException, IOException {
+		ExecutionThrottle throttle = appliedThrottle;
+		return throttle != null || registry == null ? throttle : registry.getAppliedThrottle();
+	}
+
+	/**
+	 * Keeps the applied throttle in memory and in the task registry, the next runs then skip the adjustment
+	 * while the concurrency doesn't change. A throttle that couldn't be recorded is only logged, it is applied
+	 * again by the next run
+	 */
+	private void recordAppliedThrottle(ExecutionThrottle throttle) {
+		appliedThrottle = throttle;
+		InFlightTaskRegistry registry = taskRegistry;
+		if (registry == null) {
+			return;
+		}
+		try {
+			registry.setAppliedThrottle(throttle);
+		} catch (IOException | KeeperException e) {
+			logger.warn("[EXECUTION] applied execution throttle couldn't be recorded in " + registry.getPath(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adjusts the concurrency of the ongoing execution to the current broker load, cruise control applies it
+	 * to its next batch of movements. Nothing is done if adaptive throttling is disabled, no recorded task is
+	 * in execution or the concurrency doesn't change. Throttling is an optimization: a failure is only logged,
+	 * the execution goes on with its current concurrency
+	 * @return throttle applied, null if none has been applied
+	 * @throws InterruptedException
+	 */
+	public ExecutionThrottle adjustExecutionThrottle() throws InterruptedException {
+		RebalancerConfig config = configProvider.get();
+		InFlightTaskRegistry registry = taskRegistry;
+		if (!config.isThrottleAdaptiveEnabled() || registry == null) {
+			return null;
+		}
+		try {
+			if (!hasTaskInExecution(registry)) {
+				return null;
+			}
+			ExecutionThrottle throttle = config.getThrottleController().compute(getBrokerLoads());
+			if (throttle == null || throttle.hasSameConcurrency(getAppliedThrottle(registry))) {
+				return null;
+			}
+			ensureLeadership();
+			String requestId = httpClient.post(
+					ccUrl() + "/kafkacruisecontrol/admin?json=true" + throttle.toConcurrencyParameters(),
+					CruiseControlResponseParser::parseRequestInfoId);
+			httpClient.post(ccUrl() + "/kafkacruisecontrol/review?approve=" + requestId);
+			httpClient.post(ccUrl() + "/kafkacruisecontrol/admin?review_id=" + requestId);
+			recordAppliedThrottle(throttle);
+			logger.info("[EXECUTION] execution concurrency adjusted to the broker load: " + throttle);
+			return throttle;
+		} catch (IOException | KeeperException | IllegalArgumentException | IllegalStateException e) {
+			logger.warn("[EXECUTION] execution concurrency couldn't be adjusted, the current one is kept", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if a task of the registry is in execution in cruise control, recorded tasks that have
+	 * completed are left to the next check of the active tasks
+	 */
+	private boolean hasTaskInExecution(InFlightTaskRegistry registry)
+			throws IOException, InterruptedException, KeeperException {
+		List<String> taskIds = registry.getTaskIds();
+		if (taskIds.isEmpty()) {
+			return false;
+		}
+		Map<String, String> statuses = httpClient.get(ccUrl() + "/kafkacruisecontrol/user_tasks?user_task_ids="
+				+ String.join(",", taskIds) + "&json=true", "all", CruiseControlResponseParser::parseUserTaskStatuses);
+		for (String status : statuses.values()) {
+			if (status != null && status.contains("InExecution")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks again that this instance is the leader, the leadership may have been lost since the beginning of
+	 * the workflow (e.g. session expired meanwhile)
+	 * @throws IOException if the leadership couldn't be checked
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if this instance isn't the leader anymore
+	 */
+	public void ensureLeadership() throws IOException, InterruptedException {
+		LeaderElection election = leaderElection;
+		if (election == null) {
+			return;
+		}
+		boolean leader;
+		try {
+			leader = election.isLeader();
+		} catch (KeeperException e) {
+			throw new IOException("leadership of " + election.getElectionPath() + " couldn't be checked", e);
+		}
+		if (!leader) {
+			throw new IllegalStateException(
+					"leadership of " + election.getElectionPath() + " has been lost, no operation is launched");
+		}
+	}
+
+	/**
+	 * Gets the status of a cruise control user task
+	 * @param taskId user task id
+	 * @return task status or null if the task is unknown
+	 * @throws IOException
+	 */
+	public String getUserTaskStatus(String taskId) throws IOException {
+		return httpClient.get(ccUrl() + "/kafkacruisecontrol/user_tasks?user_task_ids=" + taskId + "&json=true",
+				"all", CruiseControlResponseParser::parseUserTaskStatus);
+	}
+
+	/**
+	 * Logs the initial status of a launched task, records it in the task registry and tracks it until its
+	 * completion if a listener is set
+	 */
+	private void onTaskLaunched(String taskId, String description) throws IOException, InterruptedException {
+		logger.info("[EXECUTION] task " + taskId + " is " + getUserTaskStatus(taskId));
+		InFlightTaskRegistry registry = taskRegistry;
+		if (registry != null && taskId != null) {
+			try {
+				registry.add(taskId, description);
+			} catch (KeeperException e) {
+				// caught by the next reconciliation
+				logger.warn("[EXECUTION] task " + taskId + " couldn't be recorded in " + registry.getPath(), e);
+			}
+		}
+		TaskCompletionTracker.Listener listener = taskCompletionListener;
+		if (listener != null && taskId != null) {
+			taskTracker.track(taskId, listener);
+		}
+	}
+
+	/**
+	 * Records the data moved by a launched rebalance in the ledger, if there is one. A failure only makes the
+	 * budget more permissive, it is logged
+	 */
+	private void recordDataMovement(String taskId, double dataToMoveMB) throws IOException, InterruptedException {
+		DataMovementLedger ledger = movementLedger;
+		if (ledger != null && taskId != null) {
+			try {
+				ledger.record(taskId, dataToMoveMB);
+			} catch (KeeperException e) {
+				logger.warn("[EXECUTION] data moved by task " + taskId + " couldn't be recorded in " + ledger.getPath(),
+						e);
+			}
+		}
+	}
+
+	/**
+	 * @return tracker of the launched tasks
+	 */
+	public TaskCompletionTracker getTaskTracker() {
+		return taskTracker;
+	}
+
+	/**
+	 * Stops tracking launched tasks
+	 */
+	public void close() {
+		taskTracker.close();
+	}
+
+	/**
+	 * @return cruise control base URL of the current configuration
+	 */
+	private String ccUrl() {
+		return configProvider.get().getCcUrl();
+	}
+
+	/**
+	 * Loads properties from the classpath
+	 * @param path resource path
+	 * @return properties
+	 * @throws IOException
+	 * @deprecated the configuration is loaded once, use {@link RebalancerConfigProvider}
+	 */
+	@Deprecated
 	public static Properties getPropsFromFile(String path) throws IOException {
 		Properties props = new Properties();
 		InputStream is = Rebalancer.class.getClassLoader().getResourceAsStream(path);
@@ -33,31 +350,46 @@ public class Rebalancer {
 	}
 	
 	/**
-	 * Check if there are any uncompleted rebalancing tasks in cruise control
+	 * Check if there are any uncompleted rebalancing tasks in cruise control. With a task registry, only the
+	 * recorded tasks are checked, the whole task list is scanned periodically to reconcile the registry with
+	 * the tasks started by other clients
 	 * @return true if a rebalancing task isn't completed
 	 * @throws IOException
 	 * @throws ParseException
+	 * @throws InterruptedException
+	 * @throws KeeperException if the task registry couldn't be read or updated
 	 */
-	public boolean checkActiveRebalancingTasks() throws IOException, ParseException {
-		String taskList = HttpRestAPIRequest
-				.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-						+ "/kafkacruisecontrol/user_tasks?&json=true", "all");
-
-		JSONObject taskListJSON = (JSONObject) new JSONParser().parse(taskList);
-		JSONArray taskListJSONArray = (JSONArray) taskListJSON.get("userTasks");
-		for (Object task : taskListJSONArray) {
-			JSONObject taskJSON = (JSONObject) task;
-			if ((taskJSON.get("RequestURL").toString().contains("REBALANCE")
-					|| taskJSON.get("RequestURL").toString().contains("rebalance")
-					|| taskJSON.get("RequestURL").toString().contains("ADD_BROKER")
-					|| taskJSON.get("RequestURL").toString().contains("add_broker")
-					|| taskJSON.get("RequestURL").toString().contains("remove_broker")
-					|| taskJSON.get("RequestURL").toString().contains("REMOVE_BROKER"))
-					&& !taskJSON.get("Status").toString().contains("Completed")) {
-				return true;
+	public boolean checkActiveRebalancingTasks()
+			throws IOException, ParseException, InterruptedException, KeeperException {
+		InFlightTaskRegistry registry = taskRegistry;
+		if (registry == null) {
+			// task list is streamed, only RequestURL and Status of each task are read
+			return httpClient.get(ccUrl() + "/kafkacruisecontrol/user_tasks?&json=true", "all",
+					CruiseControlResponseParser::hasActiveScalingTask);
+		}
+		if (registry.isReconciliationDue(configProvider.get().getTaskReconciliationIntervalMs())) {
+			List<String> activeTaskIds = httpClient.get(ccUrl() + "/kafkacruisecontrol/user_tasks?&json=true", "all",
+					CruiseControlResponseParser::parseActiveScalingTaskIds);
+			registry.reconcile(activeTaskIds);
+			return !activeTaskIds.isEmpty();
+		}
+		List<String> taskIds = registry.getTaskIds();
+		if (taskIds.isEmpty()) {
+			return false;
+		}
+		Map<String, String> statuses = httpClient.get(ccUrl() + "/kafkacruisecontrol/user_tasks?user_task_ids="
+				+ String.join(",", taskIds) + "&json=true", "all", CruiseControlResponseParser::parseUserTaskStatuses);
+		boolean active = false;
+		for (String taskId : taskIds) {
+			String status = statuses.get(taskId);
+			// tasks unknown to cruise control have been dropped from its history after they ended
+			if (status == null || status.contains("Completed")) {
+				registry.remove(taskId);
+			} else {
+				active = true;
 			}
 		}
-		return false;
+		return active;
 	}
 	/**
 	 * Calculates metric to use for unbalancedness evaluation, which is the variation in unbalancedness score of a proposal at execution time
@@ -66,18 +398,79 @@ public class Rebalancer {
 	 * @throws IOException
 	 */
 	public Double calculateScoreVariation() throws ParseException, IOException {
-		String proposalRebalancing = new String();
-		proposalRebalancing = HttpRestAPIRequest
-				.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-						+ "/kafkacruisecontrol/proposals?json=true", "all");
+		return getProposalSummary().getScoreVariation();
+	}
+
+	/**
+	 * Gets the summary of the valid proposal of cruise control at execution time, from the proposal snapshot
+	 * shared by all consumers while it is fresh (see 'cc.proposals.snapshot.ttl.ms')
+	 * @return summary of the proposal
+	 * @throws IOException
+	 */
+	public ProposalSummary getProposalSummary() throws IOException {
+		return getProposalSnapshot().getSummary();
+	}
 
-		JSONObject proposalRebalancingJSON = (JSONObject) new JSONParser().parse(proposalRebalancing);
-		proposalRebalancingJSON = (JSONObject) proposalRebalancingJSON.get("summary");
+	/**
+	 * Gets the current proposal snapshot, cruise control is asked for a new proposal only if the snapshot has
+	 * expired or has been invalidated by a launched operation
+	 * @return proposal snapshot
+	 * @throws IOException
+	 */
+	public ProposalSnapshot getProposalSnapshot() throws IOException {
+		return proposalSnapshots.get();
+	}
 
-		Double unbalanceDifferenceValue = (Double) proposalRebalancingJSON.get("onDemandBalancednessScoreAfter")
-				- (Double) proposalRebalancingJSON.get("onDemandBalancednessScoreBefore");
+	/**
+	 * Fetches a new proposal. The proposals response is streamed and only its summary block is read, the
+	 * proposed partition movements are skipped
+	 */
+	private ProposalSummary fetchProposalSummary() throws IOException {
+		return httpClient.get(ccUrl() + "/kafkacruisecontrol/proposals?json=true", "all",
+				CruiseControlResponseParser::parseProposalSummary);
+	}
 
-		return unbalanceDifferenceValue;
+	/**
+	 * Gets the summary of a proposal screened by the quick score ('quick.score.*' properties): a proposal
+	 * restricted to a few goals is computed first, the proposal with all the default goals is computed only if
+	 * the quick score variation isn't in the safe band. Returns the full proposal if the quick score is disabled.
+	 * <br/>
+	 * The quick score is only a go/no-go screen: its scores aren't comparable with the full goals ones, so it is
+	 * never returned to be recorded
+	 * @param unbalanceThreshold threshold of the score variation
+	 * @return summary of the full proposal, null if the quick score variation is safe
+	 * @throws IOException
+	 */
+	public ProposalSummary getScreenedProposalSummary(Double unbalanceThreshold) throws IOException {
+		if (!configProvider.get().isQuickScoreEnabled()) {
+			return getProposalSummary();
+		}
+		ProposalSnapshot quick = quickProposalSnapshots.get();
+		double quickVariation = quick.getSummary().getScoreVariation();
+		if ("safe".equals(evaluateBalencenessUsingScoreVariation(quickVariation, unbalanceThreshold))) {
+			logger.info("quick score variation " + quickVariation + " (computed in " + quick.getFetchDurationMs()
+					+ "ms) is safe, the full goals proposal isn't needed");
+			return null;
+		}
+		ProposalSnapshot full = getProposalSnapshot();
+		logger.info("quick score variation " + quickVariation + " (computed in " + quick.getFetchDurationMs()
+				+ "ms) isn't safe, escalated to the full goals proposal: " + full.getSummary().getScoreVariation()
+				+ " (computed in " + full.getFetchDurationMs() + "ms)");
+		return full.getSummary();
+	}
+
+	/**
+	 * Fetches a new proposal computed with the quick score goals only, in fast mode and without the verbose
+	 * details. Cruise control rejects explicit goals together with its ready default goals, the ready default
+	 * goals are used only when no goal is configured
+	 */
+	private ProposalSummary fetchQuickProposalSummary() throws IOException {
+		RebalancerConfig config = configProvider.get();
+		String goals = config.getQuickScoreGoals();
+		String goalParameters = goals.isEmpty() ? "&use_ready_default_goals=true" : "&goals=" + goals;
+		return httpClient.get(ccUrl() + "/kafkacruisecontrol/proposals?json=true&verbose=false" + goalParameters
+				+ "&fast_mode=" + config.isQuickScoreFastMode(), "all",
+				CruiseControlResponseParser::parseProposalSummary);
 	}
 	
 	/**
@@ -103,135 +496,167 @@ public class Rebalancer {
 	}
 	/**
 	 * Launches rebalancing action by triggering the execution of the valid proposal of cruise control at execution time 
-	 * (with 2 steps verification enabled)
+	 * (with 2 steps verification enabled). The task is tracked until its completion if a completion listener is set
+	 * @return cruise control user task id
 	 * @throws IOException
 	 * @throws ParseException
 	 * @throws InterruptedException
 	 */
-	public void launchRebalancingOperation() throws IOException, ParseException, InterruptedException {
+	public String launchRebalancingOperation() throws IOException, ParseException, InterruptedException {
 		logger.info(
 				"[EXECUTION] Rebalancing operation has been triggered (with default parameters), sending rebalancing request...");
-		String RebalancingTaskData;
-		RebalancingTaskData = HttpRestAPIRequest
-				.HttpPOSTRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-						+ "/kafkacruisecontrol/rebalance?dryrun=false&json=true");
-
-		JSONObject RebalancingTaskDataJSON = (JSONObject) new JSONParser().parse(RebalancingTaskData);
-		JSONArray RequestInfoJSONArray = (JSONArray) RebalancingTaskDataJSON.get("RequestInfo");
-		JSONObject RequestInfoJSON = (JSONObject) RequestInfoJSONArray.get(0);
-		logger.info("[EXECUTION] Rebalancing operation has been scheduled with id=" + RequestInfoJSON.get("Id"));
-
-		HttpRestAPIRequest.HttpPOSTRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-				+ "/kafkacruisecontrol/review?approve=" + RequestInfoJSON.get("Id"));
-
-		logger.info("[EXECUTION] Rebalancing operation has been approved with id=" + RequestInfoJSON.get("Id"));
-
-		Map<String, String> RebalancingTaskInfo = HttpRestAPIRequest
-				.HttpPOSTRequestWithHeaders(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-						+ "/kafkacruisecontrol/rebalance?review_id=" + RequestInfoJSON.get("Id"));
-		HttpRestAPIRequest.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-				+ "/kafkacruisecontrol/user_tasks?user_task_ids=" + RebalancingTaskInfo.get("TaskID") + "&json=true",
-				"all");
-		logger.info("[EXECUTION] Rebalancing has started under task-id : " + RebalancingTaskInfo.get("TaskID"));
+		ensureLeadership();
+		// data the launched proposal moves, read before the snapshot is dropped
+		double dataToMoveMB = movementLedger != null ? getProposalSummary().getDataToMoveMB() : 0;
+		// the cluster is about to change, the next proposal has to be computed again
+		proposalSnapshots.invalidate();
+		quickProposalSnapshots.invalidate();
+		String requestId = httpClient.post(ccUrl() + "/kafkacruisecontrol/rebalance?dryrun=false&json=true" + throttleParameters(),
+				CruiseControlResponseParser::parseRequestInfoId);
+		logger.info("[EXECUTION] Rebalancing operation has been scheduled with id=" + requestId);
+
+		httpClient.post(ccUrl() + "/kafkacruisecontrol/review?approve=" + requestId);
+
+		logger.info("[EXECUTION] Rebalancing operation has been approved with id=" + requestId);
+
+		HttpRestAPIResponse RebalancingTaskInfo = httpClient
+				.post(ccUrl() + "/kafkacruisecontrol/rebalance?review_id=" + requestId);
+		String taskId = RebalancingTaskInfo.getHeader("User-Task-ID");
+		logger.info("[EXECUTION] Rebalancing has started under task-id : " + taskId);
+		onTaskLaunched(taskId, "rebalance");
+		recordDataMovement(taskId, dataToMoveMB);
+		return taskId;
 
 	}
 	/**
-	 * Launches rebalancing action for scaling out operations (with 2 steps verification enabled)
+	 * Launches rebalancing action for scaling out operations (with 2 steps verification enabled). The task is tracked
+	 * until its completion if a completion listener is set
 	 * @param brokerID broker id used for scaling
+	 * @return cruise control user task id or null if the broker isn't detected by cruise control
 	 * @throws IOException
 	 * @throws ParseException
 	 * @throws InterruptedException
 	 */
-	public void launchAddingBrokerOperation(Integer brokerID) throws IOException, ParseException, InterruptedException {
-
-		String kafkaClusterState = HttpRestAPIRequest
-				.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-						+ "/kafkacruisecontrol/kafka_cluster_state?json=true", "all");
-
-		JSONObject kafkaClusterStateJSON = (JSONObject) new JSONParser().parse(kafkaClusterState);
-		JSONObject kafkaBrokersStateJSON = (JSONObject) kafkaClusterStateJSON.get("KafkaBrokerState");
-		JSONObject brokerListJSON = (JSONObject) kafkaBrokersStateJSON.get("IsController");
-
-		Set<String> brokerIDSet = brokerListJSON.keySet();
-		if (!brokerIDSet.contains(brokerID.toString())) {
-			logger.info(
-					"[EXECUTION] broker to be added with id " + brokerID + " couldn't be detected by cruise control");
-		} else {
-
-			String ScalingOutTaskData = HttpRestAPIRequest
-					.HttpPOSTRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-							+ "/kafkacruisecontrol/add_broker?dryrun=false&json=true&brokerid=" + brokerID);
-
-			JSONObject ScalingOutTaskDataJSON = (JSONObject) new JSONParser().parse(ScalingOutTaskData);
-			JSONArray RequestInfoJSONArray = (JSONArray) ScalingOutTaskDataJSON.get("RequestInfo");
-			JSONObject RequestInfoJSON = (JSONObject) RequestInfoJSONArray.get(0);
-			logger.info("[EXECUTION] adding broker operation operation has been scheduled with id="
-					+ RequestInfoJSON.get("Id"));
-
-			HttpRestAPIRequest.HttpPOSTRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-					+ "/kafkacruisecontrol/review?approve=" + RequestInfoJSON.get("Id"));
-
-			logger.info("[EXECUTION] adding broker operation has been approved with id=" + RequestInfoJSON.get("Id"));
-			Map<String, String> RebalancingTaskInfo = HttpRestAPIRequest
-					.HttpPOSTRequestWithHeaders(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-							+ "/kafkacruisecontrol/add_broker?review_id=" + RequestInfoJSON.get("Id"));
-
-			HttpRestAPIRequest.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-					+ "/kafkacruisecontrol/user_tasks?user_task_ids=" + RebalancingTaskInfo.get("TaskID")
-					+ "&json=true", "all");
-			logger.info("[EXECUTION] adding broker has started under task-id : " + RebalancingTaskInfo.get("TaskID"));
-		}
-
+	public String launchAddingBrokerOperation(Integer brokerID)
+			throws IOException, ParseException, InterruptedException {
+		return launchAddingBrokerOperation(Collections.singletonList(brokerID));
 	}
 	/**
-	 * Launches rebalancing action for scaling in operations (with 2 steps verification enabled)
+	 * Launches one rebalancing action for scaling out several brokers (with 2 steps verification enabled), so
+	 * that partitions are moved once for all brokers. Brokers not detected by cruise control are left out. The
+	 * task is tracked until its completion if a completion listener is set
+	 * @param brokerIDs broker ids used for scaling
+	 * @return cruise control user task id or null if none of the brokers is detected by cruise control
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws InterruptedException
+	 */
+	public String launchAddingBrokerOperation(List<Integer> brokerIDs)
+			throws IOException, ParseException, InterruptedException {
+		return launchBrokerOperation(ScalingOperation.ADD, detectBrokers(brokerIDs, "added"));
+	}
+	/**
+	 * Launches rebalancing action for scaling in operations (with 2 steps verification enabled). The task is tracked
+	 * until its completion if a completion listener is set
 	 * @param brokerID broker id used for scaling
+	 * @return cruise control user task id or null if the broker isn't detected by cruise control
 	 * @throws IOException
 	 * @throws ParseException
 	 * @throws InterruptedException
 	 */
-	public void launchRemovingBrokerOperation(Integer brokerID)
+	public String launchRemovingBrokerOperation(Integer brokerID)
 			throws IOException, ParseException, InterruptedException {
+		return launchRemovingBrokerOperation(Collections.singletonList(brokerID));
+	}
+	/**
+	 * Launches one rebalancing action for scaling in several brokers (with 2 steps verification enabled), so
+	 * that partitions are moved once for all brokers. Brokers not detected by cruise control are left out. The
+	 * task is tracked until its completion if a completion listener is set
+	 * @param brokerIDs broker ids used for scaling
+	 * @return cruise control user task id or null if none of the brokers is detected by cruise control
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws InterruptedException
+	 */
+	public String launchRemovingBrokerOperation(List<Integer> brokerIDs)
+			throws IOException, ParseException, InterruptedException {
+		return launchBrokerOperation(ScalingOperation.REMOVE, detectBrokers(brokerIDs, "removed"));
+	}
 
-		String kafkaClusterState = HttpRestAPIRequest
-				.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-						+ "/kafkacruisecontrol/kafka_cluster_state?json=true", "all");
-
-		JSONObject kafkaClusterStateJSON = (JSONObject) new JSONParser().parse(kafkaClusterState);
-		JSONObject kafkaBrokersStateJSON = (JSONObject) kafkaClusterStateJSON.get("KafkaBrokerState");
-		JSONObject brokerListJSON = (JSONObject) kafkaBrokersStateJSON.get("IsController");
-
-		Set<String> brokerIDSet = brokerListJSON.keySet();
-		if (!brokerIDSet.contains(brokerID.toString())) {
-			logger.info(
-					"[EXECUTION] broker to be added with id " + brokerID + " couldn't be detected by cruise control");
-		} else {
-
-			String ScalingOutTaskData = HttpRestAPIRequest
-					.HttpPOSTRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-							+ "/kafkacruisecontrol/remove_broker?dryrun=false&json=true&brokerid=" + brokerID);
-
-			JSONObject ScalingOutTaskDataJSON = (JSONObject) new JSONParser().parse(ScalingOutTaskData);
-			JSONArray RequestInfoJSONArray = (JSONArray) ScalingOutTaskDataJSON.get("RequestInfo");
-			JSONObject RequestInfoJSON = (JSONObject) RequestInfoJSONArray.get(0);
-			logger.info("[EXECUTION] removing broker operation operation has been scheduled with id="
-					+ RequestInfoJSON.get("Id"));
-
-			HttpRestAPIRequest.HttpPOSTRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-					+ "/kafkacruisecontrol/review?approve=" + RequestInfoJSON.get("Id"));
-
-			logger.info("[EXECUTION] removing broker operation has been approved with id=" + RequestInfoJSON.get("Id"));
-
-			Map<String, String> RebalancingTaskInfo = HttpRestAPIRequest
-					.HttpPOSTRequestWithHeaders(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-							+ "/kafkacruisecontrol/remove_broker?review_id=" + RequestInfoJSON.get("Id"));
-
-			HttpRestAPIRequest.HttpGETRequest(getPropsFromFile("cruise-control.properties").getProperty("cc.url")
-					+ "/kafkacruisecontrol/user_tasks?user_task_ids=" + RebalancingTaskInfo.get("TaskID")
-					+ "&json=true", "all");
-			logger.info("[EXECUTION] removing broker has started under task-id : " + RebalancingTaskInfo.get("TaskID"));
+	/**
+	 * Launches the operations of a batch taken from the scaling operations queue in one add_broker or
+	 * remove_broker request, see {@link #launchAddingBrokerOperation(List)}. Only the operations of the
+	 * brokers included in a successful request are returned, the caller dequeues them and leaves the others
+	 * queued
+	 * @param batch batch taken from the head of the queue
+	 * @return operations of the batch that have been launched, null if none of the brokers is detected by
+	 * cruise control
+	 * @throws IOException if the request failed, no operation has then been launched
+	 * @throws ParseException
+	 * @throws InterruptedException
+	 */
+	public ScalingBatch launchScalingBatch(ScalingBatch batch)
+			throws IOException, ParseException, InterruptedException {
+		boolean adding = ScalingOperation.ADD.equals(batch.getOperation());
+		List<Integer> detectedBrokerIDs = detectBrokers(batch.getBrokerIds(), adding ? "added" : "removed");
+		if (launchBrokerOperation(batch.getOperation(), detectedBrokerIDs) == null) {
+			return null;
+		}
+		return batch.retainBrokers(detectedBrokerIDs);
+	}
 
+	/**
+	 * @param brokerIDs broker ids to scale
+	 * @param verb 'added' or 'removed', for logging
+	 * @return broker ids detected by cruise control, in the given order
+	 */
+	private List<Integer> detectBrokers(List<Integer> brokerIDs, String verb) throws IOException {
+		Set<String> brokerIDSet = httpClient.get(ccUrl() + "/kafkacruisecontrol/kafka_cluster_state?json=true",
+				"all", CruiseControlResponseParser::parseBrokerIds);
+		List<Integer> detectedBrokerIDs = new ArrayList<Integer>();
+		for (Integer brokerID : brokerIDs) {
+			if (!brokerIDSet.contains(brokerID.toString())) {
+				logger.info(
+						"[EXECUTION] broker to be " + verb + " with id " + brokerID + " couldn't be detected by cruise control");
+			} else {
+				detectedBrokerIDs.add(brokerID);
+			}
 		}
+		return detectedBrokerIDs;
+	}
 
+	/**
+	 * Sends an add_broker or remove_broker request for detected brokers, approves and executes it
+	 * @param operation 'add' or 'remove'
+	 * @param detectedBrokerIDs brokers detected by cruise control
+	 * @return cruise control user task id or null if there is no broker
+	 */
+	private String launchBrokerOperation(String operation, List<Integer> detectedBrokerIDs)
+			throws IOException, InterruptedException {
+		if (detectedBrokerIDs.isEmpty()) {
+			return null;
+		}
+		String endpoint = ScalingOperation.ADD.equals(operation) ? "add_broker" : "remove_broker";
+		String action = ScalingOperation.ADD.equals(operation) ? "adding" : "removing";
+		ensureLeadership();
+		proposalSnapshots.invalidate();
+		quickProposalSnapshots.invalidate();
+		String requestId = httpClient.post(
+				ccUrl() + "/kafkacruisecontrol/" + endpoint + "?dryrun=false&json=true&brokerid="
+						+ ScalingBatch.toBrokerIdParameter(detectedBrokerIDs) + throttleParameters(),
+				CruiseControlResponseParser::parseRequestInfoId);
+		logger.info("[EXECUTION] " + action + " broker operation operation has been scheduled with id=" + requestId);
+
+		httpClient.post(ccUrl() + "/kafkacruisecontrol/review?approve=" + requestId);
+
+		logger.info("[EXECUTION] " + action + " broker operation has been approved with id=" + requestId);
+
+		HttpRestAPIResponse RebalancingTaskInfo = httpClient
+				.post(ccUrl() + "/kafkacruisecontrol/" + endpoint + "?review_id=" + requestId);
+
+		String taskId = RebalancingTaskInfo.getHeader("User-Task-ID");
+		logger.info("[EXECUTION] " + action + " brokers " + detectedBrokerIDs + " has started under task-id : " + taskId);
+		onTaskLaunched(taskId, endpoint + "=" + ScalingBatch.toBrokerIdParameter(detectedBrokerIDs));
+		return taskId;
 	}
 }
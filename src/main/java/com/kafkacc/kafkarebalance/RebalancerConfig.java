@@ -0,0 +1,579 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Immutable snapshot of the rebalancer configuration, loaded once from
+ * cruise-control.properties (from the classpath or from an external file) and
+ * shared by all components instead of re-reading the properties file on every
+ * call.
+ *
+ * @author SKI44
+ *
+ */
+public class RebalancerConfig {
+	public static final String DEFAULT_RESOURCE = "cruise-control.properties";
+	public static final int DEFAULT_SCALING_BATCH_MAX_SIZE = 10;
+
+	private final Properties props;
+	private final String ccUrl;
+	private final String zkConnect;
+	private final String csvLogPath;
+	private final int httpConnectTimeoutMs;
+	private final int httpReadTimeoutMs;
+	private final int httpMaxConnections;
+	private final int zkSessionTimeoutMs;
+	private final long proposalSnapshotTtlMs;
+	private final long taskPollInitialDelayMs;
+	private final long taskPollMaxDelayMs;
+	private final long taskTrackingTimeoutMs;
+	private final long taskReconciliationIntervalMs;
+	private final int scalingBatchMaxSize;
+	private final String scoreHistoryPath;
+	private final long scoreHistorySegmentMaxBytes;
+	private final boolean trendDetectionEnabled;
+	private final int trendWindowSize;
+	private final double trendEwmaAlpha;
+	private final int trendSustainedSamples;
+	private final long trendPredictionHorizonMs;
+	private final long trendMaxSampleGapMs;
+	private final boolean leaderElectionEnabled;
+	private final int csvWriterQueueCapacity;
+	private final int csvWriterBatchSize;
+	private final long csvWriterFlushIntervalMs;
+	private final boolean throttleAdaptiveEnabled;
+	private final ThrottleController throttleController;
+	private final boolean precheckEnabled;
+	private final String precheckBootstrapServers;
+	private final double precheckReplicaSkewMax;
+	private final double precheckLeaderSkewMax;
+	private final long precheckMaxSkipMs;
+	private final int precheckTimeoutMs;
+	private final boolean quickScoreEnabled;
+	private final String quickScoreGoals;
+	private final boolean quickScoreFastMode;
+	private final MovementCostPolicy movementCostPolicy;
+
+	/**
+	 * Creates a snapshot from properties, 'cc.url' and 'zk.connect' are required
+	 *
+	 * @param props properties to read (copied)
+	 * @throws IllegalArgumentException if a required property is missing or a
+	 *                                  value is invalid
+	 */
+	public RebalancerConfig(Properties props) {
+		this.props = new Properties();
+		this.props.putAll(props);
+		this.ccUrl = required("cc.url");
+		this.zkConnect = required("zk.connect");
+		this.csvLogPath = getString("path.log.rebalancing.csv", "/var/log");
+		this.httpConnectTimeoutMs = getInt("cc.http.connect.timeout.ms", HttpRestAPIClient.DEFAULT_CONNECT_TIMEOUT_MS);
+		this.httpReadTimeoutMs = getInt("cc.http.read.timeout.ms", HttpRestAPIClient.DEFAULT_READ_TIMEOUT_MS);
+		this.httpMaxConnections = getInt("cc.http.max.connections", HttpRestAPIClient.DEFAULT_MAX_CONNECTIONS);
+		this.zkSessionTimeoutMs = getInt("zk.session.timeout.ms", ZKConnector.DEFAULT_SESSION_TIMEOUT_MS);
+		this.proposalSnapshotTtlMs = getLong("cc.proposals.snapshot.ttl.ms", ProposalSnapshotCache.DEFAULT_TTL_MS);
+		this.taskPollInitialDelayMs = getLong("cc.task.poll.initial.delay.ms",
+				TaskCompletionTracker.DEFAULT_INITIAL_POLL_DELAY_MS);
+		this.taskPollMaxDelayMs = getLong("cc.task.poll.max.delay.ms", TaskCompletionTracker.DEFAULT_MAX_POLL_DELAY_MS);
+		this.taskTrackingTimeoutMs = getLong("cc.task.tracking.timeout.ms",
+				TaskCompletionTracker.DEFAULT_TRACKING_TIMEOUT_MS);
+		this.taskReconciliationIntervalMs = getLong("cc.tasks.reconciliation.interval.ms",
+				InFlightTaskRegistry.DEFAULT_RECONCILIATION_INTERVAL_MS);
+		this.scalingBatchMaxSize = getInt("scaling.batch.max.size", DEFAULT_SCALING_BATCH_MAX_SIZE);
+		if (scalingBatchMaxSize < 1) {
+			throw new IllegalArgumentException("property 'scaling.batch.max.size' must be at least 1, got "
+					+ scalingBatchMaxSize);
+		}
+		this.scoreHistoryPath = getString("path.score.history", csvLogPath + "/score-history");
+		this.scoreHistorySegmentMaxBytes = getLong("score.history.segment.max.bytes",
+				ScoreHistoryStore.DEFAULT_SEGMENT_MAX_BYTES);
+		this.trendDetectionEnabled = getBoolean("trend.detection.enabled", true);
+		this.trendWindowSize = getInt("trend.window.size", TrendDetector.DEFAULT_WINDOW_SIZE);
+		this.trendEwmaAlpha = getDouble("trend.ewma.alpha", TrendDetector.DEFAULT_EWMA_ALPHA);
+		this.trendSustainedSamples = getInt("trend.sustained.samples", TrendDetector.DEFAULT_SUSTAINED_SAMPLES);
+		this.trendPredictionHorizonMs = getLong("trend.prediction.horizon.ms",
+				TrendDetector.DEFAULT_PREDICTION_HORIZON_MS);
+		this.trendMaxSampleGapMs = getLong("trend.max.sample.gap.ms", TrendDetector.DEFAULT_MAX_SAMPLE_GAP_MS);
+		this.leaderElectionEnabled = getBoolean("leader.election.enabled", false);
+		this.csvWriterQueueCapacity = (int) positive("csv.writer.queue.capacity",
+				getInt("csv.writer.queue.capacity", AsyncCSVWriter.DEFAULT_QUEUE_CAPACITY));
+		this.csvWriterBatchSize = (int) positive("csv.writer.batch.size",
+				getInt("csv.writer.batch.size", AsyncCSVWriter.DEFAULT_BATCH_SIZE));
+		this.csvWriterFlushIntervalMs = positive("csv.writer.flush.interval.ms",
+				getLong("csv.writer.flush.interval.ms", AsyncCSVWriter.DEFAULT_FLUSH_INTERVAL_MS));
+		this.throttleAdaptiveEnabled = getBoolean("throttle.adaptive.enabled", false);
+		this.throttleController = new ThrottleController(
+				getDouble("throttle.target.utilization", ThrottleController.DEFAULT_TARGET_UTILIZATION),
+				getInt("throttle.partition.movements.min", ThrottleController.DEFAULT_MIN_PARTITION_MOVEMENTS),
+				getInt("throttle.partition.movements.max", ThrottleController.DEFAULT_MAX_PARTITION_MOVEMENTS),
+				getInt("throttle.leader.movements.min", ThrottleController.DEFAULT_MIN_LEADER_MOVEMENTS),
+				getInt("throttle.leader.movements.max", ThrottleController.DEFAULT_MAX_LEADER_MOVEMENTS),
+				getLong("throttle.replication.min.bytes", ThrottleController.DEFAULT_MIN_REPLICATION_THROTTLE),
+				getLong("throttle.replication.max.bytes", 0));
+		this.precheckEnabled = getBoolean("precheck.enabled", false);
+		this.precheckBootstrapServers = getString("precheck.bootstrap.servers", "");
+		if (precheckEnabled && precheckBootstrapServers.isEmpty()) {
+			throw new IllegalArgumentException(
+					"property 'precheck.bootstrap.servers' must be set when 'precheck.enabled' is true");
+		}
+		this.precheckReplicaSkewMax = notNegative("precheck.replica.skew.max",
+				getDouble("precheck.replica.skew.max", ImbalancePreCheck.DEFAULT_REPLICA_SKEW_MAX));
+		this.precheckLeaderSkewMax = notNegative("precheck.leader.skew.max",
+				getDouble("precheck.leader.skew.max", ImbalancePreCheck.DEFAULT_LEADER_SKEW_MAX));
+		this.precheckMaxSkipMs = positive("precheck.max.skip.ms",
+				getLong("precheck.max.skip.ms", ImbalancePreCheck.DEFAULT_MAX_SKIP_MS));
+		this.precheckTimeoutMs = (int) positive("precheck.timeout.ms",
+				getInt("precheck.timeout.ms", ImbalancePreCheck.DEFAULT_TIMEOUT_MS));
+		this.quickScoreEnabled = getBoolean("quick.score.enabled", false);
+		this.quickScoreGoals = getString("quick.score.goals", "").replace(" ", "");
+		if (!quickScoreGoals.isEmpty() && !quickScoreGoals.matches("[\\w.]+(,[\\w.]+)*")) {
+			throw new IllegalArgumentException(
+					"property 'quick.score.goals' must be commas separated goal names, got '" + quickScoreGoals + "'");
+		}
+		this.quickScoreFastMode = getBoolean("quick.score.fast.mode", true);
+		this.movementCostPolicy = new MovementCostPolicy(
+				getDouble("movement.min.score.gain.per.gb", MovementCostPolicy.DEFAULT_MIN_SCORE_GAIN_PER_GB),
+				getLong("movement.budget.max.mb", MovementCostPolicy.DEFAULT_BUDGET_MAX_MB),
+				getLong("movement.budget.window.ms", MovementCostPolicy.DEFAULT_BUDGET_WINDOW_MS));
+	}
+
+	/**
+	 * Loads the configuration from a classpath resource
+	 *
+	 * @param resource resource path
+	 * @return the configuration
+	 * @throws IOException if the resource can't be read
+	 */
+	public static RebalancerConfig fromClasspath(String resource) throws IOException {
+		Properties props = new Properties();
+		InputStream is = RebalancerConfig.class.getClassLoader().getResourceAsStream(resource);
+		if (is == null) {
+			throw new FileNotFoundException("propertie file path " + resource + " couldn't succesfully be read");
+		}
+		try {
+			props.load(is);
+		} finally {
+			is.close();
+		}
+		return new RebalancerConfig(props);
+	}
+
+	/**
+	 * Loads the configuration from the default classpath resource
+	 * (cruise-control.properties)
+	 *
+	 * @return the configuration
+	 * @throws IOException if the resource can't be read
+	 */
+	public static RebalancerConfig fromClasspath() throws IOException {
+		return fromClasspath(DEFAULT_RESOURCE);
+	}
+
+	/**
+	 * Loads the configuration from an external file
+	 *
+	 * @param file properties file path
+	 * @return the configuration
+	 * @throws IOException if the file can't be read
+	 */
+	public static RebalancerConfig fromFile(Path file) throws IOException {
+		Properties props = new Properties();
+		InputStream is = Files.newInputStream(file);
+		try {
+			props.load(is);
+		} finally {
+			is.close();
+		}
+		return new RebalancerConfig(props);
+	}
+
+	private String required(String key) {
+		String value = props.getProperty(key);
+		if (value == null || value.trim().isEmpty()) {
+			throw new IllegalArgumentException("missing required property '" + key + "'");
+		}
+		return value.trim();
+	}
+
+	private static long positive(String key, long value) {
+		if (value <= 0) {
+			throw new IllegalArgumentException("property '" + key + "' must be positive, got " + value);
+		}
+		return value;
+	}
+
+	private static double notNegative(String key, double value) {
+		if (!(value >= 0)) {
+			throw new IllegalArgumentException("property '" + key + "' must be positive or zero, got " + value);
+		}
+		return value;
+	}
+
+	/**
+	 * @param key          property key
+	 * @param defaultValue value if the property is missing
+	 * @return trimmed property value
+	 */
+	public String getString(String key, String defaultValue) {
+		String value = props.getProperty(key);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	/**
+	 * @param key          property key
+	 * @param defaultValue value if the property is missing
+	 * @return property value as int
+	 * @throws IllegalArgumentException if the value isn't an int
+	 */
+	public int getInt(String key, int defaultValue) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("property '" + key + "' must be an integer, got '" + value + "'");
+		}
+	}
+
+	/**
+	 * @param key          property key
+	 * @param defaultValue value if the property is missing
+	 * @return property value as long
+	 * @throws IllegalArgumentException if the value isn't a long
+	 */
+	public long getLong(String key, long defaultValue) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("property '" + key + "' must be an integer, got '" + value + "'");
+		}
+	}
+
+	/**
+	 * @param key          property key
+	 * @param defaultValue value if the property is missing
+	 * @return property value as double
+	 * @throws IllegalArgumentException if the value isn't a number
+	 */
+	public double getDouble(String key, double defaultValue) {
+		String value = props.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("property '" + key + "' must be a number, got '" + value + "'");
+		}
+	}
+
+	/**
+	 * @param key          property key
+	 * @param defaultValue value if the property is missing
+	 * @return property value as boolean
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		String value = props.getProperty(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * @return a copy of the raw properties
+	 */
+	public Properties getProperties() {
+		Properties copy = new Properties();
+		copy.putAll(props);
+		return copy;
+	}
+
+	/**
+	 * @return cruise control base URL ('cc.url')
+	 */
+	public String getCcUrl() {
+		return ccUrl;
+	}
+
+	/**
+	 * @return commas separated of ZK servers IPs ('zk.connect')
+	 */
+	public String getZkConnect() {
+		return zkConnect;
+	}
+
+	/**
+	 * @return directory of the rebalancing impact CSV files
+	 *         ('path.log.rebalancing.csv')
+	 */
+	public String getCsvLogPath() {
+		return csvLogPath;
+	}
+
+	public int getHttpConnectTimeoutMs() {
+		return httpConnectTimeoutMs;
+	}
+
+	public int getHttpReadTimeoutMs() {
+		return httpReadTimeoutMs;
+	}
+
+	public int getHttpMaxConnections() {
+		return httpMaxConnections;
+	}
+
+	public int getZkSessionTimeoutMs() {
+		return zkSessionTimeoutMs;
+	}
+
+	/**
+	 * @return time to live in ms of the proposal snapshot shared by the consumers
+	 *         of a run ('cc.proposals.snapshot.ttl.ms')
+	 */
+	public long getProposalSnapshotTtlMs() {
+		return proposalSnapshotTtlMs;
+	}
+
+	/**
+	 * @return first delay in ms between two status polls of a launched task
+	 *         ('cc.task.poll.initial.delay.ms')
+	 */
+	public long getTaskPollInitialDelayMs() {
+		return taskPollInitialDelayMs;
+	}
+
+	/**
+	 * @return maximum delay in ms between two status polls of a launched task
+	 *         ('cc.task.poll.max.delay.ms')
+	 */
+	public long getTaskPollMaxDelayMs() {
+		return taskPollMaxDelayMs;
+	}
+
+	/**
+	 * @return time in ms after which a launched task stops being tracked
+	 *         ('cc.task.tracking.timeout.ms')
+	 */
+	public long getTaskTrackingTimeoutMs() {
+		return taskTrackingTimeoutMs;
+	}
+
+	/**
+	 * @return interval in ms between two full scans of the cruise control task
+	 *         list, launched tasks are checked by id in between
+	 *         ('cc.tasks.reconciliation.interval.ms')
+	 */
+	public long getTaskReconciliationIntervalMs() {
+		return taskReconciliationIntervalMs;
+	}
+
+	/**
+	 * @return maximum number of queued scaling operations sent to cruise control
+	 *         in one request, 1 disables batching ('scaling.batch.max.size')
+	 */
+	public int getScalingBatchMaxSize() {
+		return scalingBatchMaxSize;
+	}
+
+	/**
+	 * @return directory of the balancedness score history segments
+	 *         ('path.score.history')
+	 */
+	public String getScoreHistoryPath() {
+		return scoreHistoryPath;
+	}
+
+	/**
+	 * @return size in bytes from which a new score history segment is started
+	 *         ('score.history.segment.max.bytes')
+	 */
+	public long getScoreHistorySegmentMaxBytes() {
+		return scoreHistorySegmentMaxBytes;
+	}
+
+	/**
+	 * @return true if the rebalancing decision is taken on the trend of the score
+	 *         variation, false if it is taken on the last sample only
+	 *         ('trend.detection.enabled')
+	 */
+	public boolean isTrendDetectionEnabled() {
+		return trendDetectionEnabled;
+	}
+
+	/**
+	 * @return number of samples the trend slope is computed on
+	 *         ('trend.window.size')
+	 */
+	public int getTrendWindowSize() {
+		return trendWindowSize;
+	}
+
+	/**
+	 * @return weight of a new sample in the EWMA of the score variation
+	 *         ('trend.ewma.alpha')
+	 */
+	public double getTrendEwmaAlpha() {
+		return trendEwmaAlpha;
+	}
+
+	/**
+	 * @return number of consecutive samples in the alert band making a sustained
+	 *         trend ('trend.sustained.samples')
+	 */
+	public int getTrendSustainedSamples() {
+		return trendSustainedSamples;
+	}
+
+	/**
+	 * @return time in ms within which a predicted breach of the threshold
+	 *         triggers an early rebalancing ('trend.prediction.horizon.ms')
+	 */
+	public long getTrendPredictionHorizonMs() {
+		return trendPredictionHorizonMs;
+	}
+
+	/**
+	 * @return time in ms without sample after which the trend is reset
+	 *         ('trend.max.sample.gap.ms')
+	 */
+	public long getTrendMaxSampleGapMs() {
+		return trendMaxSampleGapMs;
+	}
+
+	/**
+	 * @return true if several instances manage the cluster and elect in ZK the one that polls cruise control
+	 *         and launches the operations ('leader.election.enabled')
+	 */
+	public boolean isLeaderElectionEnabled() {
+		return leaderElectionEnabled;
+	}
+
+	/**
+	 * @return maximum number of CSV rows waiting to be written, rows submitted
+	 *         beyond are dropped ('csv.writer.queue.capacity')
+	 */
+	public int getCsvWriterQueueCapacity() {
+		return csvWriterQueueCapacity;
+	}
+
+	/**
+	 * @return maximum number of CSV rows written between two queue reads
+	 *         ('csv.writer.batch.size')
+	 */
+	public int getCsvWriterBatchSize() {
+		return csvWriterBatchSize;
+	}
+
+	/**
+	 * @return maximum time in ms a written CSV row stays in the file buffers
+	 *         ('csv.writer.flush.interval.ms')
+	 */
+	public long getCsvWriterFlushIntervalMs() {
+		return csvWriterFlushIntervalMs;
+	}
+
+	/**
+	 * @return true if the execution throttle is chosen from the broker load
+	 *         ('throttle.adaptive.enabled')
+	 */
+	public boolean isThrottleAdaptiveEnabled() {
+		return throttleAdaptiveEnabled;
+	}
+
+	/**
+	 * @return controller of the execution throttle built from the 'throttle.*'
+	 *         properties
+	 */
+	public ThrottleController getThrottleController() {
+		return throttleController;
+	}
+
+	/**
+	 * @return true if the replica and leader count skews are checked before
+	 *         asking cruise control for a proposal ('precheck.enabled')
+	 */
+	public boolean isPrecheckEnabled() {
+		return precheckEnabled;
+	}
+
+	/**
+	 * @return Kafka bootstrap servers the pre-check reads the metadata from
+	 *         ('precheck.bootstrap.servers')
+	 */
+	public String getPrecheckBootstrapServers() {
+		return precheckBootstrapServers;
+	}
+
+	/**
+	 * @return replica count skew above which the proposal is computed
+	 *         ('precheck.replica.skew.max')
+	 */
+	public double getPrecheckReplicaSkewMax() {
+		return precheckReplicaSkewMax;
+	}
+
+	/**
+	 * @return leader count skew above which the proposal is computed
+	 *         ('precheck.leader.skew.max')
+	 */
+	public double getPrecheckLeaderSkewMax() {
+		return precheckLeaderSkewMax;
+	}
+
+	/**
+	 * @return time in ms after which the proposal is computed whatever the skews
+	 *         ('precheck.max.skip.ms')
+	 */
+	public long getPrecheckMaxSkipMs() {
+		return precheckMaxSkipMs;
+	}
+
+	/**
+	 * @return timeout in ms of the metadata requests of the pre-check
+	 *         ('precheck.timeout.ms')
+	 */
+	public int getPrecheckTimeoutMs() {
+		return precheckTimeoutMs;
+	}
+
+	/**
+	 * @return true if a proposal restricted to the quick score goals is computed
+	 *         before the full goals one ('quick.score.enabled')
+	 */
+	public boolean isQuickScoreEnabled() {
+		return quickScoreEnabled;
+	}
+
+	/**
+	 * @return commas separated goals of the quick score proposal, empty for the
+	 *         ready default goals of cruise control ('quick.score.goals')
+	 */
+	public String getQuickScoreGoals() {
+		return quickScoreGoals;
+	}
+
+	/**
+	 * @return true if the quick score proposal is computed in fast mode
+	 *         ('quick.score.fast.mode')
+	 */
+	public boolean isQuickScoreFastMode() {
+		return quickScoreFastMode;
+	}
+
+	/**
+	 * @return policy weighing the proposals against the data they move, built
+	 *         from the 'movement.*' properties
+	 */
+	public MovementCostPolicy getMovementCostPolicy() {
+		return movementCostPolicy;
+	}
+}
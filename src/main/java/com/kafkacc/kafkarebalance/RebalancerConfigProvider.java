@@ -0,0 +1,205 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the current {@link RebalancerConfig} snapshot. <br/>
+ * The configuration is loaded once, from the classpath or from an external
+ * file. For an external file, hot reload can be enabled: a background thread
+ * watches the file directory and reparses the file only when its modification
+ * time or size has changed. If the new file can't be parsed, the previous
+ * snapshot is kept. Settings read at startup (Http client timeouts and pool
+ * size, ZK session timeout) aren't affected by a reload.
+ *
+ * @author SKI44
+ *
+ */
+public class RebalancerConfigProvider implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(RebalancerConfigProvider.class);
+
+	private static RebalancerConfigProvider defaultProvider;
+
+	private final Path file;
+	private volatile RebalancerConfig config;
+	private FileTime lastModified;
+	private long lastSize;
+	private WatchService watchService;
+	private Thread watchThread;
+
+	private RebalancerConfigProvider(RebalancerConfig config, Path file) throws IOException {
+		this.config = config;
+		this.file = file;
+		if (file != null) {
+			this.lastModified = Files.getLastModifiedTime(file);
+			this.lastSize = Files.size(file);
+		}
+	}
+
+	/**
+	 * Creates a provider of a fixed configuration
+	 *
+	 * @param config configuration to provide
+	 * @return the provider
+	 */
+	public static RebalancerConfigProvider of(RebalancerConfig config) {
+		try {
+			return new RebalancerConfigProvider(config, null);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // no file is read
+		}
+	}
+
+	/**
+	 * Creates a provider of the configuration in the default classpath resource
+	 * (cruise-control.properties)
+	 *
+	 * @return the provider
+	 * @throws IOException if the resource can't be read
+	 */
+	public static RebalancerConfigProvider fromClasspath() throws IOException {
+		return of(RebalancerConfig.fromClasspath());
+	}
+
+	/**
+	 * Creates a provider of the configuration in an external file
+	 *
+	 * @param file      properties file path
+	 * @param hotReload whether to watch the file and reload it when it changes
+	 * @return the provider
+	 * @throws IOException if the file can't be read or watched
+	 */
+	public static RebalancerConfigProvider fromFile(Path file, boolean hotReload) throws IOException {
+		Path absoluteFile = file.toAbsolutePath();
+		RebalancerConfigProvider provider = new RebalancerConfigProvider(RebalancerConfig.fromFile(absoluteFile),
+				absoluteFile);
+		if (hotReload) {
+			provider.startWatching();
+		}
+		return provider;
+	}
+
+	/**
+	 * Gets the provider shared by the process, by default the classpath
+	 * configuration
+	 *
+	 * @return shared provider
+	 * @throws IOException if the default configuration can't be read
+	 */
+	public static synchronized RebalancerConfigProvider getDefault() throws IOException {
+		if (defaultProvider == null) {
+			defaultProvider = fromClasspath();
+		}
+		return defaultProvider;
+	}
+
+	/**
+	 * Replaces the provider shared by the process (e.g. with an external file
+	 * configuration given in the command line)
+	 *
+	 * @param provider new shared provider
+	 */
+	public static synchronized void setDefault(RebalancerConfigProvider provider) {
+		defaultProvider = provider;
+	}
+
+	/**
+	 * @return the current configuration snapshot
+	 */
+	public RebalancerConfig get() {
+		return config;
+	}
+
+	/**
+	 * Reparses the file if its modification time or size has changed since the
+	 * last load
+	 *
+	 * @return true if a new snapshot has been loaded
+	 */
+	public synchronized boolean reloadIfChanged() {
+		if (file == null) {
+			return false;
+		}
+		try {
+			FileTime modified = Files.getLastModifiedTime(file);
+			long size = Files.size(file);
+			if (modified.equals(lastModified) && size == lastSize) {
+				return false;
+			}
+			RebalancerConfig reloaded = RebalancerConfig.fromFile(file);
+			lastModified = modified;
+			lastSize = size;
+			config = reloaded;
+			logger.info("configuration has been reloaded from " + file);
+			return true;
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("configuration file " + file + " couldn't be reloaded, previous configuration is kept", e);
+			return false;
+		}
+	}
+
+	private void startWatching() throws IOException {
+		final Path directory = file.getParent();
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		watchThread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "config-watcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+		logger.info("watching configuration file " + file + " for changes");
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean fileChanged = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW
+							|| file.getFileName().equals(event.context())) {
+						fileChanged = true;
+					}
+				}
+				if (fileChanged) {
+					reloadIfChanged();
+				}
+				if (!key.reset()) {
+					logger.warn("configuration directory " + file.getParent() + " can't be watched anymore");
+					return;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Stops watching the configuration file
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+		}
+		if (watchThread != null) {
+			watchThread.interrupt();
+		}
+	}
+}
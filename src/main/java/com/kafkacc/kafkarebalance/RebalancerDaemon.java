@@ -0,0 +1,226 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the process alive and runs the check/scale workflow on a fixed
+ * interval with an internal scheduler, instead of starting a new JVM on every
+ * cron tick. Clients and caches created before the daemon starts stay warm
+ * between ticks. On SIGTERM (JVM shutdown), no new tick is started, the
+ * running ticks are given a grace period to finish and the resources are
+ * closed. <br/>
+ * Several workflows (one per cluster) can share the daemon: each one is
+ * scheduled on its own, runs on a bounded pool of threads and never runs
+ * concurrently with itself, so a slow workflow only delays its own next tick.
+ *
+ * @author SKI44
+ *
+ */
+public class RebalancerDaemon {
+	private final static Logger logger = LoggerFactory.getLogger(RebalancerDaemon.class);
+
+	public static final long DEFAULT_SHUTDOWN_GRACE_MS = 60000;
+
+	private final long intervalMs;
+	private final long shutdownGraceMs;
+	private final AutoCloseable[] resources;
+	private final ScheduledExecutorService scheduler;
+	private final List<Tick> ticks = new ArrayList<Tick>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private volatile boolean shuttingDown;
+
+	/**
+	 * Creates a daemon without workflow, workflows are added with
+	 * {@link #addTick(String, Callable)}
+	 *
+	 * @param intervalMs      delay in ms between the end of a tick and the start
+	 *                        of the next one
+	 * @param shutdownGraceMs time in ms given to the running ticks to finish on
+	 *                        shutdown
+	 * @param threads         maximum number of ticks running at the same time
+	 * @param resources       resources to close on shutdown (ZK sessions,
+	 *                        configuration watcher...)
+	 */
+	public RebalancerDaemon(long intervalMs, long shutdownGraceMs, int threads, AutoCloseable... resources) {
+		if (intervalMs <= 0) {
+			throw new IllegalArgumentException("interval must be positive, got " + intervalMs + "ms");
+		}
+		this.intervalMs = intervalMs;
+		this.shutdownGraceMs = shutdownGraceMs;
+		this.resources = resources;
+		this.scheduler = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, "rebalancer-daemon-" + count.incrementAndGet());
+			}
+		});
+	}
+
+	/**
+	 * Adds a workflow to run on every tick, must be called before
+	 * {@link #run()}
+	 *
+	 * @param name name of the workflow (e.g. cluster name) shown in the name of
+	 *             the thread running it, may be null
+	 * @param tick workflow to run
+	 * @return handle to trigger the workflow out of schedule
+	 */
+	public Tick addTick(String name, Callable<Integer> tick) {
+		Tick added = new Tick(name, tick);
+		ticks.add(added);
+		return added;
+	}
+
+	/**
+	 * Starts the ticks and blocks until the daemon is stopped
+	 *
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				stop();
+			}
+		}, "rebalancer-daemon-shutdown"));
+		logger.info("[DAEMON] started, " + ticks.size() + " workflow(s) will run every " + intervalMs + "ms");
+		for (Tick tick : ticks) {
+			scheduler.scheduleWithFixedDelay(tick, 0, intervalMs, TimeUnit.MILLISECONDS);
+		}
+		stopped.await();
+	}
+
+	/**
+	 * Runs all the workflows as soon as possible, after their running tick if
+	 * any
+	 */
+	public void triggerNow() {
+		for (Tick tick : ticks) {
+			tick.triggerNow();
+		}
+	}
+
+	/**
+	 * Stops the daemon: no new tick is started, the running ticks are given the
+	 * grace period to finish, then resources are closed
+	 */
+	public void stop() {
+		synchronized (this) {
+			if (shuttingDown) {
+				return;
+			}
+			shuttingDown = true;
+		}
+		logger.info("[DAEMON] stopping...");
+		scheduler.shutdown();
+		try {
+			if (!scheduler.awaitTermination(shutdownGraceMs, TimeUnit.MILLISECONDS)) {
+				logger.warn("[DAEMON] running ticks didn't finish within " + shutdownGraceMs + "ms, interrupting them");
+				scheduler.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			scheduler.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		for (AutoCloseable resource : resources) {
+			try {
+				if (resource != null) {
+					resource.close();
+				}
+			} catch (Exception e) {
+				logger.warn("[DAEMON] resource couldn't be closed", e);
+			}
+		}
+		logger.info("[DAEMON] stopped");
+		stopped.countDown();
+	}
+
+	/**
+	 * Workflow scheduled by the daemon. A tick started while the workflow is
+	 * running doesn't wait for it: it is coalesced with the other pending ones
+	 * into a single run, started by the running thread once it has finished
+	 */
+	public class Tick implements Runnable {
+		private final String name;
+		private final Callable<Integer> workflow;
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final AtomicBoolean pending = new AtomicBoolean();
+
+		private Tick(String name, Callable<Integer> workflow) {
+			this.name = name;
+			this.workflow = workflow;
+		}
+
+		/**
+		 * Runs the workflow as soon as possible, after its running tick if any (e.g.
+		 * to dispatch the next scheduled operation when a launched task has ended)
+		 */
+		public void triggerNow() {
+			if (shuttingDown) {
+				return;
+			}
+			if (running.get()) {
+				// run again by the running thread, no pool thread is taken
+				pending.set(true);
+				if (running.get()) {
+					return;
+				}
+			}
+			try {
+				scheduler.execute(this);
+			} catch (RejectedExecutionException e) {
+				// daemon is stopping
+			}
+		}
+
+		/**
+		 * Runs the workflow, once more for the ticks started meanwhile. A failure is
+		 * logged and doesn't stop the next ticks
+		 */
+		public void run() {
+			pending.set(true);
+			// the pending run is taken by the thread holding the running flag, re-checked
+			// after releasing it for the ticks started in between
+			while (!shuttingDown && pending.get() && running.compareAndSet(false, true)) {
+				try {
+					while (!shuttingDown && pending.getAndSet(false)) {
+						runOnce();
+					}
+				} finally {
+					running.set(false);
+				}
+			}
+		}
+
+		private void runOnce() {
+			Thread thread = Thread.currentThread();
+			String threadName = thread.getName();
+			if (name != null) {
+				thread.setName(threadName + "-" + name);
+			}
+			long start = System.nanoTime();
+			try {
+				workflow.call();
+			} catch (Exception e) {
+				logger.error("[DAEMON] workflow " + (name == null ? "" : name + " ")
+						+ "failed, it will be run again at next tick", e);
+			} finally {
+				logger.debug("[DAEMON] tick done in " + (System.nanoTime() - start) / 1000000 + "ms");
+				thread.setName(threadName);
+			}
+		}
+	}
+}
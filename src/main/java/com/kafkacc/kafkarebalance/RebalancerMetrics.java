@@ -0,0 +1,260 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * In-process registry of the rebalancer metrics (latency histograms, error
+ * counters and gauges), rendered in the Prometheus text exposition format by
+ * {@link #toPrometheusText()}. <br/>
+ * Recording a value is lock-free, so instrumented paths (cruise control
+ * requests, ZK operations, decisions) aren't slowed down by the scrapes.
+ *
+ * @author SKI44
+ *
+ */
+public class RebalancerMetrics {
+	public static final String HTTP_REQUEST_DURATION = "kafkarebalance_http_request_duration_seconds";
+	public static final String HTTP_ERRORS = "kafkarebalance_http_errors_total";
+	public static final String RESPONSE_PARSE_DURATION = "kafkarebalance_response_parse_duration_seconds";
+	public static final String ZK_OPERATION_DURATION = "kafkarebalance_zk_operation_duration_seconds";
+	public static final String ZK_ERRORS = "kafkarebalance_zk_errors_total";
+	public static final String DECISION_DURATION = "kafkarebalance_decision_duration_seconds";
+	public static final String WORKFLOW_ERRORS = "kafkarebalance_workflow_errors_total";
+	public static final String BALANCEDNESS_SCORE = "kafkarebalance_balancedness_score";
+	public static final String SCORE_VARIATION = "kafkarebalance_score_variation";
+	public static final String PROPOSAL_DURATION = "kafkarebalance_proposal_duration_seconds";
+	public static final String CSV_ROWS_DROPPED = "kafkarebalance_csv_rows_dropped_total";
+	public static final String CSV_ROWS_FAILED = "kafkarebalance_csv_rows_failed_total";
+	public static final String CSV_ROWS_PENDING = "kafkarebalance_csv_rows_pending";
+
+	/**
+	 * Upper bounds in seconds of the latency histogram buckets
+	 */
+	static final double[] LATENCY_BUCKETS = new double[] { 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5,
+			5, 10, 30, 60, 120 };
+
+	private static final RebalancerMetrics defaultMetrics = new RebalancerMetrics();
+
+	private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+	public RebalancerMetrics() {
+		describe(HTTP_REQUEST_DURATION, "histogram", "Duration of the requests sent to cruise control");
+		describe(HTTP_ERRORS, "counter", "Requests to cruise control that failed or got an error status");
+		describe(RESPONSE_PARSE_DURATION, "histogram", "Duration of the parsing of cruise control responses");
+		describe(ZK_OPERATION_DURATION, "histogram", "Duration of the ZK operations, retries included");
+		describe(ZK_ERRORS, "counter", "ZK operations that failed, by error code");
+		describe(DECISION_DURATION, "histogram", "Duration of a run of the check/scale workflow");
+		describe(WORKFLOW_ERRORS, "counter", "Runs of the check/scale workflow that failed");
+		describe(BALANCEDNESS_SCORE, "gauge", "Latest balancedness score of the proposal, before and after");
+		describe(SCORE_VARIATION, "gauge", "Latest score variation measured by the workflow");
+		describe(PROPOSAL_DURATION, "histogram", "Duration of the proposal computations, by goal set");
+		describe(CSV_ROWS_DROPPED, "counter", "CSV rows dropped because the writer queue was full or closed");
+		describe(CSV_ROWS_FAILED, "counter", "CSV rows that couldn't be written to their file");
+		describe(CSV_ROWS_PENDING, "gauge", "CSV rows waiting to be written");
+	}
+
+	/**
+	 * @return registry shared by all components of the process
+	 */
+	public static RebalancerMetrics getDefault() {
+		return defaultMetrics;
+	}
+
+	/**
+	 * Declares a metric, values of undeclared metrics are ignored
+	 *
+	 * @param name metric name
+	 * @param type 'histogram', 'counter' or 'gauge'
+	 * @param help description of the metric
+	 */
+	public void describe(String name, String type, String help) {
+		families.putIfAbsent(name, new Family(name, type, help));
+	}
+
+	/**
+	 * Records a latency in a histogram
+	 *
+	 * @param name      histogram name
+	 * @param nanos     latency in ns
+	 * @param labelPairs label names and values, alternately
+	 */
+	public void observeNanos(String name, long nanos, String... labelPairs) {
+		Family family = families.get(name);
+		if (family != null) {
+			((Histogram) family.child(labelPairs)).observe(nanos / 1e9);
+		}
+	}
+
+	/**
+	 * Increments a counter
+	 *
+	 * @param name      counter name
+	 * @param labelPairs label names and values, alternately
+	 */
+	public void increment(String name, String... labelPairs) {
+		Family family = families.get(name);
+		if (family != null) {
+			((AtomicLong) family.child(labelPairs)).incrementAndGet();
+		}
+	}
+
+	/**
+	 * Adds to a counter
+	 *
+	 * @param name      counter name
+	 * @param delta     value added
+	 * @param labelPairs label names and values, alternately
+	 */
+	public void increment(String name, long delta, String... labelPairs) {
+		Family family = families.get(name);
+		if (family != null) {
+			((AtomicLong) family.child(labelPairs)).addAndGet(delta);
+		}
+	}
+
+	/**
+	 * Sets the value of a gauge
+	 *
+	 * @param name      gauge name
+	 * @param value     new value
+	 * @param labelPairs label names and values, alternately
+	 */
+	public void set(String name, double value, String... labelPairs) {
+		Family family = families.get(name);
+		if (family != null) {
+			((AtomicLong) family.child(labelPairs)).set(Double.doubleToLongBits(value));
+		}
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text exposition format (version
+	 *         0.0.4)
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		for (Family family : new TreeMap<String, Family>(families).values()) {
+			if (family.children.isEmpty()) {
+				continue;
+			}
+			text.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			text.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (Map.Entry<String, Object> child : new TreeMap<String, Object>(family.children).entrySet()) {
+				String labels = child.getKey();
+				Object value = child.getValue();
+				if (value instanceof Histogram) {
+					((Histogram) value).appendTo(text, family.name, labels);
+				} else if ("gauge".equals(family.type)) {
+					appendSample(text, family.name, labels,
+							formatValue(Double.longBitsToDouble(((AtomicLong) value).get())));
+				} else {
+					appendSample(text, family.name, labels, Long.toString(((AtomicLong) value).get()));
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	private static void appendSample(StringBuilder text, String name, String labels, String value) {
+		text.append(name);
+		if (!labels.isEmpty()) {
+			text.append('{').append(labels).append('}');
+		}
+		text.append(' ').append(value).append('\n');
+	}
+
+	private static String formatValue(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+		return Double.toString(value);
+	}
+
+	/**
+	 * @return labels rendered as 'name1="value1",name2="value2"'
+	 */
+	static String formatLabels(String... labelPairs) {
+		if (labelPairs.length % 2 != 0) {
+			throw new IllegalArgumentException("labels must be given as name/value pairs");
+		}
+		StringBuilder labels = new StringBuilder();
+		for (int i = 0; i < labelPairs.length; i += 2) {
+			if (labels.length() > 0) {
+				labels.append(',');
+			}
+			String value = labelPairs[i + 1] == null ? "" : labelPairs[i + 1];
+			labels.append(labelPairs[i]).append("=\"")
+					.append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+		}
+		return labels.toString();
+	}
+
+	private static class Family {
+		final String name;
+		final String type;
+		final String help;
+		final ConcurrentMap<String, Object> children = new ConcurrentHashMap<String, Object>();
+
+		Family(String name, String type, String help) {
+			this.name = name;
+			this.type = type;
+			this.help = help;
+		}
+
+		Object child(String... labelPairs) {
+			String labels = formatLabels(labelPairs);
+			Object child = children.get(labels);
+			if (child == null) {
+				Object created = "histogram".equals(type) ? new Histogram()
+						: new AtomicLong("gauge".equals(type) ? Double.doubleToLongBits(Double.NaN) : 0);
+				child = children.putIfAbsent(labels, created);
+				if (child == null) {
+					child = created;
+				}
+			}
+			return child;
+		}
+	}
+
+	/**
+	 * Histogram with the fixed {@link RebalancerMetrics#LATENCY_BUCKETS}
+	 */
+	private static class Histogram {
+		// non-cumulative counts, the last one counts values above the last bound
+		private final AtomicLongArray bucketCounts = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+		private final DoubleAdder sum = new DoubleAdder();
+		private final AtomicLong count = new AtomicLong();
+
+		void observe(double seconds) {
+			int bucket = 0;
+			while (bucket < LATENCY_BUCKETS.length && seconds > LATENCY_BUCKETS[bucket]) {
+				bucket++;
+			}
+			bucketCounts.incrementAndGet(bucket);
+			sum.add(seconds);
+			count.incrementAndGet();
+		}
+
+		void appendTo(StringBuilder text, String name, String labels) {
+			String labelPrefix = labels.isEmpty() ? "" : labels + ",";
+			long cumulativeCount = 0;
+			for (int bucket = 0; bucket < LATENCY_BUCKETS.length; bucket++) {
+				cumulativeCount += bucketCounts.get(bucket);
+				appendSample(text, name + "_bucket", labelPrefix + "le=\"" + LATENCY_BUCKETS[bucket] + "\"",
+						Long.toString(cumulativeCount));
+			}
+			cumulativeCount += bucketCounts.get(LATENCY_BUCKETS.length);
+			appendSample(text, name + "_bucket", labelPrefix + "le=\"+Inf\"", Long.toString(cumulativeCount));
+			appendSample(text, name + "_sum", labels, formatValue(sum.sum()));
+			appendSample(text, name + "_count", labels, Long.toString(cumulativeCount));
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compatible scaling operations taken from the head of the scaling operations
+ * queue to be sent to cruise control as one add_broker or remove_broker
+ * request: same operation, distinct broker ids, and the Znodes to delete once
+ * they are consumed.
+ *
+ * @author SKI44
+ *
+ */
+public class ScalingBatch {
+	private final String operation;
+	private final List<Integer> brokerIds = new ArrayList<Integer>();
+	private final List<String> znodeNames = new ArrayList<String>();
+	/**
+	 * broker id of each Znode of the batch
+	 */
+	private final List<Integer> znodeBrokerIds = new ArrayList<Integer>();
+
+	/**
+	 * @param operation 'add' or 'remove'
+	 */
+	public ScalingBatch(String operation) {
+		this.operation = operation;
+	}
+
+	/**
+	 * Adds a queued operation to the batch, an operation on a broker already in
+	 * the batch only adds its Znode
+	 *
+	 * @param znodeName name of the Znode of the operation in the queue
+	 * @param op        queued operation
+	 * @throws IllegalArgumentException if the operation isn't compatible with
+	 *                                  the batch
+	 */
+	void add(String znodeName, ScalingOperation op) {
+		if (!operation.equals(op.getOperation())) {
+			throw new IllegalArgumentException(
+					"operation " + op.getKey() + " can't be batched with '" + operation + "' operations");
+		}
+		if (!brokerIds.contains(op.getBrokerId())) {
+			brokerIds.add(op.getBrokerId());
+		}
+		znodeNames.add(znodeName);
+		znodeBrokerIds.add(op.getBrokerId());
+	}
+
+	/**
+	 * @return 'add' or 'remove'
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return distinct broker ids of the batch in queue order
+	 */
+	public List<Integer> getBrokerIds() {
+		return Collections.unmodifiableList(brokerIds);
+	}
+
+	/**
+	 * @return names of the queue Znodes consumed by the batch
+	 */
+	public List<String> getZnodeNames() {
+		return Collections.unmodifiableList(znodeNames);
+	}
+
+	/**
+	 * @param launchedBrokerIds broker ids included in the request sent to
+	 *                          cruise control
+	 * @return batch of the Znodes of these brokers only, in queue order
+	 */
+	public ScalingBatch retainBrokers(List<Integer> launchedBrokerIds) {
+		ScalingBatch retained = new ScalingBatch(operation);
+		for (int i = 0; i < znodeNames.size(); i++) {
+			Integer brokerId = znodeBrokerIds.get(i);
+			if (launchedBrokerIds.contains(brokerId)) {
+				retained.add(znodeNames.get(i), new ScalingOperation(brokerId, operation));
+			}
+		}
+		return retained;
+	}
+
+	public boolean isEmpty() {
+		return znodeNames.isEmpty();
+	}
+
+	/**
+	 * @return broker ids as expected by the 'brokerid' parameter of cruise control
+	 *         (commas separated)
+	 */
+	public String toBrokerIdParameter() {
+		return toBrokerIdParameter(brokerIds);
+	}
+
+	/**
+	 * @param brokerIds broker ids
+	 * @return commas separated broker ids
+	 */
+	public static String toBrokerIdParameter(List<Integer> brokerIds) {
+		StringBuilder parameter = new StringBuilder();
+		for (Integer brokerId : brokerIds) {
+			if (parameter.length() > 0) {
+				parameter.append(',');
+			}
+			parameter.append(brokerId);
+		}
+		return parameter.toString();
+	}
+
+	@Override
+	public String toString() {
+		return operation + " " + brokerIds;
+	}
+}
@@ -0,0 +1,135 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Scaling operation stored as payload of a Znode of the scaling operations
+ * queue: broker id, operation ('add' or 'remove'), enqueue time and priority.
+ * <br/>
+ * Payloads are written in JSON, payloads of the legacy format
+ * "brokerId-operation" can still be read.
+ *
+ * @author SKI44
+ *
+ */
+public class ScalingOperation {
+	public static final String ADD = "add";
+	public static final String REMOVE = "remove";
+
+	public static final int MIN_PRIORITY = 0;
+	public static final int MAX_PRIORITY = 9;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final int brokerId;
+	private final String operation;
+	private final long enqueueTime;
+	private final int priority;
+
+	/**
+	 * @param brokerId    broker id used for scaling
+	 * @param operation   'add' or 'remove'
+	 * @param enqueueTime time in ms the operation has been scheduled at
+	 * @param priority    priority from 0 (lowest, default) to 9 (highest)
+	 */
+	public ScalingOperation(int brokerId, String operation, long enqueueTime, int priority) {
+		if (priority < MIN_PRIORITY || priority > MAX_PRIORITY) {
+			throw new IllegalArgumentException(
+					"priority must be between " + MIN_PRIORITY + " and " + MAX_PRIORITY + ", got " + priority);
+		}
+		this.brokerId = brokerId;
+		this.operation = operation;
+		this.enqueueTime = enqueueTime;
+		this.priority = priority;
+	}
+
+	/**
+	 * Creates an operation enqueued now with the lowest priority
+	 */
+	public ScalingOperation(int brokerId, String operation) {
+		this(brokerId, operation, System.currentTimeMillis(), MIN_PRIORITY);
+	}
+
+	public int getBrokerId() {
+		return brokerId;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public long getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Identity of the operation used to detect similar operations, same format as
+	 * the legacy payload "brokerId-operation"
+	 *
+	 * @return operation key
+	 */
+	public String getKey() {
+		return brokerId + "-" + operation;
+	}
+
+	/**
+	 * @return JSON payload of the operation
+	 */
+	public String toJSON() {
+		ObjectNode node = mapper.createObjectNode();
+		node.put("brokerId", brokerId);
+		node.put("operation", operation);
+		node.put("enqueueTime", enqueueTime);
+		node.put("priority", priority);
+		return node.toString();
+	}
+
+	public byte[] toBytes() {
+		return toJSON().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses a Znode payload, either in JSON or in legacy format
+	 * "brokerId-operation" (enqueue time is then unknown (0) and priority is the
+	 * lowest one)
+	 *
+	 * @param payload payload to parse
+	 * @return the scaling operation
+	 * @throws IllegalArgumentException if the payload can't be parsed
+	 */
+	public static ScalingOperation parse(String payload) {
+		String trimmedPayload = payload.trim();
+		if (trimmedPayload.startsWith("{")) {
+			try {
+				JsonNode node = mapper.readTree(trimmedPayload);
+				return new ScalingOperation(node.get("brokerId").asInt(), node.get("operation").asText(),
+						node.path("enqueueTime").asLong(0), node.path("priority").asInt(MIN_PRIORITY));
+			} catch (IOException | NullPointerException e) {
+				throw new IllegalArgumentException("invalid scaling operation payload: " + payload, e);
+			}
+		}
+		String[] splittedData = trimmedPayload.split("-");
+		if (splittedData.length != 2) {
+			throw new IllegalArgumentException("invalid scaling operation payload: " + payload);
+		}
+		try {
+			return new ScalingOperation(Integer.parseInt(splittedData[0]), splittedData[1], 0, MIN_PRIORITY);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("invalid scaling operation payload: " + payload, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+}
@@ -0,0 +1,464 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only store of {@link ScoreSample}s made of fixed-size binary records.
+ * <br/>
+ * Records are appended in time order to segment files named
+ * 'name-&lt;sequence&gt;.series', a new segment is started once the current
+ * one has reached the maximum segment size. Each segment starts with a header
+ * holding the time of its first record, so a range scan only reads the
+ * segments overlapping the range and finds its first record by binary search
+ * (positional reads, nothing is mapped). <br/>
+ * Several processes may share a series (overlapping runs, HA instances):
+ * appends are serialized by an exclusive lock of the 'name.lock' file, under
+ * which the segments are refreshed from the disk before writing, so a record
+ * is never written over another one. A record partially written by a crash
+ * is truncated by the next append.
+ *
+ * @author SKI44
+ *
+ */
+public class ScoreHistoryStore implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(ScoreHistoryStore.class);
+
+	public static final long DEFAULT_SEGMENT_MAX_BYTES = 16 * 1024 * 1024;
+	public static final String SEGMENT_SUFFIX = ".series";
+	public static final String LOCK_SUFFIX = ".lock";
+	/**
+	 * records read at once by a scan
+	 */
+	static final int SCAN_BATCH_RECORDS = 256;
+
+	/**
+	 * monitors of the lock files opened by this JVM: a file lock is held by the
+	 * process, a second lock of the same file in the process would fail
+	 */
+	private static final Map<Path, Object> LOCK_MONITORS = new ConcurrentHashMap<Path, Object>();
+
+	// 'SCOR'
+	static final int MAGIC = 0x53434f52;
+	static final short VERSION = 1;
+	// magic, version, record size, first record time
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * Header of the legacy rebalancing impact CSV files
+	 */
+	static final String[] CSV_HEADERS = new String[] { "TimeStamp", "unbalancing-difference" };
+	static final String CSV_DATE_FORMAT = "yyyy/MM/dd-HH:mm:ss";
+
+	private final Path directory;
+	private final String name;
+	private final long segmentMaxBytes;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private FileChannel currentChannel;
+	private Path currentFile;
+	private FileChannel lockChannel;
+	private boolean loaded;
+
+	/**
+	 * @param directory       directory of the segment files (created if missing)
+	 * @param name            name of the series, prefix of its segment files
+	 * @param segmentMaxBytes size in bytes from which a new segment is started
+	 */
+	public ScoreHistoryStore(Path directory, String name, long segmentMaxBytes) {
+		if (segmentMaxBytes < HEADER_SIZE + ScoreSample.RECORD_SIZE) {
+			throw new IllegalArgumentException("segment size must be at least "
+					+ (HEADER_SIZE + ScoreSample.RECORD_SIZE) + " bytes, got " + segmentMaxBytes);
+		}
+		this.directory = directory;
+		this.name = name;
+		this.segmentMaxBytes = segmentMaxBytes;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Appends a sample, samples are expected in time order
+	 *
+	 * @param sample sample to append
+	 * @throws IOException if the sample couldn't be written
+	 */
+	public synchronized void append(ScoreSample sample) throws IOException {
+		ensureLoaded();
+		Path lockFile = directory.resolve(name + LOCK_SUFFIX).toAbsolutePath().normalize();
+		if (lockChannel == null) {
+			lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		}
+		Object monitor = LOCK_MONITORS.computeIfAbsent(lockFile, file -> new Object());
+		synchronized (monitor) {
+			FileLock lock = lockChannel.lock();
+			try {
+				// other processes may have appended records or started segments
+				refreshSegments();
+				Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+				if (current != null) {
+					truncatePartialRecord(current);
+				}
+				if (current == null || current.size + ScoreSample.RECORD_SIZE > segmentMaxBytes) {
+					current = createSegment(current == null ? 1 : current.sequence + 1, sample.getTimestampMs());
+				} else if (currentChannel == null || !current.file.equals(currentFile)) {
+					closeCurrentChannel();
+					currentChannel = FileChannel.open(current.file, StandardOpenOption.WRITE);
+					currentFile = current.file;
+				}
+				ByteBuffer record = ByteBuffer.allocate(ScoreSample.RECORD_SIZE);
+				sample.writeTo(record);
+				record.flip();
+				while (record.hasRemaining()) {
+					currentChannel.write(record, current.size + record.position());
+				}
+				current.size += ScoreSample.RECORD_SIZE;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Gets the samples of a time range
+	 *
+	 * @param fromMs start of the range in ms (inclusive)
+	 * @param toMs   end of the range in ms (inclusive)
+	 * @return samples of the range in time order
+	 * @throws IOException if a segment couldn't be read
+	 */
+	public synchronized List<ScoreSample> scan(long fromMs, long toMs) throws IOException {
+		ensureLoaded();
+		refreshSegments();
+		List<ScoreSample> samples = new ArrayList<ScoreSample>();
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			// a segment holds the records until the first record of the next one
+			if (segment.firstTimestampMs > toMs
+					|| (i + 1 < segments.size() && segments.get(i + 1).firstTimestampMs < fromMs)) {
+				continue;
+			}
+			int recordCount = segment.recordCount();
+			if (recordCount == 0) {
+				continue;
+			}
+			FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ);
+			try {
+				ByteBuffer records = ByteBuffer.allocate(SCAN_BATCH_RECORDS * ScoreSample.RECORD_SIZE);
+				int index = firstRecordFrom(channel, segment, recordCount, fromMs);
+				while (index < recordCount) {
+					int batchRecords = Math.min(SCAN_BATCH_RECORDS, recordCount - index);
+					records.clear();
+					records.limit(batchRecords * ScoreSample.RECORD_SIZE);
+					readFully(channel, records, recordPosition(index), segment);
+					for (int record = 0; record < batchRecords; record++) {
+						ScoreSample sample = ScoreSample.readFrom(records, record * ScoreSample.RECORD_SIZE);
+						if (sample.getTimestampMs() > toMs) {
+							return samples;
+						}
+						samples.add(sample);
+					}
+					index += batchRecords;
+				}
+			} finally {
+				channel.close();
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Gets the time of the last sample, read from the last record only
+	 *
+	 * @return time in ms of the last sample, -1 if the store is empty
+	 * @throws IOException if the last segment couldn't be read
+	 */
+	public synchronized long getLastTimestampMs() throws IOException {
+		ensureLoaded();
+		refreshSegments();
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			Segment segment = segments.get(i);
+			int recordCount = segment.recordCount();
+			if (recordCount == 0) {
+				continue;
+			}
+			FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ);
+			try {
+				return readTimestamp(channel, recordCount - 1, segment);
+			} finally {
+				channel.close();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of the first record at or after fromMs (binary search)
+	 */
+	private static int firstRecordFrom(FileChannel channel, Segment segment, int recordCount, long fromMs)
+			throws IOException {
+		int low = 0;
+		int high = recordCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (readTimestamp(channel, middle, segment) < fromMs) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static long readTimestamp(FileChannel channel, int index, Segment segment) throws IOException {
+		ByteBuffer timestamp = ByteBuffer.allocate(8);
+		readFully(channel, timestamp, recordPosition(index), segment);
+		return timestamp.getLong(0);
+	}
+
+	private static long recordPosition(int index) {
+		return HEADER_SIZE + (long) index * ScoreSample.RECORD_SIZE;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position, Segment segment)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("record of " + segment.file + " at " + position + " is truncated");
+			}
+		}
+	}
+
+	/**
+	 * Exports the samples of a time range in the layout of the rebalancing impact
+	 * CSV files (time stamp and score variation)
+	 *
+	 * @param csvFile file to write (replaced if it exists)
+	 * @param fromMs  start of the range in ms (inclusive)
+	 * @param toMs    end of the range in ms (inclusive)
+	 * @return number of exported samples
+	 * @throws IOException if the store couldn't be read or the file written
+	 */
+	public int exportToCSV(Path csvFile, long fromMs, long toMs) throws IOException {
+		List<ScoreSample> samples = scan(fromMs, toMs);
+		DateFormat dateformat = new SimpleDateFormat(CSV_DATE_FORMAT);
+		Writer writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8);
+		try {
+			writeCSVRow(writer, CSV_HEADERS);
+			for (ScoreSample sample : samples) {
+				writeCSVRow(writer, new String[] { dateformat.format(new Date(sample.getTimestampMs())),
+						Double.toString(sample.getScoreVariation()) });
+			}
+		} finally {
+			writer.close();
+		}
+		return samples.size();
+	}
+
+	private static void writeCSVRow(Writer writer, String[] row) throws IOException {
+		for (String value : row) {
+			writer.append(value);
+			writer.append(",");
+		}
+		writer.append("\n");
+	}
+
+	/**
+	 * Forces the written records to the storage device
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (currentChannel != null) {
+			currentChannel.force(false);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeCurrentChannel();
+		if (lockChannel != null) {
+			lockChannel.close();
+			lockChannel = null;
+		}
+	}
+
+	private void closeCurrentChannel() throws IOException {
+		if (currentChannel != null) {
+			currentChannel.close();
+			currentChannel = null;
+			currentFile = null;
+		}
+	}
+
+	/**
+	 * Lists the segments of the series on first use
+	 */
+	private void ensureLoaded() throws IOException {
+		if (loaded) {
+			return;
+		}
+		Files.createDirectories(directory);
+		// not a glob, series names hold brackets ('[EXECUTION]...')
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory, new DirectoryStream.Filter<Path>() {
+			public boolean accept(Path file) {
+				String fileName = file.getFileName().toString();
+				return fileName.startsWith(name + "-") && fileName.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		try {
+			for (Path file : files) {
+				Segment segment = readSegment(file);
+				if (segment != null) {
+					segments.add(segment);
+				}
+			}
+		} finally {
+			files.close();
+		}
+		Collections.sort(segments, (s1, s2) -> Long.compare(s1.sequence, s2.sequence));
+		loaded = true;
+	}
+
+	/**
+	 * Reads the size of the last segment and lists the segments started after
+	 * it, the series may be appended by other processes. A record being written
+	 * isn't counted: the number of records of a segment is rounded down
+	 */
+	private void refreshSegments() throws IOException {
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (last != null) {
+			last.size = Files.size(last.file);
+		}
+		for (long sequence = last == null ? 1 : last.sequence + 1;; sequence++) {
+			Path file = segmentFile(sequence);
+			if (!Files.exists(file)) {
+				return;
+			}
+			Segment segment = readSegment(file);
+			if (segment == null) {
+				// header being written
+				return;
+			}
+			segments.add(segment);
+		}
+	}
+
+	/**
+	 * Truncates a record partially written by a crash, to be called under the
+	 * append lock only
+	 */
+	private void truncatePartialRecord(Segment segment) throws IOException {
+		long completeSize = recordPosition(segment.recordCount());
+		if (completeSize != segment.size) {
+			logger.warn("truncating partially written record of " + segment.file);
+			FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.WRITE);
+			try {
+				channel.truncate(completeSize);
+			} finally {
+				channel.close();
+			}
+			segment.size = completeSize;
+		}
+	}
+
+	private Path segmentFile(long sequence) {
+		return directory.resolve(String.format("%s-%010d%s", name, sequence, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * @return the segment, null if the file isn't a segment of the series
+	 */
+	private Segment readSegment(Path file) throws IOException {
+		String fileName = file.getFileName().toString();
+		long sequence;
+		try {
+			sequence = Long.parseLong(
+					fileName.substring(name.length() + 1, fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					break;
+				}
+			}
+			if (header.hasRemaining()) {
+				logger.warn("ignoring segment " + file + " without header");
+				return null;
+			}
+			if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION
+					|| header.getShort(6) != ScoreSample.RECORD_SIZE) {
+				throw new IOException("unsupported segment format of " + file);
+			}
+			return new Segment(file, sequence, header.getLong(8), channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	private Segment createSegment(long sequence, long firstTimestampMs) throws IOException {
+		closeCurrentChannel();
+		Path file = segmentFile(sequence);
+		currentChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		currentFile = file;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) ScoreSample.RECORD_SIZE);
+		header.putLong(firstTimestampMs);
+		header.flip();
+		while (header.hasRemaining()) {
+			currentChannel.write(header, header.position());
+		}
+		Segment segment = new Segment(file, sequence, firstTimestampMs, HEADER_SIZE);
+		segments.add(segment);
+		logger.debug("new score history segment " + file);
+		return segment;
+	}
+
+	private static class Segment {
+		final Path file;
+		final long sequence;
+		final long firstTimestampMs;
+		long size;
+
+		Segment(Path file, long sequence, long firstTimestampMs, long size) {
+			this.file = file;
+			this.sequence = sequence;
+			this.firstTimestampMs = firstTimestampMs;
+			this.size = size;
+		}
+
+		int recordCount() {
+			return (int) ((size - HEADER_SIZE) / ScoreSample.RECORD_SIZE);
+		}
+	}
+}
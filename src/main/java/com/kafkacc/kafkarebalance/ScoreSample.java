@@ -0,0 +1,153 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Balancedness sample taken by a run of the workflow: balancedness scores
+ * before and after the proposal, score variation, data to move and the
+ * decision taken. Samples are stored as fixed-size records by
+ * {@link ScoreHistoryStore}.
+ *
+ * @author SKI44
+ *
+ */
+public class ScoreSample {
+	/**
+	 * Size in bytes of a sample record
+	 */
+	public static final int RECORD_SIZE = 48;
+
+	static final byte DECISION_UNKNOWN = 0;
+	static final byte DECISION_SAFE = 1;
+	static final byte DECISION_UNSAFE = 2;
+	static final byte DECISION_ALERT = 3;
+
+	private final long timestampMs;
+	private final double scoreBefore;
+	private final double scoreAfter;
+	private final double scoreVariation;
+	private final double dataToMoveMB;
+	private final String decision;
+
+	/**
+	 * @param timestampMs    time of the sample in ms
+	 * @param scoreBefore    balancedness score before the proposal
+	 * @param scoreAfter     balancedness score after the proposal
+	 * @param scoreVariation variation measured by the workflow
+	 * @param dataToMoveMB   data to move in MB by the proposal
+	 * @param decision       'safe', 'unsafe', 'alert' (see
+	 *                       {@link Rebalancer#evaluateBalencenessUsingScoreVariation(Double, Double)}),
+	 *                       null if unknown
+	 */
+	public ScoreSample(long timestampMs, double scoreBefore, double scoreAfter, double scoreVariation,
+			double dataToMoveMB, String decision) {
+		this.timestampMs = timestampMs;
+		this.scoreBefore = scoreBefore;
+		this.scoreAfter = scoreAfter;
+		this.scoreVariation = scoreVariation;
+		this.dataToMoveMB = dataToMoveMB;
+		this.decision = decision;
+	}
+
+	/**
+	 * @param timestampMs    time of the sample in ms
+	 * @param summary        summary of the evaluated proposal
+	 * @param scoreVariation variation measured by the workflow
+	 * @param decision       'safe', 'unsafe' or 'alert'
+	 */
+	public ScoreSample(long timestampMs, ProposalSummary summary, double scoreVariation, String decision) {
+		this(timestampMs, summary.getBalancednessScoreBefore(), summary.getBalancednessScoreAfter(), scoreVariation,
+				summary.getDataToMoveMB(), decision);
+	}
+
+	public long getTimestampMs() {
+		return timestampMs;
+	}
+
+	public double getScoreBefore() {
+		return scoreBefore;
+	}
+
+	public double getScoreAfter() {
+		return scoreAfter;
+	}
+
+	public double getScoreVariation() {
+		return scoreVariation;
+	}
+
+	public double getDataToMoveMB() {
+		return dataToMoveMB;
+	}
+
+	/**
+	 * @return 'safe', 'unsafe', 'alert' or null if unknown
+	 */
+	public String getDecision() {
+		return decision;
+	}
+
+	/**
+	 * Writes the sample record at the current position of the buffer
+	 *
+	 * @param buffer buffer with at least {@link #RECORD_SIZE} bytes remaining
+	 */
+	void writeTo(ByteBuffer buffer) {
+		buffer.putLong(timestampMs);
+		buffer.putDouble(scoreBefore);
+		buffer.putDouble(scoreAfter);
+		buffer.putDouble(scoreVariation);
+		buffer.putDouble(dataToMoveMB);
+		buffer.put(encodeDecision(decision));
+		// reserved
+		for (int i = 0; i < 7; i++) {
+			buffer.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Reads a sample record at an absolute position of the buffer
+	 *
+	 * @param buffer   buffer holding records
+	 * @param position position of the record
+	 * @return the sample
+	 */
+	static ScoreSample readFrom(ByteBuffer buffer, int position) {
+		return new ScoreSample(buffer.getLong(position), buffer.getDouble(position + 8),
+				buffer.getDouble(position + 16), buffer.getDouble(position + 24), buffer.getDouble(position + 32),
+				decodeDecision(buffer.get(position + 40)));
+	}
+
+	private static byte encodeDecision(String decision) {
+		if ("safe".equals(decision)) {
+			return DECISION_SAFE;
+		}
+		if ("unsafe".equals(decision)) {
+			return DECISION_UNSAFE;
+		}
+		if ("alert".equals(decision)) {
+			return DECISION_ALERT;
+		}
+		return DECISION_UNKNOWN;
+	}
+
+	private static String decodeDecision(byte decision) {
+		switch (decision) {
+		case DECISION_SAFE:
+			return "safe";
+		case DECISION_UNSAFE:
+			return "unsafe";
+		case DECISION_ALERT:
+			return "alert";
+		default:
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ScoreSample [timestampMs=" + timestampMs + ", scoreBefore=" + scoreBefore + ", scoreAfter="
+				+ scoreAfter + ", scoreVariation=" + scoreVariation + ", dataToMoveMB=" + dataToMoveMB
+				+ ", decision=" + decision + "]";
+	}
+}
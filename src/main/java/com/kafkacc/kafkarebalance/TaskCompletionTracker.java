@@ -0,0 +1,228 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks launched cruise control tasks without blocking the caller: the
+ * status of each task is polled with an adaptive backoff (the delay grows
+ * while the status doesn't change and is reset when it does) and a listener
+ * is notified once the task is completed, so the next scheduled operation can
+ * be dispatched right away.
+ *
+ * @author SKI44
+ *
+ */
+public class TaskCompletionTracker implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(TaskCompletionTracker.class);
+
+	public static final long DEFAULT_INITIAL_POLL_DELAY_MS = 2000;
+	public static final long DEFAULT_MAX_POLL_DELAY_MS = 60000;
+	public static final long DEFAULT_TRACKING_TIMEOUT_MS = 6 * 3600 * 1000L;
+	static final double BACKOFF_MULTIPLIER = 2;
+	static final int MAX_CONSECUTIVE_POLL_FAILURES = 10;
+	/**
+	 * Final status reported when a task couldn't be followed until its end
+	 */
+	public static final String STATUS_UNKNOWN = "Unknown";
+
+	/**
+	 * Gets the current status of a task
+	 */
+	public interface StatusLoader {
+		/**
+		 * @param taskId cruise control user task id
+		 * @return task status or null if the task is unknown
+		 * @throws IOException if cruise control couldn't be reached
+		 */
+		String load(String taskId) throws IOException;
+	}
+
+	/**
+	 * Notified once a tracked task has ended
+	 */
+	public interface Listener {
+		/**
+		 * @param taskId      cruise control user task id
+		 * @param finalStatus 'Completed', 'CompletedWithError' or
+		 *                    {@link TaskCompletionTracker#STATUS_UNKNOWN} if the
+		 *                    task couldn't be followed until its end
+		 */
+		void onTaskCompleted(String taskId, String finalStatus);
+	}
+
+	private final StatusLoader statusLoader;
+	private final long initialPollDelayMs;
+	private final long maxPollDelayMs;
+	private final long trackingTimeoutMs;
+	private final ScheduledExecutorService poller;
+	private final Map<String, TrackedTask> trackedTasks = new ConcurrentHashMap<String, TrackedTask>();
+
+	/**
+	 * @param statusLoader       gets the status of a task
+	 * @param initialPollDelayMs first delay in ms between two polls
+	 * @param maxPollDelayMs     maximum delay in ms between two polls
+	 * @param trackingTimeoutMs  time in ms after which a task that isn't
+	 *                           completed stops being tracked
+	 */
+	public TaskCompletionTracker(StatusLoader statusLoader, long initialPollDelayMs, long maxPollDelayMs,
+			long trackingTimeoutMs) {
+		if (initialPollDelayMs <= 0 || maxPollDelayMs < initialPollDelayMs) {
+			throw new IllegalArgumentException("invalid poll delays: initial=" + initialPollDelayMs + "ms, max="
+					+ maxPollDelayMs + "ms");
+		}
+		this.statusLoader = statusLoader;
+		this.initialPollDelayMs = initialPollDelayMs;
+		this.maxPollDelayMs = maxPollDelayMs;
+		this.trackingTimeoutMs = trackingTimeoutMs;
+		this.poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "task-completion-tracker");
+				// pending polls mustn't keep a one-shot run alive
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts tracking a task, returns immediately
+	 *
+	 * @param taskId   cruise control user task id
+	 * @param listener notified once the task has ended
+	 * @return false if the task is already tracked or the tracker is closed
+	 */
+	public boolean track(String taskId, Listener listener) {
+		TrackedTask task = new TrackedTask(taskId, listener, System.currentTimeMillis());
+		if (trackedTasks.putIfAbsent(taskId, task) != null) {
+			return false;
+		}
+		try {
+			schedule(task, initialPollDelayMs);
+			return true;
+		} catch (RejectedExecutionException e) {
+			trackedTasks.remove(taskId);
+			return false;
+		}
+	}
+
+	/**
+	 * @param taskId cruise control user task id
+	 * @return true if the task is being tracked
+	 */
+	public boolean isTracked(String taskId) {
+		return trackedTasks.containsKey(taskId);
+	}
+
+	/**
+	 * @return number of tasks being tracked
+	 */
+	public int getTrackedCount() {
+		return trackedTasks.size();
+	}
+
+	private void schedule(final TrackedTask task, long delayMs) {
+		task.delayMs = delayMs;
+		poller.schedule(new Runnable() {
+			public void run() {
+				poll(task);
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll(TrackedTask task) {
+		String status;
+		try {
+			status = statusLoader.load(task.taskId);
+			task.failures = 0;
+		} catch (IOException e) {
+			task.failures++;
+			logger.warn("[EXECUTION] status of task " + task.taskId + " couldn't be retrieved (" + task.failures
+					+ " consecutive failures): " + e.getMessage());
+			if (task.failures >= MAX_CONSECUTIVE_POLL_FAILURES) {
+				complete(task, STATUS_UNKNOWN);
+			} else {
+				reschedule(task, nextDelay(task.delayMs));
+			}
+			return;
+		}
+
+		if (status == null) {
+			// user tasks are purged by cruise control after their retention time
+			logger.warn("[EXECUTION] task " + task.taskId + " isn't known by cruise control anymore");
+			complete(task, STATUS_UNKNOWN);
+		} else if (status.contains("Completed")) {
+			logger.info("[EXECUTION] task " + task.taskId + " has ended with status " + status + " after "
+					+ (System.currentTimeMillis() - task.startMs) / 1000 + "s");
+			complete(task, status);
+		} else if (System.currentTimeMillis() - task.startMs >= trackingTimeoutMs) {
+			logger.warn("[EXECUTION] task " + task.taskId + " is still " + status + " after " + trackingTimeoutMs
+					+ "ms, it won't be tracked anymore");
+			complete(task, STATUS_UNKNOWN);
+		} else {
+			// poll quickly again when the task moves to a new state, slow down while it
+			// stays in the same one
+			long delayMs = status.equals(task.lastStatus) ? nextDelay(task.delayMs) : initialPollDelayMs;
+			if (!status.equals(task.lastStatus)) {
+				logger.info("[EXECUTION] task " + task.taskId + " is " + status);
+			}
+			task.lastStatus = status;
+			reschedule(task, delayMs);
+		}
+	}
+
+	private long nextDelay(long delayMs) {
+		return Math.min(maxPollDelayMs, (long) (delayMs * BACKOFF_MULTIPLIER));
+	}
+
+	private void reschedule(TrackedTask task, long delayMs) {
+		try {
+			schedule(task, delayMs);
+		} catch (RejectedExecutionException e) {
+			// tracker closed
+			trackedTasks.remove(task.taskId);
+		}
+	}
+
+	private void complete(TrackedTask task, String finalStatus) {
+		trackedTasks.remove(task.taskId);
+		try {
+			task.listener.onTaskCompleted(task.taskId, finalStatus);
+		} catch (RuntimeException e) {
+			logger.error("[EXECUTION] completion listener of task " + task.taskId + " failed", e);
+		}
+	}
+
+	/**
+	 * Stops polling, pending tasks aren't notified
+	 */
+	public void close() {
+		poller.shutdownNow();
+		trackedTasks.clear();
+	}
+
+	private static class TrackedTask {
+		final String taskId;
+		final Listener listener;
+		final long startMs;
+		// only accessed from the poller thread
+		long delayMs;
+		String lastStatus;
+		int failures;
+
+		TrackedTask(String taskId, Listener listener, long startMs) {
+			this.taskId = taskId;
+			this.listener = listener;
+			this.startMs = startMs;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.util.List;
+
+/**
+ * Chooses the execution throttle of the partition movements from the current
+ * broker load: the closer the most loaded broker is to the target utilization,
+ * the fewer concurrent movements. <br/>
+ * Produce latency rises sharply when a broker nears saturation, so the target
+ * utilization (CPU, inbound and outbound network) is the budget left to client
+ * traffic. Concurrency scales linearly with the headroom of the most loaded
+ * broker, between the configured minimum and maximum. The replication
+ * throttle is the smallest inbound/outbound network headroom of a broker, so
+ * replication doesn't take the bandwidth of client traffic.
+ *
+ * @author SKI44
+ *
+ */
+public class ThrottleController {
+	public static final double DEFAULT_TARGET_UTILIZATION = 0.7;
+	public static final int DEFAULT_MIN_PARTITION_MOVEMENTS = 1;
+	public static final int DEFAULT_MAX_PARTITION_MOVEMENTS = 10;
+	public static final int DEFAULT_MIN_LEADER_MOVEMENTS = 50;
+	public static final int DEFAULT_MAX_LEADER_MOVEMENTS = 1000;
+	public static final long DEFAULT_MIN_REPLICATION_THROTTLE = 10 * 1024 * 1024L;
+
+	private final double targetUtilization;
+	private final int minPartitionMovements;
+	private final int maxPartitionMovements;
+	private final int minLeaderMovements;
+	private final int maxLeaderMovements;
+	private final long minReplicationThrottle;
+	private final long maxReplicationThrottle;
+
+	/**
+	 * @param targetUtilization      utilization ratio of the most loaded broker
+	 *                               at which movements are the slowest, in ]0, 1]
+	 * @param minPartitionMovements  concurrent partition movements per broker at
+	 *                               or above the target utilization
+	 * @param maxPartitionMovements  concurrent partition movements per broker on
+	 *                               an idle cluster
+	 * @param minLeaderMovements     concurrent leader movements at or above the
+	 *                               target utilization
+	 * @param maxLeaderMovements     concurrent leader movements on an idle cluster
+	 * @param minReplicationThrottle lowest replication throttle in bytes/s
+	 * @param maxReplicationThrottle highest replication throttle in bytes/s, 0 for
+	 *                               none
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public ThrottleController(double targetUtilization, int minPartitionMovements, int maxPartitionMovements,
+			int minLeaderMovements, int maxLeaderMovements, long minReplicationThrottle, long maxReplicationThrottle) {
+		if (!(targetUtilization > 0 && targetUtilization <= 1)) {
+			throw new IllegalArgumentException("target utilization must be in ]0, 1], got " + targetUtilization);
+		}
+		if (minPartitionMovements < 1 || maxPartitionMovements < minPartitionMovements) {
+			throw new IllegalArgumentException("partition movements must be at least 1 and min <= max, got "
+					+ minPartitionMovements + "/" + maxPartitionMovements);
+		}
+		if (minLeaderMovements < 1 || maxLeaderMovements < minLeaderMovements) {
+			throw new IllegalArgumentException("leader movements must be at least 1 and min <= max, got "
+					+ minLeaderMovements + "/" + maxLeaderMovements);
+		}
+		if (minReplicationThrottle < 1 || (maxReplicationThrottle > 0 && maxReplicationThrottle < minReplicationThrottle)) {
+			throw new IllegalArgumentException("replication throttle must be at least 1 and min <= max, got "
+					+ minReplicationThrottle + "/" + maxReplicationThrottle);
+		}
+		this.targetUtilization = targetUtilization;
+		this.minPartitionMovements = minPartitionMovements;
+		this.maxPartitionMovements = maxPartitionMovements;
+		this.minLeaderMovements = minLeaderMovements;
+		this.maxLeaderMovements = maxLeaderMovements;
+		this.minReplicationThrottle = minReplicationThrottle;
+		this.maxReplicationThrottle = maxReplicationThrottle;
+	}
+
+	/**
+	 * Computes the throttle for the current load
+	 *
+	 * @param brokerLoads load of the brokers
+	 * @return throttle, null if no alive broker is reported (cruise control
+	 *         defaults are then kept)
+	 */
+	public ExecutionThrottle compute(List<BrokerLoad> brokerLoads) {
+		double maxUtilization = -1;
+		double minHeadroomKBps = Double.POSITIVE_INFINITY;
+		for (BrokerLoad load : brokerLoads) {
+			if (!load.isAlive()) {
+				continue;
+			}
+			maxUtilization = Math.max(maxUtilization, load.getUtilization());
+			if (load.getNetworkInCapacity() > 0) {
+				minHeadroomKBps = Math.min(minHeadroomKBps,
+						targetUtilization * load.getNetworkInCapacity() - load.getNwInRate());
+			}
+			if (load.getNetworkOutCapacity() > 0) {
+				minHeadroomKBps = Math.min(minHeadroomKBps,
+						targetUtilization * load.getNetworkOutCapacity() - load.getNwOutRate());
+			}
+		}
+		if (maxUtilization < 0) {
+			return null;
+		}
+		double headroom = Math.max(0, Math.min(1, (targetUtilization - maxUtilization) / targetUtilization));
+		long replicationThrottle = minReplicationThrottle;
+		if (minHeadroomKBps != Double.POSITIVE_INFINITY) {
+			replicationThrottle = Math.max(minReplicationThrottle, (long) (minHeadroomKBps * 1024));
+		} else if (maxReplicationThrottle > 0) {
+			// no network capacity reported, the throttle follows the headroom of CPU
+			replicationThrottle = minReplicationThrottle
+					+ Math.round((maxReplicationThrottle - minReplicationThrottle) * headroom);
+		}
+		if (maxReplicationThrottle > 0) {
+			replicationThrottle = Math.min(maxReplicationThrottle, replicationThrottle);
+		}
+		return new ExecutionThrottle(scale(minPartitionMovements, maxPartitionMovements, headroom),
+				scale(minLeaderMovements, maxLeaderMovements, headroom), replicationThrottle);
+	}
+
+	private static int scale(int min, int max, double headroom) {
+		return min + (int) Math.round((max - min) * headroom);
+	}
+}
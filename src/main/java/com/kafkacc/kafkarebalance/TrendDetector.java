@@ -0,0 +1,288 @@
+package com.dassault_systemes.kafkarebalance;
+
+/**
+ * Incremental detector of the trend of the score variation, so that a single
+ * noisy sample doesn't make the unbalancing state flap nor trigger a
+ * rebalancing. <br/>
+ * The detector keeps an EWMA of the variations and the last variations of a
+ * sliding window (fixed-size ring buffer, constant memory), from which the
+ * slope is computed by least squares. The state is evaluated on the EWMA with
+ * the bands of {@link Rebalancer#evaluateBalencenessUsingScoreVariation}, and
+ * 'alert' (rebalancing) is only returned: <br/>
+ * - on a sustained trend: the last samples and the EWMA are all in the alert
+ * band, <br/>
+ * - or early, when the EWMA is at least unsafe and the slope predicts that the
+ * threshold is reached within the prediction horizon. <br/>
+ * The window is reset when no sample has been received for too long, the
+ * trend is then considered stale.
+ *
+ * @author SKI44
+ *
+ */
+public class TrendDetector {
+	public static final String SAFE = "safe";
+	public static final String UNSAFE = "unsafe";
+	public static final String ALERT = "alert";
+
+	public static final int DEFAULT_WINDOW_SIZE = 12;
+	public static final double DEFAULT_EWMA_ALPHA = 0.3;
+	public static final int DEFAULT_SUSTAINED_SAMPLES = 3;
+	public static final long DEFAULT_PREDICTION_HORIZON_MS = 30 * 60 * 1000L;
+	public static final long DEFAULT_MAX_SAMPLE_GAP_MS = 6 * 60 * 60 * 1000L;
+
+	static final double UNSAFE_RATIO = 0.7;
+	static final double ALERT_RATIO = 0.9;
+	/**
+	 * minimum number of samples in the window for a slope to be significant
+	 */
+	static final int MIN_SLOPE_SAMPLES = 3;
+
+	private final double alpha;
+	private final int sustainedSamples;
+	private final long predictionHorizonMs;
+	private final long maxSampleGapMs;
+
+	// ring buffer of the window, 'next' is the slot of the next sample
+	private final long[] timestamps;
+	private final double[] variations;
+	private int count;
+	private int next;
+	private double ewma;
+
+	/**
+	 * @param windowSize          number of samples the slope is computed on
+	 * @param alpha               weight of a new sample in the EWMA, in ]0, 1]
+	 * @param sustainedSamples    number of consecutive samples in the alert band
+	 *                            making a sustained trend
+	 * @param predictionHorizonMs time in ms within which a predicted breach of
+	 *                            the threshold triggers an early rebalancing
+	 * @param maxSampleGapMs      time in ms without sample after which the
+	 *                            window is reset
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public TrendDetector(int windowSize, double alpha, int sustainedSamples, long predictionHorizonMs,
+			long maxSampleGapMs) {
+		if (windowSize < MIN_SLOPE_SAMPLES) {
+			throw new IllegalArgumentException("trend window size must be at least " + MIN_SLOPE_SAMPLES + ", got "
+					+ windowSize);
+		}
+		if (!(alpha > 0 && alpha <= 1)) {
+			throw new IllegalArgumentException("EWMA alpha must be in ]0, 1], got " + alpha);
+		}
+		if (sustainedSamples < 1 || sustainedSamples > windowSize) {
+			throw new IllegalArgumentException(
+					"sustained samples must be between 1 and the window size, got " + sustainedSamples);
+		}
+		this.alpha = alpha;
+		this.sustainedSamples = sustainedSamples;
+		this.predictionHorizonMs = predictionHorizonMs;
+		this.maxSampleGapMs = maxSampleGapMs;
+		this.timestamps = new long[windowSize];
+		this.variations = new double[windowSize];
+	}
+
+	public TrendDetector() {
+		this(DEFAULT_WINDOW_SIZE, DEFAULT_EWMA_ALPHA, DEFAULT_SUSTAINED_SAMPLES, DEFAULT_PREDICTION_HORIZON_MS,
+				DEFAULT_MAX_SAMPLE_GAP_MS);
+	}
+
+	/**
+	 * Creates a detector from the 'trend.*' properties of a configuration
+	 *
+	 * @param config configuration
+	 * @return detector
+	 * @throws IllegalArgumentException if a property is out of range
+	 */
+	public static TrendDetector fromConfig(RebalancerConfig config) {
+		return new TrendDetector(config.getTrendWindowSize(), config.getTrendEwmaAlpha(),
+				config.getTrendSustainedSamples(), config.getTrendPredictionHorizonMs(),
+				config.getTrendMaxSampleGapMs());
+	}
+
+	/**
+	 * Adds a sample to the window and the EWMA
+	 *
+	 * @param timestampMs    time of the sample in ms
+	 * @param scoreVariation score variation measured
+	 */
+	public synchronized void add(long timestampMs, double scoreVariation) {
+		if (count > 0 && timestampMs - timestamps[last()] > maxSampleGapMs) {
+			reset();
+		}
+		ewma = count == 0 ? scoreVariation : alpha * scoreVariation + (1 - alpha) * ewma;
+		timestamps[next] = timestampMs;
+		variations[next] = scoreVariation;
+		next = (next + 1) % timestamps.length;
+		if (count < timestamps.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * Evaluates the trend of the samples added so far against a threshold
+	 *
+	 * @param unbalanceThreshold threshold of the score variation
+	 * @return assessment, in state 'safe' if no sample has been added
+	 */
+	public synchronized Assessment assess(double unbalanceThreshold) {
+		if (count == 0) {
+			return new Assessment(SAFE, Double.NaN, 0, Double.NaN, false, false);
+		}
+		double alertBand = unbalanceThreshold * ALERT_RATIO;
+		double unsafeBand = unbalanceThreshold * UNSAFE_RATIO;
+		double slopePerMs = slopePerMs();
+		double predicted = ewma + slopePerMs * predictionHorizonMs;
+		boolean sustained = ewma >= alertBand && trailingSamplesFrom(alertBand) >= sustainedSamples;
+		boolean predictedBreach = count >= MIN_SLOPE_SAMPLES && slopePerMs > 0 && ewma >= unsafeBand
+				&& predicted >= unbalanceThreshold;
+		String state;
+		if (sustained || predictedBreach) {
+			state = ALERT;
+		} else if (ewma >= unsafeBand || variations[last()] >= alertBand) {
+			// an alert that isn't sustained yet is only reported
+			state = UNSAFE;
+		} else {
+			state = SAFE;
+		}
+		return new Assessment(state, ewma, slopePerMs, predicted, sustained, predictedBreach);
+	}
+
+	/**
+	 * Adds a sample and evaluates the trend
+	 *
+	 * @param timestampMs        time of the sample in ms
+	 * @param scoreVariation     score variation measured
+	 * @param unbalanceThreshold threshold of the score variation
+	 * @return assessment
+	 */
+	public synchronized Assessment update(long timestampMs, double scoreVariation, double unbalanceThreshold) {
+		add(timestampMs, scoreVariation);
+		return assess(unbalanceThreshold);
+	}
+
+	/**
+	 * Forgets all samples
+	 */
+	public synchronized void reset() {
+		count = 0;
+		next = 0;
+		ewma = 0;
+	}
+
+	/**
+	 * @return number of samples in the window
+	 */
+	public synchronized int getSampleCount() {
+		return count;
+	}
+
+	private int last() {
+		return (next - 1 + timestamps.length) % timestamps.length;
+	}
+
+	/**
+	 * @return number of consecutive samples, from the last one, at or above a band
+	 */
+	private int trailingSamplesFrom(double band) {
+		int trailing = 0;
+		for (int i = 0, slot = last(); i < count && variations[slot] >= band; i++) {
+			trailing++;
+			slot = (slot - 1 + timestamps.length) % timestamps.length;
+		}
+		return trailing;
+	}
+
+	/**
+	 * Least squares slope of the window, times are taken relative to the last
+	 * sample to keep the sums small
+	 *
+	 * @return variation per ms, 0 if there are not enough samples
+	 */
+	private double slopePerMs() {
+		if (count < MIN_SLOPE_SAMPLES) {
+			return 0;
+		}
+		long origin = timestamps[last()];
+		double meanX = 0;
+		double meanY = 0;
+		for (int i = 0; i < count; i++) {
+			meanX += timestamps[i] - origin;
+			meanY += variations[i];
+		}
+		meanX /= count;
+		meanY /= count;
+		double covariance = 0;
+		double varianceX = 0;
+		for (int i = 0; i < count; i++) {
+			double dx = timestamps[i] - origin - meanX;
+			covariance += dx * (variations[i] - meanY);
+			varianceX += dx * dx;
+		}
+		return varianceX == 0 ? 0 : covariance / varianceX;
+	}
+
+	/**
+	 * Result of a trend evaluation
+	 */
+	public static class Assessment {
+		private final String state;
+		private final double ewma;
+		private final double slopePerMs;
+		private final double predictedVariation;
+		private final boolean sustained;
+		private final boolean predictedBreach;
+
+		Assessment(String state, double ewma, double slopePerMs, double predictedVariation, boolean sustained,
+				boolean predictedBreach) {
+			this.state = state;
+			this.ewma = ewma;
+			this.slopePerMs = slopePerMs;
+			this.predictedVariation = predictedVariation;
+			this.sustained = sustained;
+			this.predictedBreach = predictedBreach;
+		}
+
+		/**
+		 * @return 'safe', 'unsafe' or 'alert'
+		 */
+		public String getState() {
+			return state;
+		}
+
+		public double getEwma() {
+			return ewma;
+		}
+
+		public double getSlopePerHour() {
+			return slopePerMs * 3600000;
+		}
+
+		/**
+		 * @return variation predicted at the end of the prediction horizon
+		 */
+		public double getPredictedVariation() {
+			return predictedVariation;
+		}
+
+		/**
+		 * @return true if the last samples and the EWMA are in the alert band
+		 */
+		public boolean isSustained() {
+			return sustained;
+		}
+
+		/**
+		 * @return true if the slope predicts a breach of the threshold within the
+		 *         prediction horizon
+		 */
+		public boolean isPredictedBreach() {
+			return predictedBreach;
+		}
+
+		@Override
+		public String toString() {
+			return state + " (ewma=" + ewma + ", slope/h=" + getSlopePerHour() + ", predicted=" + predictedVariation
+					+ (sustained ? ", sustained" : "") + (predictedBreach ? ", predicted breach" : "") + ")";
+		}
+	}
+}
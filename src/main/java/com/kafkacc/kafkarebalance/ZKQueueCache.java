@@ -0,0 +1,282 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local cache of the children of a root Znode (the scaling operations queue) and
+ * of their data, kept up to date by ZK watches. <br/>
+ * Reads are served from memory. Watches only mark the cache stale, without
+ * any ZK call nor lock on the ZK event thread: the next read reloads what
+ * changed, a change of the children list costs one getChildren plus a getData
+ * for each new child only, a change of a child data costs one getData of that
+ * child. The cache is fully reloaded when the ZK session has been
+ * re-established (watches of an expired session are lost). Children are
+ * ordered by name.
+ *
+ * @author SKI44
+ *
+ */
+class ZKQueueCache {
+	private final static Logger logger = LoggerFactory.getLogger(ZKQueueCache.class);
+
+	private final String path;
+	private final ZKScheduler zkScheduler;
+	private final String host;
+
+	/**
+	 * children names with their data (UTF-8), ordered by name
+	 */
+	private final TreeMap<String, String> children = new TreeMap<String, String>();
+
+	/**
+	 * session the watches are registered on, null when the cache has to be
+	 * reloaded
+	 */
+	private volatile ZooKeeper session;
+
+	/**
+	 * true when the children list has changed since it was read
+	 */
+	private final AtomicBoolean childrenStale = new AtomicBoolean();
+
+	/**
+	 * children whose data has changed or which have been deleted since they were
+	 * read
+	 */
+	private final Set<String> staleData = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final Watcher childrenWatcher = new Watcher() {
+		public void process(WatchedEvent event) {
+			if (event.getType() == EventType.NodeChildrenChanged) {
+				childrenStale.set(true);
+			} else {
+				onOtherEvent(event);
+			}
+		}
+	};
+
+	private final Watcher dataWatcher = new Watcher() {
+		public void process(WatchedEvent event) {
+			if (event.getType() == EventType.NodeDataChanged || event.getType() == EventType.NodeDeleted) {
+				staleData.add(childName(event.getPath()));
+			} else {
+				onOtherEvent(event);
+			}
+		}
+	};
+
+	/**
+	 * @param path        root Znode path whose children are cached
+	 * @param zkScheduler scheduler whose shared session of the host is watched,
+	 *                    the reads go through it (retries and metrics)
+	 * @param host        commas separated of ZK servers IPs
+	 */
+	ZKQueueCache(String path, ZKScheduler zkScheduler, String host) {
+		this.path = path;
+		this.zkScheduler = zkScheduler;
+		this.host = host;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the first child by name order
+	 * @return name of the first child, empty String if there is none
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public synchronized String getFirstChild() throws KeeperException, InterruptedException, IOException {
+		ensureLoaded();
+		return children.isEmpty() ? "" : children.firstKey();
+	}
+
+	/**
+	 * @return names of the children ordered by name
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public synchronized List<String> getChildren() throws KeeperException, InterruptedException, IOException {
+		ensureLoaded();
+		return new ArrayList<String>(children.keySet());
+	}
+
+	/**
+	 * @param childName name of the child
+	 * @return data of the child, null if the child isn't in the queue
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public synchronized String getData(String childName) throws KeeperException, InterruptedException, IOException {
+		ensureLoaded();
+		return children.get(childName);
+	}
+
+	/**
+	 * @return data of the children ordered by children names
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public synchronized List<String> getAllData() throws KeeperException, InterruptedException, IOException {
+		ensureLoaded();
+		return new ArrayList<String>(children.values());
+	}
+
+	/**
+	 * @return consistent copy of the children names and data ordered by children
+	 *         names
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public synchronized Map<String, String> getEntries() throws KeeperException, InterruptedException, IOException {
+		ensureLoaded();
+		return new LinkedHashMap<String, String>(children);
+	}
+
+	/**
+	 * @param data data to look for
+	 * @return true if a child has the same data
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public synchronized boolean containsData(String data) throws KeeperException, InterruptedException, IOException {
+		ensureLoaded();
+		return children.containsValue(data);
+	}
+
+	/**
+	 * Applies locally a child creation done by this process, so that it is visible
+	 * before the watch fires. The child is marked stale so that its data watch is
+	 * set on next read (the children reload only reads the unknown children)
+	 */
+	synchronized void onCreated(String childName, String data) {
+		if (session != null) {
+			children.put(childName, data);
+			staleData.add(childName);
+		}
+	}
+
+	/**
+	 * Applies locally a child deletion done by this process
+	 */
+	synchronized void onDeleted(String childName) {
+		children.remove(childName);
+	}
+
+	/**
+	 * Applies locally a child data update done by this process
+	 */
+	synchronized void onUpdated(String childName, String data) {
+		if (session != null && children.containsKey(childName)) {
+			children.put(childName, data);
+		}
+	}
+
+	/**
+	 * Forces a full reload on next read
+	 */
+	void invalidate() {
+		session = null;
+	}
+
+	/**
+	 * Loads the cache if the session has changed, then reloads what the watches
+	 * have marked stale
+	 */
+	private void ensureLoaded() throws KeeperException, InterruptedException, IOException {
+		ZooKeeper zk = zkScheduler.getConnector(host).getZooKeeper();
+		try {
+			if (zk != session) {
+				children.clear();
+				// changes notified from now on are applied after the load
+				childrenStale.set(false);
+				staleData.clear();
+				session = zk;
+				loadChildren();
+				logger.debug("queue cache of " + path + " loaded with " + children.size() + " children");
+			}
+			if (childrenStale.getAndSet(false)) {
+				loadChildren();
+			}
+			Iterator<String> itr = staleData.iterator();
+			while (itr.hasNext()) {
+				String childName = itr.next();
+				itr.remove();
+				loadData(childName);
+			}
+		} catch (KeeperException | InterruptedException | RuntimeException e) {
+			session = null;
+			throw e;
+		}
+	}
+
+	private void onOtherEvent(WatchedEvent event) {
+		if (event.getState() == KeeperState.Expired) {
+			invalidate();
+		}
+	}
+
+	private void loadChildren() throws KeeperException, InterruptedException, IOException {
+		Set<String> names = new HashSet<String>(
+				zkScheduler.execute(host, "getChildren", zk -> zk.getChildren(path, childrenWatcher)));
+		Iterator<Map.Entry<String, String>> itr = children.entrySet().iterator();
+		while (itr.hasNext()) {
+			if (!names.contains(itr.next().getKey())) {
+				itr.remove();
+			}
+		}
+		for (String name : names) {
+			if (!children.containsKey(name)) {
+				loadData(name);
+			}
+		}
+	}
+
+	private void loadData(String childName) throws KeeperException, InterruptedException, IOException {
+		String data = zkScheduler.execute(host, "getData", zk -> {
+			try {
+				byte[] bytes = zk.getData(path + "/" + childName, dataWatcher, null);
+				return bytes == null ? "" : new String(bytes, StandardCharsets.UTF_8);
+			} catch (KeeperException.NoNodeException deletedMeanwhile) {
+				return null;
+			}
+		});
+		if (data == null) {
+			children.remove(childName);
+		} else {
+			children.put(childName, data);
+		}
+	}
+
+	private static String childName(String childPath) {
+		return childPath.substring(childPath.lastIndexOf('/') + 1);
+	}
+}
@@ -1,35 +1,73 @@
 package com.dassault_systemes.kafkarebalance;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Class of a ZK connector to establish/close connection with Zookeeper   
+ * Class of a ZK connector that manages one long-lived ZK session, the session is
+ * established on first use, re-established if it expires and shared by all
+ * operations until the connector is closed
  * @author SKI44
  *
  */
 class ZKConnector {
+	private final static Logger logger = LoggerFactory.getLogger(ZKConnector.class);
+
+	public static final int DEFAULT_SESSION_TIMEOUT_MS = 5000;
+
+	private final String host;
+	private final int sessionTimeoutMs;
+	private ZooKeeper zk;
+	/**
+	 * counted down when the session is connected, renewed when the connection is lost
+	 */
+	private volatile CountDownLatch connSignal = new CountDownLatch(1);
+	private boolean closed;
+
+	/**
+	 * @param host commas separated of ZK servers IPs
+	 * @param sessionTimeoutMs ZK session timeout in ms
+	 */
+	public ZKConnector(String host, int sessionTimeoutMs) {
+		this.host = host;
+		this.sessionTimeoutMs = sessionTimeoutMs;
+	}
+
+	public ZKConnector(String host) {
+		this(host, DEFAULT_SESSION_TIMEOUT_MS);
+	}
+
+	public String getHost() {
+		return host;
+	}
 
-	private static ZooKeeper zk;
-	private static java.util.concurrent.CountDownLatch connSignal = new java.util.concurrent.CountDownLatch(1);
-	
 	/**
 	 * Method to establish connection to Zookeeper cluster
 	 * @param host commas separated of ZK servers IPs
@@ -37,36 +75,410 @@ class ZKConnector {
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws IllegalStateException
+	 * @deprecated use {@link #getZooKeeper()}, the host is given at construction
 	 */
+	@Deprecated
 	public ZooKeeper connect(String host) throws IOException, InterruptedException, IllegalStateException {
-		zk = new ZooKeeper(host, 5000, new Watcher() {
-			public void process(WatchedEvent event) {
-				if (event.getState() == KeeperState.SyncConnected) {
-					connSignal.countDown();
-				}
+		if (!this.host.equals(host)) {
+			throw new IllegalStateException("connector is bound to " + this.host + ", not to " + host);
+		}
+		return getZooKeeper();
+	}
+
+	/**
+	 * Gets the ZK session, a new session is established if there is none yet or if
+	 * the previous one has expired. Waits for the session to be connected.
+	 * @return the ZK object of the connected session
+	 * @throws IOException if the session couldn't be connected within the session timeout
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if the connector has been closed
+	 */
+	public synchronized ZooKeeper getZooKeeper() throws IOException, InterruptedException, IllegalStateException {
+		if (closed) {
+			throw new IllegalStateException("ZK connector to " + host + " has been closed");
+		}
+		if (zk == null || !zk.getState().isAlive()) {
+			if (zk != null) {
+				logger.info("ZK session 0x" + Long.toHexString(zk.getSessionId()) + " to " + host
+						+ " has expired, establishing a new session");
+				zk.close();
 			}
-		});
-		connSignal.await();
+			connSignal = new CountDownLatch(1);
+			zk = new ZooKeeper(host, sessionTimeoutMs, new Watcher() {
+				public void process(WatchedEvent event) {
+					if (event.getType() != EventType.None) {
+						return;
+					}
+					if (event.getState() == KeeperState.SyncConnected) {
+						connSignal.countDown();
+					} else if (event.getState() == KeeperState.Disconnected && connSignal.getCount() == 0) {
+						connSignal = new CountDownLatch(1);
+					}
+				}
+			});
+		}
+		// wait for the (re)connection of the session, the ZK client reconnects by itself
+		// after a connection loss as long as the session hasn't expired
+		if (!zk.getState().isConnected() && !connSignal.await(sessionTimeoutMs, TimeUnit.MILLISECONDS)
+				&& !zk.getState().isConnected()) {
+			throw new IOException("ZK session to " + host + " couldn't be connected within " + sessionTimeoutMs + "ms");
+		}
 		return zk;
 	}
+
 	/**
 	 * Method to close ZK connection
 	 * @throws InterruptedException
 	 */
-	public void close() throws InterruptedException {
-		zk.close();
+	public synchronized void close() throws InterruptedException {
+		closed = true;
+		if (zk != null) {
+			zk.close();
+			zk = null;
+		}
 	}
 }
 /**
- * Class of ZK scheduler that provides helpful primitives (methods) to schedules scaling tasks through writes and retrieves of Znodes in different ways 
+ * Class of ZK scheduler that provides helpful primitives (methods) to schedules scaling tasks through writes and retrieves of Znodes in different ways.
+ * All operations on a same ZK host share one long-lived session, which is closed by {@link #close()}
  * @author SKI44
  *
  */
-public class ZKScheduler {
+public class ZKScheduler implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(ZKScheduler.class);
+
+	/**
+	 * number of attempts of an operation failing because of a connection loss or a session expiry
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * prefix of the sequential Znodes of the scaling operations queue, followed by the priority rank
+	 * (0 for the highest priority) and the sequence number assigned by ZK: "op-&lt;rank&gt;-&lt;sequence&gt;"
+	 */
+	public static final String SEQUENTIAL_ZNODE_PREFIX = "op-";
+
+	/**
+	 * name format of the Znodes of the legacy scaling operations queue
+	 */
+	public static final String LEGACY_ZNODE_NAME_FORMAT = "yyyy-MM-dd_HH:mm:ss.SSS";
+
+	/**
+	 * suffix of the path of the dedup index of a queue, see {@link #getIndexPath(String)}
+	 */
+	public static final String INDEX_PATH_SUFFIX = "Index";
+	/**
+	 * suffix of the root path of the leader election of a queue, sibling of the queue root
+	 */
+	public static final String LEADER_PATH_SUFFIX = "Leader";
+	/**
+	 * suffix of the root path of the in-flight cruise control tasks of a queue, sibling of the queue root
+	 */
+	public static final String TASKS_PATH_SUFFIX = "Tasks";
+	/**
+	 * suffix of the root path of the data movement ledger of a queue, sibling of the queue root
+	 */
+	public static final String MOVEMENTS_PATH_SUFFIX = "Movements";
+	/**
+	 * suffix of the path of the marker Znode of a prepared queue, sibling of the queue root, see
+	 * {@link #prepareQueue(String, String)}
+	 */
+	public static final String PREPARED_PATH_SUFFIX = "Prepared";
+
+	/**
+	 * ZK operation executed on the shared session
+	 */
+	interface ZKOperation<T> {
+		T execute(ZooKeeper zk) throws KeeperException, InterruptedException;
+	}
+
+	private final Map<String, ZKConnector> connectors = new ConcurrentHashMap<String, ZKConnector>();
+	/**
+	 * watch-backed caches of queue root Znodes, by host and root path
+	 */
+	private final Map<String, ZKQueueCache> queueCaches = new ConcurrentHashMap<String, ZKQueueCache>();
+	/**
+	 * leader elections by host and queue root path
+	 */
+	private final Map<String, LeaderElection> leaderElections = new ConcurrentHashMap<String, LeaderElection>();
+	/**
+	 * in-flight task registries by host and queue root path
+	 */
+	private final Map<String, InFlightTaskRegistry> taskRegistries = new ConcurrentHashMap<String, InFlightTaskRegistry>();
+	/**
+	 * data movement ledgers by host and queue root path
+	 */
+	private final Map<String, DataMovementLedger> movementLedgers = new ConcurrentHashMap<String, DataMovementLedger>();
+	/**
+	 * host and queue root path of the queues known to be prepared
+	 */
+	private final Set<String> preparedQueues = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final int sessionTimeoutMs;
+	private final RebalancerMetrics metrics = RebalancerMetrics.getDefault();
+
+	public ZKScheduler() {
+		this(ZKConnector.DEFAULT_SESSION_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param sessionTimeoutMs ZK session timeout in ms of the managed sessions
+	 */
+	public ZKScheduler(int sessionTimeoutMs) {
+		this.sessionTimeoutMs = sessionTimeoutMs;
+	}
+
+	/**
+	 * Gets the connector managing the session to a ZK host, created on first use
+	 * @param host commas separated of ZK servers IPs
+	 * @return connector of the host
+	 */
+	ZKConnector getConnector(String host) {
+		ZKConnector zkc = connectors.get(host);
+		if (zkc == null) {
+			synchronized (connectors) {
+				zkc = connectors.get(host);
+				if (zkc == null) {
+					zkc = new ZKConnector(host, sessionTimeoutMs);
+					connectors.put(host, zkc);
+				}
+			}
+		}
+		return zkc;
+	}
+
+	/**
+	 * Gets the watch-backed cache of the children of a root Znode, created on first use
+	 * @param path root path to cache children Znodes from
+	 * @param host commas separated of ZK servers IPs
+	 * @return cache of the root Znode
+	 */
+	ZKQueueCache getQueueCache(String path, String host) {
+		String key = host + path;
+		ZKQueueCache cache = queueCaches.get(key);
+		if (cache == null) {
+			synchronized (queueCaches) {
+				cache = queueCaches.get(key);
+				if (cache == null) {
+					cache = new ZKQueueCache(path, this, host);
+					queueCaches.put(key, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Gets the leader election of the instances processing a queue, created on first use. The instance is
+	 * identified by its JVM name ('pid@hostname')
+	 * @param path root path of the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @return leader election, whose candidates are registered under the path suffixed by
+	 * {@link #LEADER_PATH_SUFFIX}
+	 */
+	public LeaderElection getLeaderElection(String path, String host) {
+		String key = host + path;
+		LeaderElection election = leaderElections.get(key);
+		if (election == null) {
+			synchronized (leaderElections) {
+				election = leaderElections.get(key);
+				if (election == null) {
+					election = new LeaderElection(this, host, path + LEADER_PATH_SUFFIX,
+							ManagementFactory.getRuntimeMXBean().getName());
+					leaderElections.put(key, election);
+				}
+			}
+		}
+		return election;
+	}
+
+	/**
+	 * Gets the registry of the in-flight cruise control tasks launched for a queue, created on first use
+	 * @param path root path of the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @return task registry, whose tasks are recorded under the path suffixed by {@link #TASKS_PATH_SUFFIX}
+	 */
+	public InFlightTaskRegistry getInFlightTaskRegistry(String path, String host) {
+		String key = host + path;
+		InFlightTaskRegistry registry = taskRegistries.get(key);
+		if (registry == null) {
+			synchronized (taskRegistries) {
+				registry = taskRegistries.get(key);
+				if (registry == null) {
+					registry = new InFlightTaskRegistry(this, host, path + TASKS_PATH_SUFFIX);
+					taskRegistries.put(key, registry);
+				}
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Gets the ledger of the data moved by the rebalances launched for a queue, created on first use
+	 * @param path root path of the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @return data movement ledger, whose entries are recorded under the path suffixed by
+	 * {@link #MOVEMENTS_PATH_SUFFIX}
+	 */
+	public DataMovementLedger getDataMovementLedger(String path, String host) {
+		String key = host + path;
+		DataMovementLedger ledger = movementLedgers.get(key);
+		if (ledger == null) {
+			synchronized (movementLedgers) {
+				ledger = movementLedgers.get(key);
+				if (ledger == null) {
+					ledger = new DataMovementLedger(this, host, path + MOVEMENTS_PATH_SUFFIX);
+					movementLedgers.put(key, ledger);
+				}
+			}
+		}
+		return ledger;
+	}
+
+	/**
+	 * @return cache of the parent Znode of path if it is cached, null otherwise
+	 */
+	private ZKQueueCache getParentQueueCache(String path, String host) {
+		int lastSlash = path.lastIndexOf('/');
+		if (lastSlash <= 0) {
+			return null;
+		}
+		return queueCaches.get(host + path.substring(0, lastSlash));
+	}
+
+	private static String znodeName(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Executes a read or an idempotent write on the shared session of a ZK host, the operation is retried
+	 * when the connection is lost or the session has expired
+	 * @param host commas separated of ZK servers IPs
+	 * @param operationName name of the operation in the metrics (e.g. 'getData', 'setData')
+	 * @param operation operation to execute
+	 * @return result of the operation
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	<T> T execute(String host, String operationName, ZKOperation<T> operation)
+			throws KeeperException, InterruptedException, IOException {
+		return execute(host, operationName, operation, MAX_ATTEMPTS);
+	}
+
+	/**
+	 * Executes a write which can't be blindly retried (create, delete, multi) on the shared session of a ZK
+	 * host. When the connection is lost or the session has expired the outcome of the write is unknown: it
+	 * is read back with the given check, the result of the check is returned if the write has been applied,
+	 * otherwise the write is attempted again.
+	 * @param host commas separated of ZK servers IPs
+	 * @param operationName name of the operation in the metrics (e.g. 'create', 'multi')
+	 * @param operation write to execute
+	 * @param outcome read returning the result of the write if it has been applied, null otherwise
+	 * @return result of the write
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	<T> T executeChecked(String host, String operationName, ZKOperation<T> operation, ZKOperation<T> outcome)
+			throws KeeperException, InterruptedException, IOException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				return execute(host, operationName, operation, 1);
+			} catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+				T applied = execute(host, "exists", outcome);
+				if (applied != null) {
+					logger.info("ZK " + operationName + " on " + host + " failed (" + e.code() + ") but has been applied");
+					return applied;
+				}
+				if (attempt >= MAX_ATTEMPTS) {
+					throw e;
+				}
+				logger.warn("ZK " + operationName + " failed on " + host + " (" + e.code()
+						+ ") and hasn't been applied, retrying (" + attempt + "/" + MAX_ATTEMPTS + ")");
+			}
+		}
+	}
+
+	private <T> T execute(String host, String operationName, ZKOperation<T> operation, int maxAttempts)
+			throws KeeperException, InterruptedException, IOException {
+		ZKConnector zkc = getConnector(host);
+		long start = System.nanoTime();
+		try {
+			for (int attempt = 1;; attempt++) {
+				try {
+					return operation.execute(zkc.getZooKeeper());
+				} catch (KeeperException.ConnectionLossException | KeeperException.SessionExpiredException e) {
+					if (attempt >= maxAttempts) {
+						throw e;
+					}
+					logger.warn("ZK operation failed on " + host + " (" + e.code() + "), retrying (" + attempt + "/"
+							+ maxAttempts + ")");
+				}
+			}
+		} catch (KeeperException e) {
+			metrics.increment(RebalancerMetrics.ZK_ERRORS, "operation", operationName, "code", e.code().name());
+			throw e;
+		} finally {
+			metrics.observeNanos(RebalancerMetrics.ZK_OPERATION_DURATION, System.nanoTime() - start, "operation",
+					operationName);
+		}
+	}
+
+	/**
+	 * Finds the sequential queue Znode holding an operation, by its payload (the payload holds the enqueue
+	 * time of the operation)
+	 * @return full path of the queue Znode, null if there is none
+	 */
+	private static String findQueuedZNode(ZooKeeper zk, String path, ScalingOperation operation)
+			throws KeeperException, InterruptedException {
+		String prefix = znodeName(sequentialZNodePrefix(path, operation));
+		byte[] payload = operation.toBytes();
+		for (String child : zk.getChildren(path, false)) {
+			if (child.startsWith(prefix)) {
+				try {
+					if (Arrays.equals(payload, zk.getData(path + "/" + child, false, null))) {
+						return path + "/" + child;
+					}
+				} catch (KeeperException.NoNodeException deletedMeanwhile) {
+					// not the one
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return check of a deletion outcome: true once the Znode doesn't exist anymore
+	 */
+	private static ZKOperation<Boolean> deleted(String path) {
+		return zk -> zk.exists(path, false) == null ? Boolean.TRUE : null;
+	}
+
+	/**
+	 * Closes all ZK sessions opened by this scheduler
+	 * @throws InterruptedException
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		// candidates are withdrawn while the sessions are still open
+		synchronized (leaderElections) {
+			for (LeaderElection election : leaderElections.values()) {
+				election.close();
+			}
+			leaderElections.clear();
+		}
+		taskRegistries.clear();
+		movementLedgers.clear();
+		preparedQueues.clear();
+		queueCaches.clear();
+		synchronized (connectors) {
+			for (ZKConnector zkc : connectors.values()) {
+				zkc.close();
+			}
+			connectors.clear();
+		}
+	}
 
-	private static ZooKeeper zk;
-	private static ZKConnector zkc;
-	
 	/**
 	 * Creates a Znode as a child in a particular path and writes data in 
 	 * @param path path to create Znode in  
@@ -79,10 +491,394 @@ public class ZKScheduler {
 	 */
 	public void writeZNodeData(String path, byte[] data, String host)
 			throws KeeperException, InterruptedException, IllegalStateException, IOException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		executeChecked(host, "create", zk -> zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT),
+				zk -> {
+					try {
+						return Arrays.equals(data, zk.getData(path, false, null)) ? path : null;
+					} catch (KeeperException.NoNodeException notCreated) {
+						return null;
+					}
+				});
+		ZKQueueCache cache = getParentQueueCache(path, host);
+		if (cache != null) {
+			cache.onCreated(znodeName(path), new String(data, "UTF-8"));
+		}
+	}
+
+	/**
+	 * Gets the path of the dedup index of a queue: a sibling of the queue root whose children are named by
+	 * operation key ("brokerId-operation") of the scheduled operations
+	 * @param path root path of the queue
+	 * @return root path of the index
+	 */
+	public static String getIndexPath(String path) {
+		return path + INDEX_PATH_SUFFIX;
+	}
+
+	/**
+	 * Schedules a scaling operation in the queue as a sequential Znode, named so that queue children
+	 * ordered by name are ordered by priority then by scheduling order. The queue Znode and its dedup index
+	 * Znode are created in a same transaction, so an operation can't be scheduled twice.
+	 * @param path root path of the queue
+	 * @param operation scaling operation to schedule
+	 * @param host commas separated of ZK servers IPs
+	 * @return name of the created Znode, null if a similar operation is already scheduled
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public String enqueueScalingOperation(String path, ScalingOperation operation, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		// legacy operations are migrated first, so that they are sequenced before this one
+		prepareQueue(path, host);
+		List<Op> ops = Arrays.asList(
+				Op.create(sequentialZNodePrefix(path, operation), operation.toBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+						CreateMode.PERSISTENT_SEQUENTIAL),
+				Op.create(getIndexPath(path) + "/" + operation.getKey(), operation.toBytes(),
+						ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+		String indexZNodePath = getIndexPath(path) + "/" + operation.getKey();
+		// the index Znode is created with the queue Znode: holding this operation, the transaction has been applied
+		ZKOperation<String> enqueue = zk -> ((OpResult.CreateResult) zk.multi(ops).get(0)).getPath();
+		ZKOperation<String> outcome = zk -> {
+			try {
+				if (!Arrays.equals(operation.toBytes(), zk.getData(indexZNodePath, false, null))) {
+					return null;
+				}
+			} catch (KeeperException.NoNodeException notScheduled) {
+				return null;
+			}
+			return findQueuedZNode(zk, path, operation);
+		};
+		String createdPath;
+		try {
+			try {
+				createdPath = executeChecked(host, "multi", enqueue, outcome);
+			} catch (KeeperException.NoNodeException noIndexRoot) {
+				createIfMissing(getIndexPath(path), host);
+				createdPath = executeChecked(host, "multi", enqueue, outcome);
+			}
+		} catch (KeeperException.NodeExistsException alreadyScheduled) {
+			return null;
+		}
+		ZKQueueCache cache = getParentQueueCache(createdPath, host);
+		if (cache != null) {
+			cache.onCreated(znodeName(createdPath), operation.toJSON());
+		}
+		return znodeName(createdPath);
+	}
+
+	/**
+	 * Removes a scaling operation from the queue. Its dedup index Znode is deleted in the same transaction,
+	 * unless another queue Znode holds a similar operation (legacy queues may hold duplicates)
+	 * @param path root path of the queue
+	 * @param znodeName name of the queue Znode to delete
+	 * @param host commas separated of ZK servers IPs
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public void dequeueScalingOperation(String path, String znodeName, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		ZKQueueCache cache = getQueueCache(path, host);
+		String data = cache.getData(znodeName);
+		String key = null;
+		if (data != null) {
+			try {
+				key = ScalingOperation.parse(data).getKey();
+			} catch (IllegalArgumentException notAScalingOperation) {
+				// no index entry
+			}
+		}
+		if (key == null || countOperations(cache, key) > 1) {
+			deleteZNode(path + "/" + znodeName, host);
+			return;
+		}
+		String indexZNodePath = getIndexPath(path) + "/" + key;
+		try {
+			executeChecked(host, "multi", zk -> zk.multi(Arrays.asList(Op.delete(path + "/" + znodeName, -1),
+					Op.delete(indexZNodePath, -1))) != null, deleted(path + "/" + znodeName));
+		} catch (KeeperException.NoNodeException noIndexEntry) {
+			// index entry missing (operation scheduled before the index existed)
+			deleteZNode(path + "/" + znodeName, host);
+			return;
+		}
+		cache.onDeleted(znodeName);
+	}
+
+	/**
+	 * Takes the compatible operations at the head of the queue: the head operation and the following ones
+	 * with the same operation type, up to the first operation of another type so that operations are never
+	 * reordered. Operations are left in the queue, see {@link #dequeueScalingBatch(String, ScalingBatch, String)}
+	 * @param path root path of the queue
+	 * @param maxSize maximum number of Znodes in the batch
+	 * @param host commas separated of ZK servers IPs
+	 * @return the batch, null if the queue is empty or its head isn't a scaling operation
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public ScalingBatch getScalingBatch(String path, int maxSize, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		ScalingBatch batch = null;
+		for (Map.Entry<String, String> child : getQueueCache(path, host).getEntries().entrySet()) {
+			ScalingOperation operation;
+			try {
+				operation = ScalingOperation.parse(child.getValue());
+			} catch (IllegalArgumentException notAScalingOperation) {
+				break;
+			}
+			if (batch == null) {
+				batch = new ScalingBatch(operation.getOperation());
+			} else if (!batch.getOperation().equals(operation.getOperation())
+					|| batch.getZnodeNames().size() >= maxSize) {
+				break;
+			}
+			batch.add(child.getKey(), operation);
+		}
+		return batch;
+	}
+
+	/**
+	 * Removes the operations of a batch from the queue in one transaction, with the dedup index Znodes of
+	 * their keys (unless other queue Znodes outside the batch hold similar operations)
+	 * @param path root path of the queue
+	 * @param batch batch taken from the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public void dequeueScalingBatch(String path, ScalingBatch batch, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		ZKQueueCache cache = getQueueCache(path, host);
+		List<Op> queueOps = new ArrayList<Op>();
+		for (String znodeName : batch.getZnodeNames()) {
+			queueOps.add(Op.delete(path + "/" + znodeName, -1));
+		}
+		List<Op> ops = new ArrayList<Op>(queueOps);
+		for (Integer brokerId : batch.getBrokerIds()) {
+			String key = new ScalingOperation(brokerId, batch.getOperation()).getKey();
+			int queued = countOperations(cache, key);
+			int batched = 0;
+			for (String znodeName : batch.getZnodeNames()) {
+				String data = cache.getData(znodeName);
+				if (data != null && key.equals(ScalingOperation.parse(data).getKey())) {
+					batched++;
+				}
+			}
+			if (queued == batched) {
+				ops.add(Op.delete(getIndexPath(path) + "/" + key, -1));
+			}
+		}
+		// the queue Znodes are deleted together: the transaction has been applied if the first one is gone
+		ZKOperation<Boolean> outcome = deleted(path + "/" + batch.getZnodeNames().get(0));
+		try {
+			executeChecked(host, "multi", zk -> zk.multi(ops) != null, outcome);
+		} catch (KeeperException.NoNodeException noIndexEntry) {
+			// index entries missing (operations scheduled before the index existed), the queue Znodes are
+			// still removed atomically and the index is repaired afterwards
+			executeChecked(host, "multi", zk -> zk.multi(queueOps) != null, outcome);
+			for (String znodeName : batch.getZnodeNames()) {
+				cache.onDeleted(znodeName);
+			}
+			reconcileQueueIndex(path, host);
+			return;
+		}
+		for (String znodeName : batch.getZnodeNames()) {
+			cache.onDeleted(znodeName);
+		}
+	}
+
+	/**
+	 * @return number of cached queue Znodes holding an operation with the given key
+	 */
+	private static int countOperations(ZKQueueCache cache, String key)
+			throws KeeperException, InterruptedException, IOException {
+		int count = 0;
+		for (String znodeData : cache.getAllData()) {
+			try {
+				if (key.equals(ScalingOperation.parse(znodeData).getKey())) {
+					count++;
+				}
+			} catch (IllegalArgumentException notAScalingOperation) {
+				// not comparable
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Makes the dedup index of a queue match the operations in the queue: missing index Znodes are created and
+	 * index Znodes without operation in the queue are deleted. Needed for queues scheduled before the index
+	 * existed.
+	 * @param path root path of the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public void reconcileQueueIndex(String path, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		String indexPath = getIndexPath(path);
+		createIfMissing(indexPath, host);
+		Map<String, String> queuedKeys = new HashMap<String, String>();
+		for (String znodeData : getQueueCache(path, host).getAllData()) {
+			try {
+				ScalingOperation operation = ScalingOperation.parse(znodeData);
+				queuedKeys.put(operation.getKey(), operation.toJSON());
+			} catch (IllegalArgumentException notAScalingOperation) {
+				// not indexed
+			}
+		}
+		Set<String> indexedKeys = new HashSet<String>(
+				execute(host, "getChildren", zk -> zk.getChildren(indexPath, false)));
+		for (Map.Entry<String, String> queuedKey : queuedKeys.entrySet()) {
+			if (!indexedKeys.contains(queuedKey.getKey())) {
+				createIfMissing(indexPath + "/" + queuedKey.getKey(), queuedKey.getValue().getBytes("UTF-8"), host);
+			}
+		}
+		for (String indexedKey : indexedKeys) {
+			if (!queuedKeys.containsKey(indexedKey)) {
+				try {
+					deleteZNode(indexPath + "/" + indexedKey, host);
+				} catch (KeeperException.NoNodeException deletedMeanwhile) {
+					// already deleted
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a persistent Znode without data if it doesn't exist yet (its parent must exist)
+	 */
+	void createIfMissing(String path, String host)
+			throws KeeperException, InterruptedException, IOException {
+		createIfMissing(path, new byte[0], host);
+	}
+
+	private void createIfMissing(String path, byte[] data, String host)
+			throws KeeperException, InterruptedException, IOException {
+		try {
+			execute(host, "create", zk -> zk.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+		} catch (KeeperException.NodeExistsException alreadyCreated) {
+			// nothing to do
+		}
+	}
+
+	private static String sequentialZNodePrefix(String path, ScalingOperation operation) {
+		return path + "/" + SEQUENTIAL_ZNODE_PREFIX + (ScalingOperation.MAX_PRIORITY - operation.getPriority()) + "-";
+	}
+
+	/**
+	 * @param znodeName name of a queue Znode
+	 * @return true if the Znode has been created in the legacy timestamp named format
+	 */
+	public static boolean isLegacyZNodeName(String znodeName) {
+		return !znodeName.startsWith(SEQUENTIAL_ZNODE_PREFIX);
+	}
+
+	/**
+	 * Prepares a queue once for all instances: the Znodes of the legacy queue are migrated to sequential
+	 * Znodes and the dedup index is reconciled, then a marker Znode (sibling of the queue root) records that
+	 * the queue is prepared. The next calls only check the marker, once per scheduler. Operations are
+	 * scheduled after the preparation, so that migrated operations keep their place before them in the queue.
+	 * @param path root path of the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public void prepareQueue(String path, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		String key = host + path;
+		if (preparedQueues.contains(key)) {
+			return;
+		}
+		String markerPath = path + PREPARED_PATH_SUFFIX;
+		if (execute(host, "exists", zk -> zk.exists(markerPath, false)) == null) {
+			migrateLegacyQueue(path, host);
+			reconcileQueueIndex(path, host);
+			createIfMissing(markerPath, host);
+			logger.info("queue " + path + " has been prepared");
+		}
+		preparedQueues.add(key);
+	}
+
+	/**
+	 * Migrates the Znodes of the legacy queue (named in format "yyyy-MM-dd_HH:mm:ss.SSS") to sequential
+	 * Znodes with a structured payload, in chronological order. Each Znode is migrated atomically (the
+	 * sequential Znode is created and the legacy one deleted in a same transaction), the enqueue time is
+	 * taken from the legacy Znode name. Znodes whose name or data can't be read as a legacy operation are
+	 * logged and left in the queue.
+	 * @param path root path of the queue
+	 * @param host commas separated of ZK servers IPs
+	 * @return number of migrated Znodes
+	 * @throws KeeperException
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 * @throws IOException
+	 */
+	public int migrateLegacyQueue(String path, String host)
+			throws KeeperException, InterruptedException, IllegalStateException, IOException {
+		ZKQueueCache cache = getQueueCache(path, host);
+		int migrated = 0;
+		// legacy names are ordered by name in chronological order
+		for (String znodeName : cache.getChildren()) {
+			if (!isLegacyZNodeName(znodeName)) {
+				continue;
+			}
+			String legacyData = cache.getData(znodeName);
+			if (legacyData == null) {
+				continue; // deleted meanwhile
+			}
+			ScalingOperation operation;
+			try {
+				ScalingOperation legacyOperation = ScalingOperation.parse(legacyData);
+				operation = new ScalingOperation(legacyOperation.getBrokerId(), legacyOperation.getOperation(),
+						new SimpleDateFormat(LEGACY_ZNODE_NAME_FORMAT).parse(znodeName).getTime(),
+						legacyOperation.getPriority());
+			} catch (ParseException | IllegalArgumentException e) {
+				logger.warn("Znode " + znodeName + " of " + path + " isn't a legacy scaling operation, it isn't migrated: "
+						+ e.getMessage());
+				continue;
+			}
+			String legacyPath = path + "/" + znodeName;
+			String createdPath;
+			try {
+				createdPath = executeChecked(host, "multi", zk -> ((OpResult.CreateResult) zk.multi(Arrays.asList(
+						Op.create(sequentialZNodePrefix(path, operation), operation.toBytes(),
+								ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL),
+						Op.delete(legacyPath, -1))).get(0)).getPath(),
+						zk -> {
+							if (zk.exists(legacyPath, false) != null) {
+								return null;
+							}
+							String migratedPath = findQueuedZNode(zk, path, operation);
+							if (migratedPath == null) {
+								throw new KeeperException.NoNodeException(legacyPath);
+							}
+							return migratedPath;
+						});
+			} catch (KeeperException.NoNodeException deletedMeanwhile) {
+				cache.onDeleted(znodeName);
+				continue;
+			}
+			cache.onDeleted(znodeName);
+			cache.onCreated(znodeName(createdPath), operation.toJSON());
+			migrated++;
+		}
+		if (migrated > 0) {
+			logger.info(migrated + " scaling operations of " + path + " have been migrated to sequential Znodes");
+		}
+		return migrated;
 	}
+
 	/**
 	 * Get data from a particular Znode
 	 * @param path full path of the Znode (ending by Znode name) to get data from
@@ -95,9 +891,14 @@ public class ZKScheduler {
 	 */
 	public String getZNodeData(String path, String host)
 			throws KeeperException, InterruptedException, IllegalStateException, IOException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		byte[] data = zk.getData(path, null, null);
+		ZKQueueCache cache = getParentQueueCache(path, host);
+		if (cache != null) {
+			String cachedData = cache.getData(znodeName(path));
+			if (cachedData != null) {
+				return cachedData;
+			}
+		}
+		byte[] data = execute(host, "getData", zk -> zk.getData(path, null, null));
 		return new String(data, "UTF-8");
 	}
 	/**
@@ -111,22 +912,26 @@ public class ZKScheduler {
 	 * @throws KeeperException
 	 */
 	public void updateZnodeData(String path, String host, String data) throws IllegalStateException, IOException, InterruptedException, KeeperException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		zk.setData(path, data.getBytes(), -1);
+		execute(host, "setData", zk -> zk.setData(path, data.getBytes(), -1));
+		ZKQueueCache cache = getParentQueueCache(path, host);
+		if (cache != null) {
+			cache.onUpdated(znodeName(path), data);
+		}
 	}
 	
 	
 	/**
-	 * Particular method to parse Scaling data by broker id and scaling type  
+	 * Particular method to parse Scaling data by broker id and scaling type (JSON or legacy "brokerId-operation" payloads)
 	 * @param scalingMetadata scaling data in Znodes to parse 
 	 * @return Map with data parsed in keys-values
 	 */
 	public Map<String, String> parseZNodeData(String scalingMetadata) {
 		Map<String, String> parsedDataMap = new HashMap<String, String>();
-		String[] splittedData = scalingMetadata.split("-");
-		parsedDataMap.put("broker-id", splittedData[0]);
-		parsedDataMap.put("operation", splittedData[1]);
+		ScalingOperation operation = ScalingOperation.parse(scalingMetadata);
+		parsedDataMap.put("broker-id", String.valueOf(operation.getBrokerId()));
+		parsedDataMap.put("operation", operation.getOperation());
+		parsedDataMap.put("enqueue-time", String.valueOf(operation.getEnqueueTime()));
+		parsedDataMap.put("priority", String.valueOf(operation.getPriority()));
 
 		return parsedDataMap;
 
@@ -143,16 +948,21 @@ public class ZKScheduler {
 	 */
 	public void deleteZNode(String path, String host)
 			throws KeeperException, InterruptedException, IllegalStateException, IOException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		zk.delete(path, -1);
+		executeChecked(host, "delete", zk -> {
+			zk.delete(path, -1);
+			return Boolean.TRUE;
+		}, deleted(path));
+		ZKQueueCache cache = getParentQueueCache(path, host);
+		if (cache != null) {
+			cache.onDeleted(znodeName(path));
+		}
 	}
 	
 	/**
 	 * Gets all children of a particular root Znode 
 	 * @param path root path to get children Znodes from
 	 * @param host commas separated of ZK servers IPs
-	 * @return List of Znodes names (null if Znode root is a leaf)
+	 * @return List of Znodes names (empty if Znode root is a leaf)
 	 * @throws KeeperException
 	 * @throws InterruptedException
 	 * @throws IllegalStateException
@@ -161,21 +971,18 @@ public class ZKScheduler {
 	 */
 	public List<String> getChildren(String path, String host)
 			throws KeeperException, InterruptedException, IllegalStateException, IOException, ParseException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		List<String> ChildrenZNodes = zk.getChildren(path, true);
-		try {
-			return ChildrenZNodes;
-		} catch (NoSuchElementException emptyZnodeRootError) {
-			return null;
-		}
+		ZKQueueCache cache = queueCaches.get(host + path);
+		return cache != null ? cache.getChildren() : execute(host, "getChildren", zk -> zk.getChildren(path, false));
 	}
 	
 	/**
-	 * Gets the first child created among Znode root children named in format "yyyy-MM-dd_HH:mm:ss.SSS"
+	 * Gets the head of the scaling operations queue: the first child among Znode root children ordered by
+	 * name. Legacy children named in format "yyyy-MM-dd_HH:mm:ss.SSS" come first in chronological order,
+	 * then sequential children by priority and scheduling order, so no date parsing nor sort is needed.
+	 * The children are served from the watch-backed cache of the root path
 	 * @param path root path to get children Znodes from
 	 * @param host commas separated of ZK servers IPs
-	 * @return the earliest Znode child created  
+	 * @return the head Znode child (empty String if there is none)
 	 * @throws KeeperException
 	 * @throws InterruptedException
 	 * @throws IllegalStateException
@@ -184,27 +991,13 @@ public class ZKScheduler {
 	 */
 	public String getZNodeEarliestChild(String path, String host)
 			throws KeeperException, InterruptedException, IllegalStateException, IOException, ParseException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		List<String> ChildrenZNodes = zk.getChildren(path, true);
-		List<Date> ChildrenZNodesDates = new ArrayList<Date>();
-		Iterator<String> itr = ChildrenZNodes.iterator();
-		while (itr.hasNext()) {
-			ChildrenZNodesDates.add(new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss.SSS").parse(itr.next()));
-		}
-		Collections.sort(ChildrenZNodesDates);
-		Iterator<Date> itrDate = ChildrenZNodesDates.iterator();
-		try {
-			return new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss.SSS").format(itrDate.next());
-		} catch (NoSuchElementException emptyZnodeRootError) {
-			return "";
-		}
+		return getQueueCache(path, host).getFirstChild();
 	}
-	
-	
-	
+
 	/**
-	 * Checks if children Znodes in a root path has same data as data-input
+	 * Checks if children Znodes in a root path has same data as data-input. Scaling operations are looked
+	 * up by operation key ("brokerId-operation") in the dedup index of the queue with a single exists(),
+	 * other data is compared with the watch-backed cache of the root path
 	 * @param path root path to get children Znodes from
 	 * @param host commas separated of ZK servers IPs
 	 * @param data data-input to compare with 
@@ -216,20 +1009,13 @@ public class ZKScheduler {
 	 */
 	public boolean checkForSimilarZnode(String path, String host, String data)
 			throws IllegalStateException, IOException, InterruptedException, KeeperException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		List<String> ChildrenZNodes = zk.getChildren(path, true);
-		Iterator<String> itrChild = ChildrenZNodes.iterator();
+		String key;
 		try {
-			while (itrChild.hasNext()) {
-				if (getZNodeData(path + "/" + itrChild.next(), host).equals(data)) {
-					return true;
-				}
-			}
-			return false;
-		} catch (NoSuchElementException emptyZnodeRootError) {
-			return false;
+			key = ScalingOperation.parse(data).getKey();
+		} catch (IllegalArgumentException notAScalingOperation) {
+			return getQueueCache(path, host).containsData(data);
 		}
+		return execute(host, "exists", zk -> zk.exists(getIndexPath(path) + "/" + key, false)) != null;
 	}
 	/**
 	 * hecks if children Znodes in a root path has same name as a given Znode name
@@ -244,22 +1030,14 @@ public class ZKScheduler {
 	 */
 	public boolean checkForSimilarZnodeName(String path, String host, String znodeName)
 			throws IllegalStateException, IOException, InterruptedException, KeeperException {
-		zkc = new ZKConnector();
-		zk = zkc.connect(host);
-		List<String> ChildrenZNodes = zk.getChildren(path, true);
+		List<String> ChildrenZNodes = execute(host, "getChildren", zk -> zk.getChildren(path, false));
 		Iterator<String> itrChild = ChildrenZNodes.iterator();
-		try {
-
-			while (itrChild.hasNext()) {
-				if (itrChild.next().equals(znodeName)) {
-					return true;
-				}
+		while (itrChild.hasNext()) {
+			if (itrChild.next().equals(znodeName)) {
+				return true;
 			}
-			return false;
-		} catch (NoSuchElementException emptyZnodeRootError) {
-			return false;
 		}
-
+		return false;
 	}
 
 	
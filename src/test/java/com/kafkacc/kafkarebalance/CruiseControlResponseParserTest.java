@@ -0,0 +1,135 @@
+package com.dassault_systemes.kafkarebalance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Fields read from the cruise control responses
+ *
+ * @author SKI44
+ *
+ */
+public class CruiseControlResponseParserTest {
+	private static final String USER_TASKS = "{\"userTasks\":["
+			+ "{\"UserTaskId\":\"t1\",\"RequestURL\":\"GET /kafkacruisecontrol/load?json=true\",\"Status\":\"Active\"},"
+			+ "{\"UserTaskId\":\"t2\",\"RequestURL\":\"POST /kafkacruisecontrol/add_broker?brokerid=4\",\"Status\":\"Completed\"},"
+			+ "{\"UserTaskId\":\"t3\",\"RequestURL\":\"POST /kafkacruisecontrol/rebalance?dryrun=false\",\"Status\":\"InExecution\"},"
+			+ "{\"RequestURL\":\"POST /kafkacruisecontrol/remove_broker?brokerid=2\",\"Status\":\"Active\"},"
+			+ "{\"UserTaskId\":\"t5\",\"RequestURL\":\"POST /kafkacruisecontrol/remove_broker?brokerid=3\",\"Status\":\"CompletedWithError\"}"
+			+ "],\"version\":1}";
+
+	private static InputStream body(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void proposalSummaryOfARecordedResponse() throws IOException {
+		ProposalSummary summary;
+		try (InputStream body = getClass().getResourceAsStream("/fixtures/proposals-small.json")) {
+			summary = CruiseControlResponseParser.parseProposalSummary(body);
+		}
+		assertEquals(72.789, summary.getBalancednessScoreBefore(), 1e-9);
+		assertEquals(85.25, summary.getBalancednessScoreAfter(), 1e-9);
+		assertEquals(85.25 - 72.789, summary.getScoreVariation(), 1e-9);
+		assertEquals(370, summary.getDataToMoveMB(), 1e-9);
+		assertEquals(10, summary.getNumReplicaMovements());
+		assertEquals(2, summary.getNumLeaderMovements());
+		// only the scalar fields are kept
+		assertFalse(summary.getFields().containsKey("excludedTopics"));
+	}
+
+	@Test
+	public void proposalSummaryAfterOtherBlocks() throws IOException {
+		ProposalSummary summary = CruiseControlResponseParser.parseProposalSummary(
+				body("{\"proposals\":[{\"topicPartition\":{\"topic\":\"t\",\"partition\":0}}],\"loadAfterOptimization\":"
+						+ "{\"brokers\":[]},\"summary\":{\"onDemandBalancednessScoreBefore\":50,"
+						+ "\"onDemandBalancednessScoreAfter\":60.5,\"provisionStatus\":null},\"version\":1}"));
+		assertEquals(10.5, summary.getScoreVariation(), 1e-9);
+		assertNull(summary.getFields().get("provisionStatus"));
+	}
+
+	@Test
+	public void responsesWithoutTheExpectedBlockAreRejected() {
+		assertThrows(IOException.class,
+				() -> CruiseControlResponseParser.parseProposalSummary(body("{\"proposals\":[]}")));
+		assertThrows(IOException.class, () -> CruiseControlResponseParser.parseProposalSummary(body("{\"summary\":")));
+		assertThrows(IOException.class, () -> CruiseControlResponseParser.hasActiveScalingTask(body("{}")));
+		assertThrows(IOException.class, () -> CruiseControlResponseParser.parseRequestInfoId(body("{}")));
+		assertThrows(IOException.class,
+				() -> CruiseControlResponseParser.parseBrokerIds(body("{\"KafkaBrokerState\":{}}")));
+		assertThrows(IOException.class, () -> CruiseControlResponseParser.parseBrokerLoads(body("[]")));
+	}
+
+	@Test
+	public void activeScalingTasks() throws IOException {
+		assertTrue(CruiseControlResponseParser.hasActiveScalingTask(body(USER_TASKS)));
+		assertEquals(Arrays.asList("t3"), CruiseControlResponseParser.parseActiveScalingTaskIds(body(USER_TASKS)));
+		assertFalse(CruiseControlResponseParser.hasActiveScalingTask(body("{\"userTasks\":[{\"UserTaskId\":\"t1\","
+				+ "\"RequestURL\":\"POST /kafkacruisecontrol/rebalance\",\"Status\":\"Completed\"}]}")));
+		assertFalse(CruiseControlResponseParser.hasActiveScalingTask(body("{\"userTasks\":[]}")));
+	}
+
+	@Test
+	public void userTaskStatuses() throws IOException {
+		Map<String, String> expected = new LinkedHashMap<String, String>();
+		expected.put("t1", "Active");
+		expected.put("t2", "Completed");
+		expected.put("t3", "InExecution");
+		expected.put("t5", "CompletedWithError");
+		assertEquals(expected, CruiseControlResponseParser.parseUserTaskStatuses(body(USER_TASKS)));
+		assertEquals("Active", CruiseControlResponseParser.parseUserTaskStatus(body(USER_TASKS)));
+		assertNull(CruiseControlResponseParser.parseUserTaskStatus(body("{\"userTasks\":[]}")));
+	}
+
+	@Test
+	public void scalingRequestURLs() {
+		assertTrue(CruiseControlResponseParser.isScalingRequestURL("POST /kafkacruisecontrol/add_broker?brokerid=1"));
+		assertTrue(CruiseControlResponseParser.isScalingRequestURL("REMOVE_BROKER"));
+		assertFalse(CruiseControlResponseParser.isScalingRequestURL("GET /kafkacruisecontrol/proposals"));
+	}
+
+	@Test
+	public void requestInfoId() throws IOException {
+		assertEquals("42", CruiseControlResponseParser.parseRequestInfoId(body("{\"version\":1,\"RequestInfo\":"
+				+ "[{\"Status\":\"PENDING_REVIEW\",\"Id\":42,\"Reason\":\"\"}]}")));
+		assertThrows(IOException.class,
+				() -> CruiseControlResponseParser.parseRequestInfoId(body("{\"RequestInfo\":[{\"Status\":\"x\"}]}")));
+	}
+
+	@Test
+	public void brokerIds() throws IOException {
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3")),
+				CruiseControlResponseParser.parseBrokerIds(body("{\"KafkaBrokerState\":{\"Summary\":{\"Brokers\":3},"
+						+ "\"IsController\":{\"1\":true,\"2\":false,\"3\":false},\"OnlineLogDirsByBrokerId\":{}}}")));
+	}
+
+	@Test
+	public void brokerLoads() throws IOException {
+		List<BrokerLoad> loads = CruiseControlResponseParser.parseBrokerLoads(body("{\"hosts\":[],\"brokers\":["
+				+ "{\"Broker\":1,\"BrokerState\":\"ALIVE\",\"CpuPct\":40,\"LeaderNwInRate\":100,\"FollowerNwInRate\":50,"
+				+ "\"NwOutRate\":300,\"NetworkInCapacity\":1000,\"NetworkOutCapacity\":400,\"DiskMB\":[1,2]},"
+				+ "{\"Broker\":2,\"BrokerState\":\"DEAD\"},{\"BrokerState\":\"ALIVE\"}]}"));
+		assertEquals(2, loads.size());
+		BrokerLoad load = loads.get(0);
+		assertEquals(1, load.getBrokerId());
+		assertTrue(load.isAlive());
+		assertEquals(150, load.getNwInRate(), 1e-9);
+		assertEquals(0.75, load.getUtilization(), 1e-9);
+		assertFalse(loads.get(1).isAlive());
+	}
+}
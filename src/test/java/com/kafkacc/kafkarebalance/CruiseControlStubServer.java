@@ -0,0 +1,364 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process fake of the cruise control REST API, served by the JDK built-in
+ * Http server, so that the Http workflows of the rebalancer can be run and
+ * loaded without a live cruise control (shared with the benchmarks module
+ * through the test jar). <br/>
+ * Endpoints under '/kafkacruisecontrol/': <br/>
+ * - GET proposals: recorded proposals fixture of 6 brokers by default
+ * ('fixtures/proposals-small.json'), <br/>
+ * - GET user_tasks: the tasks launched on the stub (filtered by
+ * 'user_task_ids'), 'Completed' once their execution time has elapsed, <br/>
+ * - GET kafka_cluster_state and load: generated from the broker ids, <br/>
+ * - POST rebalance, add_broker, remove_broker, admin: 2 steps verification, a
+ * request without 'review_id' gets a pending review, a request with it starts
+ * a task returned in the 'User-Task-ID' header, <br/>
+ * - POST review: approves the request. <br/>
+ * A latency and an error rate can be injected per endpoint.
+ *
+ * @author SKI44
+ *
+ */
+public class CruiseControlStubServer implements AutoCloseable {
+	private final static Logger logger = LoggerFactory.getLogger(CruiseControlStubServer.class);
+
+	public static final String CONTEXT = "/kafkacruisecontrol/";
+	static final List<String> REVIEWED_ENDPOINTS = Arrays.asList("rebalance", "add_broker", "remove_broker", "admin");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ConcurrentMap<String, byte[]> recordedResponses = new ConcurrentHashMap<String, byte[]>();
+	private final ConcurrentMap<String, long[]> latencies = new ConcurrentHashMap<String, long[]>();
+	private final ConcurrentMap<String, Fault> faults = new ConcurrentHashMap<String, Fault>();
+	private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+	/**
+	 * tasks launched on the stub, by task id, with their request URL and start
+	 * time (ordered by launch)
+	 */
+	private final Map<String, Task> tasks = Collections.synchronizedMap(new LinkedHashMap<String, Task>());
+	private final AtomicInteger nextRequestId = new AtomicInteger(1);
+	private volatile List<Integer> brokerIds = Arrays.asList(0, 1, 2);
+	private volatile long taskExecutionMs;
+
+	/**
+	 * Starts the stub on the loopback interface
+	 *
+	 * @param port    port to listen on (0 for any free port)
+	 * @param threads number of threads serving the requests
+	 * @throws IOException if the server couldn't listen on the port
+	 */
+	public CruiseControlStubServer(int port, int threads) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext(CONTEXT, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} catch (RuntimeException e) {
+					logger.warn("stub request " + exchange.getRequestURI() + " failed", e);
+					respond(exchange, 500, errorBody(e.toString()));
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "cruise-control-stub");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		recordedResponses.put("proposals", loadFixture("proposals-small.json"));
+		server.start();
+	}
+
+	/**
+	 * @return base URL of the stub, to use as 'cc.url'
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Serves a recorded response body for an endpoint instead of the generated
+	 * one
+	 *
+	 * @param endpoint endpoint name (e.g. 'proposals')
+	 * @param body     recorded response body
+	 */
+	public void setRecordedResponse(String endpoint, byte[] body) {
+		recordedResponses.put(endpoint, body);
+	}
+
+	/**
+	 * Delays the responses of an endpoint
+	 *
+	 * @param endpoint endpoint name, '*' for all endpoints
+	 * @param minMs    minimum delay in ms
+	 * @param maxMs    maximum delay in ms, the delay is uniformly distributed
+	 */
+	public void setLatency(String endpoint, long minMs, long maxMs) {
+		latencies.put(endpoint, new long[] { minMs, Math.max(minMs, maxMs) });
+	}
+
+	/**
+	 * Fails a share of the requests of an endpoint
+	 *
+	 * @param endpoint endpoint name, '*' for all endpoints
+	 * @param rate     share of the requests failing, in [0, 1]
+	 * @param status   Http status of the failed requests
+	 */
+	public void setErrorRate(String endpoint, double rate, int status) {
+		faults.put(endpoint, new Fault(rate, status));
+	}
+
+	/**
+	 * @param brokerIds ids of the brokers of the cluster state and load
+	 */
+	public void setBrokerIds(List<Integer> brokerIds) {
+		this.brokerIds = new ArrayList<Integer>(brokerIds);
+	}
+
+	/**
+	 * @param taskExecutionMs time in ms a launched task stays 'InExecution'
+	 */
+	public void setTaskExecutionMs(long taskExecutionMs) {
+		this.taskExecutionMs = taskExecutionMs;
+	}
+
+	/**
+	 * @return number of requests received, by method and endpoint
+	 */
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> count : requestCounts.entrySet()) {
+			counts.put(count.getKey(), count.getValue().get());
+		}
+		return counts;
+	}
+
+	/**
+	 * @return number of tasks launched on the stub
+	 */
+	public int getLaunchedTaskCount() {
+		return tasks.size();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String endpoint = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+		String method = exchange.getRequestMethod();
+		Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+		requestCounts.computeIfAbsent(method + " " + endpoint, key -> new AtomicLong()).incrementAndGet();
+		drain(exchange.getRequestBody());
+		delay(endpoint);
+		Fault fault = faults.containsKey(endpoint) ? faults.get(endpoint) : faults.get("*");
+		if (fault != null && ThreadLocalRandom.current().nextDouble() < fault.rate) {
+			respond(exchange, fault.status, errorBody("injected error on " + endpoint));
+			return;
+		}
+		byte[] recorded = recordedResponses.get(endpoint);
+		if (recorded != null) {
+			respond(exchange, 200, recorded);
+		} else if ("GET".equals(method) && "user_tasks".equals(endpoint)) {
+			respond(exchange, 200, userTasksBody(parameters.get("user_task_ids")));
+		} else if ("GET".equals(method) && "kafka_cluster_state".equals(endpoint)) {
+			respond(exchange, 200, clusterStateBody());
+		} else if ("GET".equals(method) && "load".equals(endpoint)) {
+			respond(exchange, 200, loadBody());
+		} else if ("POST".equals(method) && "review".equals(endpoint)) {
+			respond(exchange, 200, requestInfoBody(parameters.get("approve"), "APPROVED", endpoint));
+		} else if ("POST".equals(method) && REVIEWED_ENDPOINTS.contains(endpoint)) {
+			String reviewId = parameters.get("review_id");
+			if (reviewId == null) {
+				respond(exchange, 200,
+						requestInfoBody(Integer.toString(nextRequestId.getAndIncrement()), "PENDING_REVIEW", endpoint));
+			} else {
+				String taskId = UUID.randomUUID().toString();
+				tasks.put(taskId, new Task("POST " + exchange.getRequestURI(), System.currentTimeMillis()));
+				exchange.getResponseHeaders().set("User-Task-ID", taskId);
+				respond(exchange, 200, "{\"version\":1}".getBytes(StandardCharsets.UTF_8));
+			}
+		} else {
+			respond(exchange, 404, errorBody("no stubbed endpoint " + method + " " + endpoint));
+		}
+	}
+
+	private void delay(String endpoint) {
+		long[] latency = latencies.containsKey(endpoint) ? latencies.get(endpoint) : latencies.get("*");
+		if (latency == null) {
+			return;
+		}
+		long delayMs = latency[0] + (latency[1] > latency[0]
+				? ThreadLocalRandom.current().nextLong(latency[1] - latency[0] + 1)
+				: 0);
+		try {
+			Thread.sleep(delayMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private byte[] userTasksBody(String userTaskIds) {
+		List<String> requestedIds = userTaskIds == null ? null : Arrays.asList(userTaskIds.split(","));
+		long now = System.currentTimeMillis();
+		StringBuilder body = new StringBuilder("{\"userTasks\":[");
+		synchronized (tasks) {
+			boolean first = true;
+			for (Map.Entry<String, Task> entry : tasks.entrySet()) {
+				if (requestedIds != null && !requestedIds.contains(entry.getKey())) {
+					continue;
+				}
+				Task task = entry.getValue();
+				body.append(first ? "" : ",").append("{\"UserTaskId\":\"").append(entry.getKey())
+						.append("\",\"RequestURL\":\"").append(task.requestUrl)
+						.append("\",\"ClientIdentity\":\"127.0.0.1\",\"StartMs\":\"").append(task.startMs)
+						.append("\",\"Status\":\"")
+						.append(now - task.startMs >= taskExecutionMs ? "Completed" : "InExecution").append("\"}");
+				first = false;
+			}
+		}
+		return body.append("],\"version\":1}").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private byte[] clusterStateBody() {
+		StringBuilder isController = new StringBuilder();
+		StringBuilder onlineLogDirs = new StringBuilder();
+		List<Integer> ids = brokerIds;
+		for (int i = 0; i < ids.size(); i++) {
+			String separator = i == 0 ? "" : ",";
+			isController.append(separator).append('"').append(ids.get(i)).append("\":").append(i == 0);
+			onlineLogDirs.append(separator).append('"').append(ids.get(i)).append("\":[\"/var/lib/kafka\"]");
+		}
+		return ("{\"KafkaBrokerState\":{\"OnlineLogDirsByBrokerId\":{" + onlineLogDirs + "},\"IsController\":{"
+				+ isController + "}},\"version\":1}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private byte[] loadBody() {
+		StringBuilder body = new StringBuilder("{\"brokers\":[");
+		List<Integer> ids = brokerIds;
+		for (int i = 0; i < ids.size(); i++) {
+			body.append(i == 0 ? "" : ",").append("{\"Broker\":").append(ids.get(i))
+					.append(",\"BrokerState\":\"ALIVE\",\"CpuPct\":25.0,\"LeaderNwInRate\":2000.0,"
+							+ "\"FollowerNwInRate\":1000.0,\"NwOutRate\":4000.0,\"NetworkInCapacity\":50000.0,"
+							+ "\"NetworkOutCapacity\":50000.0}");
+		}
+		return body.append("],\"version\":1}").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] requestInfoBody(String requestId, String status, String endpoint) {
+		return ("{\"RequestInfo\":[{\"Id\":" + requestId + ",\"SubmitterAddress\":\"127.0.0.1\",\"SubmissionTimeMs\":"
+				+ System.currentTimeMillis() + ",\"Status\":\"" + status + "\",\"EndpointWithParams\":\"" + endpoint
+				+ "\",\"Reason\":\"No reason provided\"}],\"version\":1}").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] errorBody(String message) {
+		return ("{\"errorMessage\":\"" + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\",\"version\":1}")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+		Map<String, String> parameters = new TreeMap<String, String>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+		for (String pair : rawQuery.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+			parameters.put(name, equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	private static byte[] loadFixture(String name) throws IOException {
+		InputStream is = CruiseControlStubServer.class.getResourceAsStream("/fixtures/" + name);
+		if (is == null) {
+			throw new IOException("no fixture " + name);
+		}
+		try {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				content.write(buffer, 0, read);
+			}
+			return content.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	private static void drain(InputStream body) throws IOException {
+		byte[] buffer = new byte[4096];
+		while (body.read(buffer) > 0) {
+			// request bodies are ignored
+		}
+		body.close();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private static class Fault {
+		final double rate;
+		final int status;
+
+		Fault(double rate, int status) {
+			this.rate = rate;
+			this.status = status;
+		}
+	}
+
+	private static class Task {
+		final String requestUrl;
+		final long startMs;
+
+		Task(String requestUrl, long startMs) {
+			this.requestUrl = requestUrl;
+			this.startMs = startMs;
+		}
+	}
+}
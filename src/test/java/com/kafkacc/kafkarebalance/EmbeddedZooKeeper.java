@@ -0,0 +1,42 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Standalone ZK server on a free local port, its data is deleted on close
+ *
+ * @author SKI44
+ *
+ */
+public class EmbeddedZooKeeper implements AutoCloseable {
+	private static final int TICK_TIME_MS = 2000;
+
+	private final TemporaryDirectory dataDirectory;
+	private final ServerCnxnFactory connectionFactory;
+
+	public EmbeddedZooKeeper() throws IOException, InterruptedException {
+		dataDirectory = new TemporaryDirectory("zookeeper");
+		ZooKeeperServer server = new ZooKeeperServer(dataDirectory.resolve("snapshots").toFile(),
+				dataDirectory.resolve("logs").toFile(), TICK_TIME_MS);
+		connectionFactory = ServerCnxnFactory.createFactory();
+		connectionFactory.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+		connectionFactory.startup(server);
+	}
+
+	/**
+	 * @return connect string of the server
+	 */
+	public String getConnectString() {
+		return "127.0.0.1:" + connectionFactory.getLocalPort();
+	}
+
+	@Override
+	public void close() throws IOException {
+		connectionFactory.shutdown();
+		dataDirectory.close();
+	}
+}
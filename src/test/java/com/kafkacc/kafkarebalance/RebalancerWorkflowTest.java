@@ -0,0 +1,173 @@
+package com.dassault_systemes.kafkarebalance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import picocli.CommandLine;
+
+/**
+ * Workflow runs against {@link CruiseControlStubServer} and an embedded ZK
+ * server. The stub knows brokers 1, 2 and 3.
+ *
+ * @author SKI44
+ *
+ */
+public class RebalancerWorkflowTest {
+	private TemporaryDirectory directory;
+	private EmbeddedZooKeeper zooKeeper;
+	private CruiseControlStubServer stub;
+	private ZKScheduler scheduler;
+	private Properties properties;
+
+	@BeforeEach
+	public void start() throws Exception {
+		directory = new TemporaryDirectory("workflow");
+		zooKeeper = new EmbeddedZooKeeper();
+		stub = new CruiseControlStubServer(0, 4);
+		stub.setBrokerIds(Arrays.asList(1, 2, 3));
+		scheduler = new ZKScheduler();
+
+		properties = new Properties();
+		try (InputStream defaults = KafkaRebalanceMain.class.getClassLoader()
+				.getResourceAsStream("cruise-control.properties")) {
+			properties.load(defaults);
+		}
+		properties.setProperty("cc.url", stub.getUrl());
+		properties.setProperty("zk.connect", zooKeeper.getConnectString());
+		properties.setProperty("path.log.rebalancing.csv", directory.getPath().toString());
+		properties.setProperty("path.score.history", directory.resolve("score-history").toString());
+		scheduler.writeZNodeData(KafkaRebalanceMain.ZK_ROOT, new byte[0], zooKeeper.getConnectString());
+	}
+
+	@AfterEach
+	public void stop() throws Exception {
+		KafkaRebalanceMain.closeResources();
+		scheduler.close();
+		stub.close();
+		zooKeeper.close();
+		directory.close();
+	}
+
+	/**
+	 * Runs the workflow once with the configuration of the test
+	 */
+	private int run(String... args) throws Exception {
+		Path configFile = directory.resolve("cruise-control.properties");
+		try (OutputStream os = Files.newOutputStream(configFile)) {
+			properties.store(os, null);
+		}
+		List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+		arguments.add("-c");
+		arguments.add(configFile.toString());
+		KafkaRebalanceMain main = new KafkaRebalanceMain();
+		new CommandLine(main).parseArgs(arguments.toArray(new String[arguments.size()]));
+		return main.call();
+	}
+
+	private void enqueueAdd(int... brokerIds) throws Exception {
+		for (int brokerId : brokerIds) {
+			scheduler.enqueueScalingOperation(KafkaRebalanceMain.ZK_ROOT,
+					new ScalingOperation(brokerId, ScalingOperation.ADD), zooKeeper.getConnectString());
+		}
+	}
+
+	/**
+	 * @return broker ids of the queued operations, read by a new session
+	 */
+	private List<Integer> queuedBrokerIds() throws Exception {
+		try (ZKScheduler reader = new ZKScheduler()) {
+			List<Integer> brokerIds = new ArrayList<Integer>();
+			for (String data : reader.getQueueCache(KafkaRebalanceMain.ZK_ROOT, zooKeeper.getConnectString())
+					.getAllData()) {
+				brokerIds.add(ScalingOperation.parse(data).getBrokerId());
+			}
+			return brokerIds;
+		}
+	}
+
+	private long requestCount(String request) {
+		Long count = stub.getRequestCounts().get(request);
+		return count == null ? 0 : count;
+	}
+
+	@Test
+	public void scalingBatchIsLaunchedAndDequeued() throws Exception {
+		enqueueAdd(1, 5, 2);
+
+		assertEquals(0, (int) run("-m", "execution", "-t", "10"));
+
+		// broker 5 isn't known by cruise control yet: it stays scheduled
+		assertEquals(Arrays.asList(5), queuedBrokerIds());
+		assertEquals(1, stub.getLaunchedTaskCount());
+		// one request for review then its approved execution
+		assertEquals(2, requestCount("POST add_broker"));
+		assertEquals(1, requestCount("POST review"));
+		assertEquals(1, requestCount("GET kafka_cluster_state"));
+		assertEquals(0, requestCount("GET proposals"));
+	}
+
+	@Test
+	public void failedLaunchKeepsTheOperationsQueued() throws Exception {
+		stub.setErrorRate("add_broker", 1.0, 500);
+		enqueueAdd(1, 5, 2);
+
+		assertThrows(IOException.class, () -> run("-m", "execution", "-t", "10"));
+
+		assertEquals(Arrays.asList(1, 5, 2), queuedBrokerIds());
+		assertEquals(0, stub.getLaunchedTaskCount());
+		assertEquals(0, requestCount("POST review"));
+	}
+
+	@Test
+	public void balancedClusterIsNotRebalanced() throws Exception {
+		// the recorded proposals improve the score by 12.46
+		assertEquals(0, (int) run("-m", "execution", "-t", "100"));
+
+		Map<String, Long> requests = stub.getRequestCounts();
+		assertTrue(requestCount("GET proposals") >= 1, requests.toString());
+		assertFalse(requests.containsKey("POST rebalance"), requests.toString());
+		assertEquals(0, stub.getLaunchedTaskCount());
+	}
+
+	@Test
+	public void unbalancedClusterIsRebalanced() throws Exception {
+		// without trend detection, a single measure in the alert band is enough
+		properties.setProperty("trend.detection.enabled", "false");
+
+		assertEquals(0, (int) run("-m", "execution", "-t", "10"));
+
+		assertEquals(1, requestCount("GET proposals"));
+		assertEquals(1, stub.getLaunchedTaskCount());
+		assertEquals(1, requestCount("POST review"));
+	}
+
+	@Test
+	public void simulationLaunchesNothing() throws Exception {
+		properties.setProperty("trend.detection.enabled", "false");
+		enqueueAdd(1);
+
+		assertEquals(0, (int) run("-m", "simulation", "-t", "10"));
+
+		assertEquals(Arrays.asList(1), queuedBrokerIds());
+		assertEquals(0, stub.getLaunchedTaskCount());
+		assertFalse(stub.getRequestCounts().keySet().stream().anyMatch(request -> request.startsWith("POST")),
+				stub.getRequestCounts().toString());
+	}
+}
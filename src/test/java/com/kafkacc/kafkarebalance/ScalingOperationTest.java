@@ -0,0 +1,84 @@
+package com.dassault_systemes.kafkarebalance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Payloads of the queued scaling operations and their order in the queue
+ *
+ * @author SKI44
+ *
+ */
+public class ScalingOperationTest {
+	private static final String QUEUE_PATH = "/scalingBrokersOperations";
+
+	@Test
+	public void jsonPayloadRoundTrip() {
+		ScalingOperation operation = new ScalingOperation(7, ScalingOperation.REMOVE, 1600000000000L, 4);
+		ScalingOperation parsed = ScalingOperation.parse(operation.toJSON());
+		assertEquals(7, parsed.getBrokerId());
+		assertEquals(ScalingOperation.REMOVE, parsed.getOperation());
+		assertEquals(1600000000000L, parsed.getEnqueueTime());
+		assertEquals(4, parsed.getPriority());
+		assertEquals("7-remove", parsed.getKey());
+	}
+
+	@Test
+	public void jsonPayloadDefaults() {
+		ScalingOperation parsed = ScalingOperation.parse(" {\"brokerId\":3,\"operation\":\"add\"} ");
+		assertEquals(3, parsed.getBrokerId());
+		assertEquals(0, parsed.getEnqueueTime());
+		assertEquals(ScalingOperation.MIN_PRIORITY, parsed.getPriority());
+	}
+
+	@Test
+	public void legacyPayload() {
+		ScalingOperation parsed = ScalingOperation.parse("12-add\n");
+		assertEquals(12, parsed.getBrokerId());
+		assertEquals(ScalingOperation.ADD, parsed.getOperation());
+		assertEquals(0, parsed.getEnqueueTime());
+		assertEquals(ScalingOperation.MIN_PRIORITY, parsed.getPriority());
+		assertEquals("12-add", parsed.getKey());
+	}
+
+	@Test
+	public void invalidPayloadsAreRejected() {
+		for (String payload : Arrays.asList("", "add", "x-add", "7-add-now", "{", "{\"operation\":\"add\"}",
+				"{\"brokerId\":7,\"operation\":\"add\",\"priority\":10}")) {
+			assertThrows(IllegalArgumentException.class, () -> ScalingOperation.parse(payload), payload);
+		}
+	}
+
+	@Test
+	public void priorityOutOfRangeIsRejected() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new ScalingOperation(1, ScalingOperation.ADD, 0, ScalingOperation.MIN_PRIORITY - 1));
+		assertThrows(IllegalArgumentException.class,
+				() -> new ScalingOperation(1, ScalingOperation.ADD, 0, ScalingOperation.MAX_PRIORITY + 1));
+	}
+
+	@Test
+	public void queueIsOrderedByPriorityThenScheduling() throws Exception {
+		try (EmbeddedZooKeeper server = new EmbeddedZooKeeper(); ZKScheduler scheduler = new ZKScheduler()) {
+			String host = server.getConnectString();
+			scheduler.writeZNodeData(QUEUE_PATH, new byte[0], host);
+			int[][] brokersAndPriorities = { { 1, 0 }, { 2, 9 }, { 3, 0 }, { 4, 5 }, { 5, 9 } };
+			for (int[] brokerAndPriority : brokersAndPriorities) {
+				assertNotNull(scheduler.enqueueScalingOperation(QUEUE_PATH, new ScalingOperation(brokerAndPriority[0],
+						ScalingOperation.ADD, System.currentTimeMillis(), brokerAndPriority[1]), host));
+			}
+			// a similar operation isn't scheduled twice, whatever its priority
+			assertNull(scheduler.enqueueScalingOperation(QUEUE_PATH,
+					new ScalingOperation(3, ScalingOperation.ADD, System.currentTimeMillis(), 9), host));
+
+			ScalingBatch batch = scheduler.getScalingBatch(QUEUE_PATH, 10, host);
+			assertEquals(Arrays.asList(2, 5, 4, 1, 3), batch.getBrokerIds());
+		}
+	}
+}
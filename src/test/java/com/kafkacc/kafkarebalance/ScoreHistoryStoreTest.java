@@ -0,0 +1,200 @@
+package com.dassault_systemes.kafkarebalance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Samples written to the segment files of a score history and read back
+ *
+ * @author SKI44
+ *
+ */
+public class ScoreHistoryStoreTest {
+	private static final String SERIES = "default";
+	// 4 records per segment
+	private static final long SEGMENT_MAX_BYTES = ScoreHistoryStore.HEADER_SIZE + 4 * ScoreSample.RECORD_SIZE;
+	private static final long START_MS = 1600000000000L;
+	private static final long STEP_MS = 60 * 1000L;
+	private static final String[] DECISIONS = { "safe", "unsafe", "alert", null };
+
+	private TemporaryDirectory directory;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		directory = new TemporaryDirectory("score-history");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		directory.close();
+	}
+
+	private ScoreHistoryStore store() {
+		return new ScoreHistoryStore(directory.getPath(), SERIES, SEGMENT_MAX_BYTES);
+	}
+
+	private static ScoreSample sample(int i) {
+		return new ScoreSample(START_MS + i * STEP_MS, 70 + i, 80 + i, 10 + i / 4.0, 100 * i, DECISIONS[i % 4]);
+	}
+
+	private static void assertSample(int i, ScoreSample sample) {
+		ScoreSample expected = sample(i);
+		assertEquals(expected.getTimestampMs(), sample.getTimestampMs());
+		assertEquals(expected.getScoreBefore(), sample.getScoreBefore());
+		assertEquals(expected.getScoreAfter(), sample.getScoreAfter());
+		assertEquals(expected.getScoreVariation(), sample.getScoreVariation());
+		assertEquals(expected.getDataToMoveMB(), sample.getDataToMoveMB());
+		assertEquals(expected.getDecision(), sample.getDecision());
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.getPath(),
+				SERIES + "-*" + ScoreHistoryStore.SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort(null);
+		return files;
+	}
+
+	@Test
+	public void emptyStore() throws IOException {
+		try (ScoreHistoryStore store = store()) {
+			assertEquals(-1, store.getLastTimestampMs());
+			assertTrue(store.scan(Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+		}
+	}
+
+	@Test
+	public void roundTripAcrossSegments() throws IOException {
+		try (ScoreHistoryStore store = store()) {
+			for (int i = 0; i < 10; i++) {
+				store.append(sample(i));
+			}
+			List<ScoreSample> samples = store.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+			assertEquals(10, samples.size());
+			for (int i = 0; i < 10; i++) {
+				assertSample(i, samples.get(i));
+			}
+			assertEquals(sample(9).getTimestampMs(), store.getLastTimestampMs());
+		}
+		assertEquals(3, segmentFiles().size());
+	}
+
+	@Test
+	public void scanRangeIsInclusive() throws IOException {
+		try (ScoreHistoryStore store = store()) {
+			for (int i = 0; i < 10; i++) {
+				store.append(sample(i));
+			}
+			// from the last record of the first segment to the first record of the last one
+			List<ScoreSample> samples = store.scan(sample(3).getTimestampMs(), sample(8).getTimestampMs());
+			assertEquals(6, samples.size());
+			for (int i = 0; i < samples.size(); i++) {
+				assertSample(3 + i, samples.get(i));
+			}
+			assertTrue(store.scan(sample(9).getTimestampMs() + 1, Long.MAX_VALUE).isEmpty());
+			assertTrue(store.scan(START_MS + 1, START_MS + STEP_MS - 1).isEmpty());
+		}
+	}
+
+	@Test
+	public void samplesSurviveReopening() throws IOException {
+		try (ScoreHistoryStore store = store()) {
+			for (int i = 0; i < 6; i++) {
+				store.append(sample(i));
+			}
+		}
+		try (ScoreHistoryStore store = store()) {
+			assertEquals(sample(5).getTimestampMs(), store.getLastTimestampMs());
+			for (int i = 6; i < 10; i++) {
+				store.append(sample(i));
+			}
+			List<ScoreSample> samples = store.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+			assertEquals(10, samples.size());
+			for (int i = 0; i < 10; i++) {
+				assertSample(i, samples.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void partialRecordIsOverwritten() throws IOException {
+		try (ScoreHistoryStore store = store()) {
+			for (int i = 0; i < 3; i++) {
+				store.append(sample(i));
+			}
+		}
+		// a record interrupted by a crash
+		Files.write(segmentFiles().get(0), new byte[] { 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+		try (ScoreHistoryStore store = store()) {
+			assertEquals(3, store.scan(Long.MIN_VALUE, Long.MAX_VALUE).size());
+			store.append(sample(3));
+			List<ScoreSample> samples = store.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+			assertEquals(4, samples.size());
+			for (int i = 0; i < 4; i++) {
+				assertSample(i, samples.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void storesOfASameSeriesAppendInTurn() throws IOException {
+		try (ScoreHistoryStore first = store(); ScoreHistoryStore second = store()) {
+			for (int i = 0; i < 10; i++) {
+				(i % 2 == 0 ? first : second).append(sample(i));
+			}
+			List<ScoreSample> samples = first.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+			assertEquals(10, samples.size());
+			for (int i = 0; i < 10; i++) {
+				assertSample(i, samples.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void exportToCSV() throws IOException {
+		Path csvFile = directory.resolve("export.csv");
+		try (ScoreHistoryStore store = store()) {
+			for (int i = 0; i < 5; i++) {
+				store.append(sample(i));
+			}
+			assertEquals(3, store.exportToCSV(csvFile, sample(1).getTimestampMs(), sample(3).getTimestampMs()));
+		}
+		List<String> lines = Files.readAllLines(csvFile, StandardCharsets.UTF_8);
+		assertEquals(4, lines.size());
+		assertEquals("TimeStamp,unbalancing-difference,", lines.get(0));
+		assertTrue(lines.get(1).endsWith("," + sample(1).getScoreVariation() + ","), lines.get(1));
+	}
+
+	@Test
+	public void unknownDecisionIsReadAsNull() throws IOException {
+		try (ScoreHistoryStore store = store()) {
+			store.append(new ScoreSample(START_MS, 1, 2, 1, 0, "rebalanced"));
+			assertNull(store.scan(START_MS, START_MS).get(0).getDecision());
+		}
+	}
+
+	@Test
+	public void segmentSmallerThanARecordIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new ScoreHistoryStore(directory.getPath(), SERIES,
+				ScoreHistoryStore.HEADER_SIZE + ScoreSample.RECORD_SIZE - 1));
+	}
+}
@@ -0,0 +1,50 @@
+package com.dassault_systemes.kafkarebalance;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Directory created for a test and deleted with its content on close
+ *
+ * @author SKI44
+ *
+ */
+public class TemporaryDirectory implements AutoCloseable {
+	private final Path path;
+
+	public TemporaryDirectory(String prefix) throws IOException {
+		this.path = Files.createTempDirectory(prefix);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public Path resolve(String name) {
+		return path.resolve(name);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
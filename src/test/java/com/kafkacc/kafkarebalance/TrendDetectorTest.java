@@ -0,0 +1,130 @@
+package com.dassault_systemes.kafkarebalance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unbalancing states evaluated from the trend of the score variation, with a
+ * threshold of 10: alert band at 9, unsafe band at 7
+ *
+ * @author SKI44
+ *
+ */
+public class TrendDetectorTest {
+	private static final double THRESHOLD = 10;
+	private static final long MINUTE_MS = 60 * 1000L;
+	private static final long HOUR_MS = 60 * MINUTE_MS;
+
+	private static TrendDetector detector() {
+		return new TrendDetector(12, 0.3, 3, 30 * MINUTE_MS, 6 * HOUR_MS);
+	}
+
+	@Test
+	public void noSampleIsSafe() {
+		TrendDetector.Assessment assessment = detector().assess(THRESHOLD);
+		assertEquals(TrendDetector.SAFE, assessment.getState());
+		assertFalse(assessment.isSustained());
+		assertFalse(assessment.isPredictedBreach());
+	}
+
+	@Test
+	public void stableLowVariationIsSafe() {
+		TrendDetector detector = detector();
+		TrendDetector.Assessment assessment = null;
+		for (int i = 0; i < 12; i++) {
+			assessment = detector.update(i * 10 * MINUTE_MS, 2, THRESHOLD);
+		}
+		assertEquals(TrendDetector.SAFE, assessment.getState());
+		assertEquals(2, assessment.getEwma(), 1e-9);
+		assertEquals(0, assessment.getSlopePerHour(), 1e-9);
+	}
+
+	@Test
+	public void singleSpikeIsOnlyUnsafe() {
+		TrendDetector detector = detector();
+		for (int i = 0; i < 3; i++) {
+			detector.add(i * MINUTE_MS, 1);
+		}
+		TrendDetector.Assessment assessment = detector.update(3 * MINUTE_MS, 9.5, THRESHOLD);
+		assertEquals(TrendDetector.UNSAFE, assessment.getState());
+		assertEquals(0.3 * 9.5 + 0.7 * 1, assessment.getEwma(), 1e-9);
+		assertFalse(assessment.isSustained());
+		assertFalse(assessment.isPredictedBreach());
+	}
+
+	@Test
+	public void sustainedAlertNeedsTheConfiguredSamples() {
+		TrendDetector detector = detector();
+		assertEquals(TrendDetector.UNSAFE, detector.update(0, 9.5, THRESHOLD).getState());
+		assertEquals(TrendDetector.UNSAFE, detector.update(MINUTE_MS, 9.5, THRESHOLD).getState());
+		TrendDetector.Assessment assessment = detector.update(2 * MINUTE_MS, 9.5, THRESHOLD);
+		assertEquals(TrendDetector.ALERT, assessment.getState());
+		assertTrue(assessment.isSustained());
+	}
+
+	@Test
+	public void risingTrendIsAPredictedBreach() {
+		TrendDetector detector = new TrendDetector(12, 1, 3, 30 * MINUTE_MS, 6 * HOUR_MS);
+		detector.add(0, 6);
+		detector.add(10 * MINUTE_MS, 7);
+		TrendDetector.Assessment assessment = detector.update(20 * MINUTE_MS, 8, THRESHOLD);
+		// 0.1 per minute: 8 + 3 over the 30 minutes of the horizon
+		assertEquals(6, assessment.getSlopePerHour(), 1e-9);
+		assertEquals(11, assessment.getPredictedVariation(), 1e-9);
+		assertFalse(assessment.isSustained());
+		assertTrue(assessment.isPredictedBreach());
+		assertEquals(TrendDetector.ALERT, assessment.getState());
+	}
+
+	@Test
+	public void fallingTrendIsNotAPredictedBreach() {
+		TrendDetector detector = new TrendDetector(12, 1, 3, 30 * MINUTE_MS, 6 * HOUR_MS);
+		detector.add(0, 8.8);
+		detector.add(10 * MINUTE_MS, 8.4);
+		TrendDetector.Assessment assessment = detector.update(20 * MINUTE_MS, 8, THRESHOLD);
+		assertTrue(assessment.getSlopePerHour() < 0);
+		assertFalse(assessment.isPredictedBreach());
+		assertEquals(TrendDetector.UNSAFE, assessment.getState());
+	}
+
+	@Test
+	public void windowKeepsTheLastSamples() {
+		TrendDetector detector = detector();
+		for (int i = 0; i < 20; i++) {
+			detector.add(i * MINUTE_MS, 1);
+		}
+		assertEquals(12, detector.getSampleCount());
+	}
+
+	@Test
+	public void gapResetsTheWindow() {
+		TrendDetector detector = detector();
+		detector.add(0, 9.5);
+		detector.add(MINUTE_MS, 9.5);
+		TrendDetector.Assessment assessment = detector.update(MINUTE_MS + 7 * HOUR_MS, 9.5, THRESHOLD);
+		assertEquals(1, detector.getSampleCount());
+		assertEquals(TrendDetector.UNSAFE, assessment.getState());
+	}
+
+	@Test
+	public void resetForgetsTheSamples() {
+		TrendDetector detector = detector();
+		detector.add(0, 9.5);
+		detector.reset();
+		assertEquals(0, detector.getSampleCount());
+		assertEquals(TrendDetector.SAFE, detector.assess(THRESHOLD).getState());
+	}
+
+	@Test
+	public void invalidParametersAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new TrendDetector(2, 0.3, 1, MINUTE_MS, HOUR_MS));
+		assertThrows(IllegalArgumentException.class, () -> new TrendDetector(12, 0, 3, MINUTE_MS, HOUR_MS));
+		assertThrows(IllegalArgumentException.class, () -> new TrendDetector(12, 1.5, 3, MINUTE_MS, HOUR_MS));
+		assertThrows(IllegalArgumentException.class, () -> new TrendDetector(12, 0.3, 0, MINUTE_MS, HOUR_MS));
+		assertThrows(IllegalArgumentException.class, () -> new TrendDetector(12, 0.3, 13, MINUTE_MS, HOUR_MS));
+	}
+}